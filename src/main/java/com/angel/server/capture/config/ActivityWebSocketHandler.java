@@ -2,6 +2,7 @@ package com.angel.server.capture.config;
 
 import com.angel.server.capture.model.ActivityDetection;
 import com.angel.server.capture.service.ActivityDetectionService;
+import com.angel.server.capture.service.DetectionEventBus;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import org.slf4j.Logger;
@@ -34,9 +35,11 @@ public class ActivityWebSocketHandler implements WebSocketHandler {
         // Configurer ObjectMapper pour les dates
         objectMapper.registerModule(new JavaTimeModule());
         
-        // S'abonner aux détections d'activité
+        // S'abonner aux détections d'activité (seule la plus récente compte pour les clients :
+        // un client lent ne retarde jamais le cycle de détection)
         if (activityDetectionService != null) {
-            activityDetectionService.addDetectionListener(this::broadcastDetection);
+            activityDetectionService.addDetectionListener("websocket", this::broadcastDetection,
+                                                          1, DetectionEventBus.OverflowPolicy.CONFLATE);
         }
     }
 
@@ -2,22 +2,33 @@ package com.angel.server.capture.controller;
 
 import com.angel.server.capture.model.ActivityDetection;
 import com.angel.server.capture.service.*;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Contrôleur REST pour l'API de capture d'activité
@@ -29,6 +40,9 @@ public class CaptureApiController {
 
     private static final Logger logger = LoggerFactory.getLogger(CaptureApiController.class);
 
+    // Nombre de détections envoyées entre deux vidages du flux de réponse
+    private static final int HISTORY_FLUSH_INTERVAL = 256;
+
     @Autowired
     private VideoCaptureService videoCaptureService;
 
@@ -47,6 +61,11 @@ public class CaptureApiController {
     @Autowired
     private ModelService modelService;
 
+    // Sérialisation des historiques envoyés en flux
+    private final ObjectMapper historyMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
     // ========== ENDPOINTS DE CONTRÔLE DE CAPTURE ==========
 
     /**
@@ -148,6 +167,56 @@ public class CaptureApiController {
         return ResponseEntity.ok(status);
     }
 
+    /**
+     * Démarre la relecture d'un fichier audio comme source (tests sans microphone)
+     * Le chemin est relatif au répertoire de relecture (capture.audio.replay.directory)
+     */
+    @PostMapping("/capture/audio/replay")
+    public ResponseEntity<Map<String, Object>> startAudioReplay(
+            @RequestParam String path,
+            @RequestParam(defaultValue = AudioCaptureService.MICROPHONE_SOURCE) String source,
+            @RequestParam(defaultValue = "true") boolean realtime,
+            @RequestParam(defaultValue = "false") boolean loop) {
+
+        Map<String, Object> response = new HashMap<>();
+        try {
+            AudioFileSource fileSource = audioCaptureService.startDirectoryReplay(source, path, realtime, loop);
+
+            response.put("status", "success");
+            response.put("source", source);
+            response.put("replay", fileSource.getStats());
+            response.put("timestamp", System.currentTimeMillis());
+
+            return ResponseEntity.ok(response);
+
+        } catch (IOException e) {
+            logger.error("Erreur lors du démarrage de la relecture audio: {}", e.getMessage());
+
+            // Message générique : ne pas révéler l'existence des fichiers du serveur
+            response.put("status", "error");
+            response.put("message", "Relecture impossible: fichier invalide ou illisible");
+            response.put("timestamp", System.currentTimeMillis());
+
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    /**
+     * Arrête la relecture d'un fichier audio
+     */
+    @DeleteMapping("/capture/audio/replay/{source}")
+    public ResponseEntity<Map<String, Object>> stopAudioReplay(@PathVariable String source) {
+        audioCaptureService.stopFileReplay(source);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("source", source);
+        response.put("replays", audioCaptureService.getFileReplayStats());
+        response.put("timestamp", System.currentTimeMillis());
+
+        return ResponseEntity.ok(response);
+    }
+
     // ========== ENDPOINTS D'ACTIVITÉ COURANTE ==========
 
     /**
@@ -179,109 +248,100 @@ public class CaptureApiController {
 
     /**
      * Retourne l'historique du jour
+     * since= (curseur de la réponse précédente) ne renvoie que les détections ajoutées depuis,
+     * limit= pagine la réponse (has_more), If-None-Match donne 304 si le jour n'a pas changé
      */
     @GetMapping("/history/today")
-    public ResponseEntity<Map<String, Object>> getTodayHistory() {
-        try {
-            List<ActivityDetection> history = historyService.getTodayHistory();
-            
-            Map<String, Object> response = new HashMap<>();
-            response.put("status", "success");
-            response.put("date", LocalDate.now().toString());
-            response.put("detections", history);
-            response.put("count", history.size());
-            response.put("timestamp", System.currentTimeMillis());
-            
-            return ResponseEntity.ok(response);
-            
-        } catch (Exception e) {
-            logger.error("Erreur lors de la récupération de l'historique du jour: {}", e.getMessage());
-            
-            Map<String, Object> response = new HashMap<>();
-            response.put("status", "error");
-            response.put("message", "Erreur lors de la récupération: " + e.getMessage());
-            
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
-        }
+    public ResponseEntity<Map<String, Object>> getTodayHistory(
+            @RequestParam(required = false) String since,
+            @RequestParam(defaultValue = "0") int limit,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+        return dayHistory(LocalDate.now(), since, limit, ifNoneMatch);
     }
 
     /**
-     * Retourne l'historique de la semaine
+     * Retourne l'historique de la semaine (envoyé en flux)
      */
     @GetMapping("/history/week")
-    public ResponseEntity<Map<String, Object>> getWeekHistory() {
-        try {
-            List<ActivityDetection> history = historyService.getWeekHistory();
-            
-            Map<String, Object> response = new HashMap<>();
-            response.put("status", "success");
-            response.put("period", "week");
-            response.put("end_date", LocalDate.now().toString());
-            response.put("start_date", LocalDate.now().minusDays(6).toString());
-            response.put("detections", history);
-            response.put("count", history.size());
-            response.put("timestamp", System.currentTimeMillis());
-            
-            return ResponseEntity.ok(response);
-            
-        } catch (Exception e) {
-            logger.error("Erreur lors de la récupération de l'historique de la semaine: {}", e.getMessage());
-            
-            Map<String, Object> response = new HashMap<>();
-            response.put("status", "error");
-            response.put("message", "Erreur lors de la récupération: " + e.getMessage());
-            
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
-        }
+    public ResponseEntity<StreamingResponseBody> getWeekHistory(
+            @RequestParam(defaultValue = "true") boolean predictions) {
+        LocalDate endDate = LocalDate.now();
+        LocalDate startDate = endDate.minusDays(6);
+
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("period", "week");
+        fields.put("end_date", endDate.toString());
+        fields.put("start_date", startDate.toString());
+        return streamHistory(fields, startDate.atStartOfDay(), endDate.atTime(LocalTime.MAX), predictions);
     }
 
     /**
-     * Retourne l'historique du mois
+     * Retourne l'historique du mois (envoyé en flux)
      */
     @GetMapping("/history/month")
-    public ResponseEntity<Map<String, Object>> getMonthHistory() {
-        try {
-            List<ActivityDetection> history = historyService.getMonthHistory();
-            
-            Map<String, Object> response = new HashMap<>();
-            response.put("status", "success");
-            response.put("period", "month");
-            response.put("end_date", LocalDate.now().toString());
-            response.put("start_date", LocalDate.now().minusDays(29).toString());
-            response.put("detections", history);
-            response.put("count", history.size());
-            response.put("timestamp", System.currentTimeMillis());
-            
-            return ResponseEntity.ok(response);
-            
-        } catch (Exception e) {
-            logger.error("Erreur lors de la récupération de l'historique du mois: {}", e.getMessage());
-            
-            Map<String, Object> response = new HashMap<>();
-            response.put("status", "error");
-            response.put("message", "Erreur lors de la récupération: " + e.getMessage());
-            
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
-        }
+    public ResponseEntity<StreamingResponseBody> getMonthHistory(
+            @RequestParam(defaultValue = "true") boolean predictions) {
+        LocalDate endDate = LocalDate.now();
+        LocalDate startDate = endDate.minusDays(29);
+
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("period", "month");
+        fields.put("end_date", endDate.toString());
+        fields.put("start_date", startDate.toString());
+        return streamHistory(fields, startDate.atStartOfDay(), endDate.atTime(LocalTime.MAX), predictions);
     }
 
     /**
-     * Retourne l'historique pour une date spécifique
+     * Retourne l'historique pour une date spécifique (voir {@link #getTodayHistory})
      */
     @GetMapping("/history/date/{date}")
     public ResponseEntity<Map<String, Object>> getHistoryForDate(
-            @PathVariable @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate date) {
+            @PathVariable @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate date,
+            @RequestParam(required = false) String since,
+            @RequestParam(defaultValue = "0") int limit,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+        return dayHistory(date, since, limit, ifNoneMatch);
+    }
+
+    /**
+     * Historique d'un jour, complet ou postérieur à un curseur, avec étiquette de version :
+     * la réponse contient le curseur à renvoyer dans since= au prochain appel, et un client
+     * dont l'étiquette (If-None-Match) est à jour reçoit 304 sans corps.
+     * Les pages suivent l'ordre d'enregistrement ; reset=true signale un jour réécrit (reprise au début)
+     */
+    private ResponseEntity<Map<String, Object>> dayHistory(LocalDate date, String since, int limit,
+                                                           String ifNoneMatch) {
         try {
-            List<ActivityDetection> history = historyService.getHistoryForDate(date.toString());
+            String day = date.toString();
+            String eTag = historyService.getDayETag(day);
+            if (eTag.equals(ifNoneMatch)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+            }
+
+            HistoryCursor cursor = since != null && !since.isEmpty() ? HistoryCursor.decode(since) : null;
+            HistoryCursor.Page page = historyService.getHistoryPage(day, cursor, limit);
             
             Map<String, Object> response = new HashMap<>();
             response.put("status", "success");
-            response.put("date", date.toString());
-            response.put("detections", history);
-            response.put("count", history.size());
+            response.put("date", day);
+            response.put("detections", page.getDetections());
+            response.put("count", page.getDetections().size());
+            response.put("cursor", page.getNext().encode());
+            response.put("has_more", page.hasMore());
+            response.put("reset", page.isReset());
             response.put("timestamp", System.currentTimeMillis());
             
-            return ResponseEntity.ok(response);
+            return ResponseEntity.ok()
+                    .eTag(eTag)
+                    .header("Cache-Control", "no-cache")
+                    .body(response);
+            
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("status", "error");
+            response.put("message", e.getMessage());
+            
+            return ResponseEntity.badRequest().body(response);
             
         } catch (Exception e) {
             logger.error("Erreur lors de la récupération de l'historique pour {}: {}", date, e.getMessage());
@@ -295,28 +355,104 @@ public class CaptureApiController {
     }
 
     /**
-     * Retourne l'historique pour une période
+     * Retourne l'historique pour une période (envoyé en flux)
      */
     @GetMapping("/history/period")
-    public ResponseEntity<Map<String, Object>> getHistoryForPeriod(
+    public ResponseEntity<StreamingResponseBody> getHistoryForPeriod(
             @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate startDate,
-            @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate endDate) {
+            @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate endDate,
+            @RequestParam(defaultValue = "true") boolean predictions) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("start_date", startDate.toString());
+        fields.put("end_date", endDate.toString());
+        return streamHistory(fields, startDate.atStartOfDay(), endDate.atTime(LocalTime.MAX), predictions);
+    }
+
+    /**
+     * Retourne l'historique entre deux instants (lecture indexée des segments, envoyé en flux)
+     */
+    @GetMapping("/history/range")
+    public ResponseEntity<StreamingResponseBody> getHistoryForRange(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(defaultValue = "true") boolean predictions) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("from", from.toString());
+        fields.put("to", to.toString());
+        return streamHistory(fields, from, to, predictions);
+    }
+
+    /**
+     * Envoie un historique en flux : les détections sont sérialisées une à une depuis le
+     * stockage vers la réponse, sans liste intermédiaire (mémoire constante, premier octet immédiat)
+     * Une déconnexion du client interrompt la lecture de l'historique
+     */
+    private ResponseEntity<StreamingResponseBody> streamHistory(Map<String, Object> fields, LocalDateTime from,
+                                                                LocalDateTime to, boolean predictions) {
+        Set<HistorySegment.Column> columns = historyColumns(predictions);
+
+        StreamingResponseBody body = outputStream -> {
+            long[] count = {0};
+            try (JsonGenerator generator = historyMapper.getFactory().createGenerator(outputStream)) {
+                generator.writeStartObject();
+                generator.writeStringField("status", "success");
+                for (Map.Entry<String, Object> field : fields.entrySet()) {
+                    generator.writeObjectField(field.getKey(), field.getValue());
+                }
+                generator.writeFieldName("detections");
+                generator.writeStartArray();
+                generator.flush();
+
+                historyService.forEachDetectionInRange(from, to, columns, detection -> {
+                    try {
+                        historyMapper.writeValue(generator, detection);
+                        if (++count[0] % HISTORY_FLUSH_INTERVAL == 0) {
+                            generator.flush();
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+
+                generator.writeEndArray();
+                generator.writeNumberField("count", count[0]);
+                generator.writeNumberField("timestamp", System.currentTimeMillis());
+                generator.writeEndObject();
+
+            } catch (UncheckedIOException | IOException e) {
+                logger.info("Envoi de l'historique {}-{} interrompu après {} détections: {}",
+                           from, to, count[0], e.getMessage());
+            }
+        };
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .header("Cache-Control", "no-cache")
+                .body(body);
+    }
+
+    /**
+     * Retourne le résumé d'activité d'une période (temps passé, nombre de détections et
+     * confiance moyenne par activité) calculé à partir des agrégats ; 30 derniers jours par défaut
+     */
+    @GetMapping("/history/summary")
+    public ResponseEntity<Map<String, Object>> getHistorySummary(
+            @RequestParam(required = false) @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate startDate,
+            @RequestParam(required = false) @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate endDate,
+            @RequestParam(defaultValue = "day") String granularity) {
+        LocalDate end = endDate != null ? endDate : LocalDate.now();
+        LocalDate start = startDate != null ? startDate : end.minusDays(29);
         try {
-            List<ActivityDetection> history = historyService.getHistoryForPeriod(startDate, endDate);
-            
-            Map<String, Object> response = new HashMap<>();
+            Map<String, Object> response = new HashMap<>(historyService.getActivitySummary(start, end, granularity));
             response.put("status", "success");
-            response.put("start_date", startDate.toString());
-            response.put("end_date", endDate.toString());
-            response.put("detections", history);
-            response.put("count", history.size());
+            response.put("start_date", start.toString());
+            response.put("end_date", end.toString());
             response.put("timestamp", System.currentTimeMillis());
             
             return ResponseEntity.ok(response);
             
         } catch (Exception e) {
-            logger.error("Erreur lors de la récupération de l'historique pour la période {}-{}: {}", 
-                        startDate, endDate, e.getMessage());
+            logger.error("Erreur lors du calcul du résumé d'historique {}-{}: {}", start, end, e.getMessage());
             
             Map<String, Object> response = new HashMap<>();
             response.put("status", "error");
@@ -326,6 +462,14 @@ public class CaptureApiController {
         }
     }
 
+    /**
+     * Colonnes d'historique à charger : sans les scores détaillés, les segments
+     * ne décompressent ni les prédictions ni les poids de fusion
+     */
+    private static Set<HistorySegment.Column> historyColumns(boolean predictions) {
+        return predictions ? HistorySegment.ALL_COLUMNS : HistorySegment.SUMMARY_COLUMNS;
+    }
+
     /**
      * Supprime l'historique à partir d'une date
      */
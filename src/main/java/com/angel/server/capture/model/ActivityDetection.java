@@ -1,6 +1,7 @@
 package com.angel.server.capture.model;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.time.LocalDateTime;
@@ -23,6 +24,9 @@ public class ActivityDetection {
     
     @JsonProperty("source")
     private DetectionSource source;
+
+    @JsonProperty("source_id")
+    private String sourceId;
     
     @JsonProperty("person_detected")
     private boolean personDetected;
@@ -32,6 +36,10 @@ public class ActivityDetection {
     
     @JsonProperty("predictions")
     private Map<String, Double> predictions;
+
+    // Scores indexés par ordinal d'ActivityClass (convertis en Map seulement pour le JSON)
+    @JsonIgnore
+    private float[] scores;
     
     @JsonProperty("fusion_weights")
     private FusionWeights fusionWeights;
@@ -78,6 +86,14 @@ public class ActivityDetection {
         this.source = source;
     }
 
+    public String getSourceId() {
+        return sourceId;
+    }
+
+    public void setSourceId(String sourceId) {
+        this.sourceId = sourceId;
+    }
+
     public boolean isPersonDetected() {
         return personDetected;
     }
@@ -94,12 +110,32 @@ public class ActivityDetection {
         this.personConfidence = personConfidence;
     }
 
+    /**
+     * Map calculée à chaque appel sans être conservée : la détection est lue par plusieurs
+     * abonnés en parallèle (WebSocket, historique) et ne doit pas être modifiée après publication
+     */
     public Map<String, Double> getPredictions() {
+        if (predictions == null && scores != null) {
+            return ActivityScores.toMap(scores);
+        }
         return predictions;
     }
 
     public void setPredictions(Map<String, Double> predictions) {
         this.predictions = predictions;
+        this.scores = null;
+    }
+
+    public float[] getScores() {
+        if (scores == null && predictions != null) {
+            return ActivityScores.fromMap(predictions);
+        }
+        return scores;
+    }
+
+    public void setScores(float[] scores) {
+        this.scores = scores;
+        this.predictions = null;
     }
 
     public FusionWeights getFusionWeights() {
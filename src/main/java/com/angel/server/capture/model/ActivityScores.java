@@ -0,0 +1,124 @@
+package com.angel.server.capture.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Vecteurs de scores d'activité compacts : float[] indexé par l'ordinal de {@link ActivityClass}
+ * La conversion en Map nommée n'a lieu qu'à la frontière JSON
+ */
+public final class ActivityScores {
+
+    private static final ActivityClass[] CLASSES = ActivityClass.values();
+
+    /** Taille d'un vecteur de scores (une case par classe d'activité) */
+    public static final int SIZE = CLASSES.length;
+
+    /** Table des labels des modèles audio : sortie i du modèle -> ordinal de la classe */
+    private static final int[] AUDIO_LABELS = ordinals(ActivityClass.getAudioSupportedClasses());
+
+    private ActivityScores() {
+    }
+
+    private static int[] ordinals(ActivityClass[] classes) {
+        int[] ordinals = new int[classes.length];
+        for (int i = 0; i < classes.length; i++) {
+            ordinals[i] = classes[i].ordinal();
+        }
+        return ordinals;
+    }
+
+    /**
+     * Convertit la sortie d'un modèle d'image (une sortie par classe, dans l'ordre de l'énumération)
+     */
+    public static float[] fromImageOutput(float[] output) {
+        float[] scores = new float[SIZE];
+        System.arraycopy(output, 0, scores, 0, Math.min(output.length, SIZE));
+        return scores;
+    }
+
+    /**
+     * Convertit la sortie d'un modèle audio (sous-ensemble des classes supportées par l'audio)
+     */
+    public static float[] fromAudioOutput(float[] output) {
+        float[] scores = new float[SIZE];
+        int length = Math.min(output.length, AUDIO_LABELS.length);
+        for (int i = 0; i < length; i++) {
+            scores[AUDIO_LABELS[i]] = output[i];
+        }
+        return scores;
+    }
+
+    /**
+     * A priori neutre des modèles audio : probabilité uniforme sur les classes supportées par l'audio
+     */
+    public static float[] neutralAudio() {
+        float[] scores = new float[SIZE];
+        float uniform = 1.0f / AUDIO_LABELS.length;
+        for (int ordinal : AUDIO_LABELS) {
+            scores[ordinal] = uniform;
+        }
+        return scores;
+    }
+
+    /**
+     * Retourne l'ordinal de la classe de score maximal
+     */
+    public static int argmax(float[] scores) {
+        int best = 0;
+        for (int i = 1; i < scores.length; i++) {
+            if (scores[i] > scores[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Retourne la classe d'activité correspondant à un ordinal
+     */
+    public static ActivityClass classAt(int ordinal) {
+        return ordinal >= 0 && ordinal < SIZE ? CLASSES[ordinal] : ActivityClass.UNKNOWN;
+    }
+
+    /**
+     * Fusion pondérée de deux vecteurs de scores
+     */
+    public static float[] fuse(float[] imageScores, double imageWeight, float[] audioScores, double soundWeight) {
+        float[] fused = new float[SIZE];
+        float wImage = (float) imageWeight;
+        float wSound = (float) soundWeight;
+        for (int i = 0; i < SIZE; i++) {
+            fused[i] = imageScores[i] * wImage + audioScores[i] * wSound;
+        }
+        return fused;
+    }
+
+    /**
+     * Convertit un vecteur de scores en Map nommée (noms anglais des classes)
+     */
+    public static Map<String, Double> toMap(float[] scores) {
+        Map<String, Double> map = new HashMap<>(SIZE * 2);
+        for (int i = 0; i < Math.min(scores.length, SIZE); i++) {
+            map.put(CLASSES[i].getEnglishName(), (double) scores[i]);
+        }
+        return map;
+    }
+
+    /**
+     * Convertit une Map nommée (historique JSON) en vecteur de scores
+     */
+    public static float[] fromMap(Map<String, Double> map) {
+        float[] scores = new float[SIZE];
+        for (Map.Entry<String, Double> entry : map.entrySet()) {
+            ActivityClass activity = ActivityClass.fromEnglishName(entry.getKey());
+            if (activity == ActivityClass.UNKNOWN && !ActivityClass.UNKNOWN.getEnglishName().equalsIgnoreCase(entry.getKey())) {
+                continue;
+            }
+            if (entry.getValue() != null) {
+                scores[activity.ordinal()] = entry.getValue().floatValue();
+            }
+        }
+        return scores;
+    }
+}
@@ -1,7 +1,7 @@
 package com.angel.server.capture.service;
 
-import com.angel.server.capture.model.ActivityClass;
 import com.angel.server.capture.model.ActivityDetection;
+import com.angel.server.capture.model.ActivityScores;
 import com.angel.server.capture.model.DetectionSource;
 import com.angel.server.capture.model.FusionWeights;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
@@ -14,16 +14,17 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 /**
@@ -88,30 +89,91 @@ public class ActivityDetectionService {
     @Value("${person.detection.type}")
     private String personDetectionType;
 
+    // Cascade de modèles d'image
+    @Value("${detection.cascade.enabled:false}")
+    private boolean cascadeEnabled;
+
+    @Value("${detection.cascade.confidence.threshold:0.75}")
+    private double cascadeConfidenceThreshold;
+
+    @Value("${detection.cascade.margin.threshold:0.2}")
+    private double cascadeMarginThreshold;
+
+    // Traitement des fenêtres audio silencieuses : 'skip' (modèle de son ignoré)
+    // ou 'neutral' (a priori uniforme sur les classes audio en fusion)
+    @Value("${detection.audio.silence.policy:skip}")
+    private String silencePolicy;
+
+    // Nombre maximal de fenêtres audio (microphones) regroupées par appel au modèle de son
+    @Value("${detection.audio.batch.size:16}")
+    private int audioBatchSize;
+
+    // Microphone associé à chaque caméra sans piste audio : "caméra=microphone" (ex. local_camera=salon)
+    @Value("${detection.audio.routes:}")
+    private String[] audioRoutes;
+
+    // Routes caméra -> flux audio, construites au démarrage
+    private final Map<String, String> audioRouteMap = new HashMap<>();
+
+    // Taille par défaut de la file de chaque abonné aux détections
+    @Value("${detection.events.queue.capacity:100}")
+    private int eventQueueCapacity;
+
     // État du service
     private volatile boolean isDetecting = false;
     private ScheduledExecutorService detectionExecutor;
     
-    // Buffers pour les données
-    private final Queue<BufferedImage> imageBuffer = new ConcurrentLinkedQueue<>();
-    private final Queue<byte[]> audioBuffer = new ConcurrentLinkedQueue<>();
+    // Dernière frame reçue par source (remplacée en O(1) par les threads de capture)
+    private final Map<String, LatestSampleSlot<BufferedImage>> frameSlots = new ConcurrentHashMap<>();
+
+    // Séquences déjà traitées par source vidéo (accédées uniquement par le thread de détection)
+    private final Map<String, SourceCursor> sourceCursors = new ConcurrentHashMap<>();
     
-    // Cache des prédictions récentes
-    private final Map<String, PredictionCacheEntry> predictionCache = new ConcurrentHashMap<>();
+    // Cache des prédictions indexé par empreinte du contenu et modèle
+    private PredictionCache<float[]> predictionCache;
     
-    // Listeners pour les détections
-    private final List<Consumer<ActivityDetection>> detectionListeners = new ArrayList<>();
+    // Bus d'événements asynchrone pour les listeners de détection
+    private final DetectionEventBus eventBus = new DetectionEventBus();
+    private final AtomicLong listenerCounter = new AtomicLong();
     
     // Dernière détection
     private volatile ActivityDetection lastDetection;
+
+    // Statistiques de la cascade
+    private final AtomicLong cascadeEvaluations = new AtomicLong();
+    private final AtomicLong cascadeEscalations = new AtomicLong();
+
+    // Fenêtre audio silencieuse (marqueur : le modèle de son n'est pas exécuté)
+    private static final float[][] SILENT_WINDOW = new float[0][];
+
+    // Délai maximal de livraison des détections en file à la fermeture
+    private static final long LISTENER_DRAIN_TIMEOUT_MILLIS = 10_000;
+
+    // Statistiques de la porte d'activité audio
+    private final AtomicLong audioWindowsActive = new AtomicLong();
+    private final AtomicLong audioWindowsSilent = new AtomicLong();
+    private final AtomicLong audioBatches = new AtomicLong();
+    private final AtomicLong audioBatchedWindows = new AtomicLong();
     
     @PostConstruct
     public void initialize() {
         logger.info("Initialisation du service de détection d'activité...");
+
+        predictionCache = new PredictionCache<>(predictionCacheSize, predictionCacheTTL * 1000L);
+
+        if (audioRoutes != null) {
+            for (String route : audioRoutes) {
+                String[] parts = route.split("=", 2);
+                if (parts.length == 2 && !parts[0].trim().isEmpty() && !parts[1].trim().isEmpty()) {
+                    audioRouteMap.put(parts[0].trim(), parts[1].trim());
+                } else if (!route.trim().isEmpty()) {
+                    logger.warn("Route audio invalide ignorée: {}", route);
+                }
+            }
+        }
         
         // S'abonner aux flux vidéo et audio
-        videoCaptureService.addFrameListener(this::onFrameReceived);
-        audioCaptureService.addAudioListener(this::onAudioReceived);
+        videoCaptureService.addSourceFrameListener(this::onFrameReceived);
         
         logger.info("Détection d'activité configurée - Nécessite présence: {}, Type de détection: {}", 
                    requirePersonPresence, personDetectionType);
@@ -174,101 +236,188 @@ public class ActivityDetectionService {
             }
         }
 
-        // Vider les buffers
-        imageBuffer.clear();
-        audioBuffer.clear();
+        // Vider les derniers échantillons
+        frameSlots.clear();
+        sourceCursors.clear();
 
         logger.info("Détection d'activité arrêtée");
     }
 
     /**
-     * Callback pour les frames vidéo reçues
+     * Callback pour les frames vidéo reçues : remplace la dernière frame de la source
      */
-    private void onFrameReceived(BufferedImage frame) {
+    private void onFrameReceived(String sourceKey, BufferedImage frame) {
         if (!isDetecting) {
             return;
         }
 
-        // Ajouter au buffer avec limitation de taille
-        imageBuffer.offer(frame);
-        while (imageBuffer.size() > 10) { // Garder seulement les 10 dernières frames
-            imageBuffer.poll();
-        }
+        frameSlots.computeIfAbsent(sourceKey, k -> new LatestSampleSlot<>()).publish(frame);
     }
 
     /**
-     * Callback pour les données audio reçues
-     */
-    private void onAudioReceived(byte[] audioData) {
-        if (!isDetecting) {
-            return;
-        }
-
-        // Ajouter au buffer avec limitation de taille
-        audioBuffer.offer(audioData);
-        while (audioBuffer.size() > 5) { // Garder seulement les 5 derniers échantillons
-            audioBuffer.poll();
-        }
-    }
-
-    /**
-     * Effectue la détection d'activité
+     * Effectue la détection d'activité pour chaque source ayant une nouvelle frame
      */
     private void performDetection() {
         try {
             logger.debug("Début du cycle de détection");
 
-            // Vérifier s'il y a une personne détectée
-            BufferedImage currentFrame = imageBuffer.peek();
-            boolean personDetected = false;
-            double personConfidence = 0.0;
-
-            if (currentFrame != null && requirePersonPresence) {
-                var personResult = detectPerson(currentFrame);
-                personDetected = personResult.isPresent();
-                if (personDetected) {
-                    personConfidence = personResult.get();
-                    logger.debug("Personne détectée avec confiance: {}", personConfidence);
+            // Flux audio analysés avec la frame d'une caméra pendant ce cycle
+            Set<String> pairedAudio = new HashSet<>();
+            for (Map.Entry<String, LatestSampleSlot<BufferedImage>> entry : frameSlots.entrySet()) {
+                String sourceKey = entry.getKey();
+                SourceCursor cursor = sourceCursors.computeIfAbsent(sourceKey, k -> new SourceCursor());
+
+                // Un seul instantané par cycle : présence et activité voient la même frame
+                LatestSampleSlot.Sample<BufferedImage> frame = entry.getValue().latestAfter(cursor.frameSequence);
+                if (frame == null) {
+                    continue;
                 }
-            } else if (!requirePersonPresence) {
-                // Si la détection de personne n'est pas requise, continuer
-                personDetected = true;
-                personConfidence = 1.0;
+                cursor.skippedFrames += frame.getSequence() - cursor.frameSequence - 1;
+                cursor.frameSequence = frame.getSequence();
+                pairedAudio.add(audioStreamFor(sourceKey));
+
+                detectForSource(sourceKey, frame.getValue(), cursor);
             }
 
-            // Si aucune personne n'est détectée et qu'elle est requise, pas de détection d'activité
-            if (!personDetected && requirePersonPresence) {
-                logger.debug("Aucune personne détectée, ignorer la détection d'activité");
+            // Microphones non associés à une caméra ayant fourni une frame (autres pièces, ou caméra
+            // sans nouvelle frame) : détection audio seule, regroupée en lots, uniquement si la présence
+            // n'est pas exigée (aucune image pour la vérifier)
+            // La piste audio d'un flux vidéo n'est analysée qu'avec sa propre vidéo
+            if (requirePersonPresence) {
                 return;
             }
+            List<String> audioSources = new ArrayList<>();
+            for (String sourceKey : audioCaptureService.getAudioSourceKeys()) {
+                if (!frameSlots.containsKey(sourceKey) && !pairedAudio.contains(sourceKey)) {
+                    audioSources.add(sourceKey);
+                }
+            }
+            performAudioBatchDetection(audioSources);
 
-            // Effectuer la détection d'activité
-            ActivityDetection detection = null;
+        } catch (Exception e) {
+            logger.error("Erreur lors de la détection d'activité: {}", e.getMessage(), e);
+        }
+    }
 
-            if (fusionEnabled) {
-                // Fusion des prédictions image + son
-                detection = performFusionDetection(personConfidence);
-            } else {
-                // Détection séparée (prioriser l'image)
-                detection = performImageDetection(personConfidence);
-                if (detection == null || detection.getConfidence() < confidenceThreshold) {
-                    detection = performAudioDetection(personConfidence);
-                }
+    /**
+     * Effectue la détection d'activité pour une source à partir d'un instantané de frame
+     * (frame null : détection audio seule)
+     */
+    private void detectForSource(String sourceKey, BufferedImage frame, SourceCursor cursor) {
+        // Vérifier s'il y a une personne détectée
+        boolean personDetected = false;
+        double personConfidence = 0.0;
+
+        if (frame != null && requirePersonPresence) {
+            var personResult = detectPerson(frame);
+            personDetected = personResult.isPresent();
+            if (personDetected) {
+                personConfidence = personResult.get();
+                logger.debug("Personne détectée avec confiance: {}", personConfidence);
             }
+        } else if (!requirePersonPresence) {
+            // Si la détection de personne n'est pas requise, continuer
+            personDetected = true;
+            personConfidence = 1.0;
+        }
 
-            // Vérifier la confiance minimale
-            if (detection != null && detection.getConfidence() >= confidenceThreshold) {
-                lastDetection = detection;
-                notifyDetectionListeners(detection);
-                logger.info("Activité détectée: {} (confiance: {:.2f})", 
-                          detection.getPredictedActivity(), detection.getConfidence());
-            } else {
-                logger.debug("Confiance insuffisante pour la détection");
+        // Si aucune personne n'est détectée et qu'elle est requise, pas de détection d'activité
+        if (!personDetected && requirePersonPresence) {
+            logger.debug("Aucune personne détectée sur {}, ignorer la détection d'activité", sourceKey);
+            return;
+        }
+
+        // Effectuer la détection d'activité
+        ActivityDetection detection = null;
+        DetectionSource imageSource = sourceKey.startsWith("rtsp_") ? DetectionSource.RTSP : DetectionSource.CAMERA;
+
+        DetectionSource audioSource = audioSourceType(audioStreamFor(sourceKey));
+
+        if (fusionEnabled) {
+            // Fusion des prédictions image + son
+            detection = performFusionDetection(frame, imageSource, takeAudio(sourceKey, cursor), audioSource,
+                                               personConfidence);
+        } else {
+            // Détection séparée (prioriser l'image)
+            if (frame != null) {
+                detection = performImageDetection(frame, imageSource, personConfidence);
+            }
+            if (detection == null || detection.getConfidence() < confidenceThreshold) {
+                detection = performAudioDetection(takeAudio(sourceKey, cursor), audioSource, personConfidence);
             }
+        }
 
-        } catch (Exception e) {
-            logger.error("Erreur lors de la détection d'activité: {}", e.getMessage(), e);
+        publishDetection(sourceKey, detection);
+    }
+
+    /**
+     * Publie une détection d'une source si elle atteint la confiance minimale
+     */
+    private void publishDetection(String sourceKey, ActivityDetection detection) {
+        // Vérifier la confiance minimale
+        if (detection != null && detection.getConfidence() >= confidenceThreshold) {
+            detection.setSourceId(sourceKey);
+            lastDetection = detection;
+            notifyDetectionListeners(detection);
+            logger.info("Activité détectée sur {}: {} (confiance: {})",
+                      sourceKey, detection.getPredictedActivity(), String.format("%.2f", detection.getConfidence()));
+        } else {
+            logger.debug("Confiance insuffisante pour la détection");
+        }
+    }
+
+    /**
+     * Retourne un instantané de la fenêtre audio glissante associée à une source
+     * (audio de la source elle-même, sinon celui du microphone), si elle a avancé
+     * d'au moins un pas depuis sa dernière utilisation pour cette source
+     */
+    private float[][] takeAudio(String sourceKey, SourceCursor cursor) {
+        String audioSource = audioStreamFor(sourceKey);
+
+        // Séquence propre à chaque flux audio (piste de la source ou microphone) ;
+        // un flux recréé repart de zéro
+        long sequence = audioCaptureService.getFeatureSequence(audioSource);
+        long lastSequence = cursor.audioSequences.getOrDefault(audioSource, 0L);
+        if (sequence < lastSequence) {
+            lastSequence = 0;
+        }
+
+        // Porte d'activité : une fenêtre silencieuse n'est ni copiée ni passée au modèle
+        if (sequence > lastSequence && !audioCaptureService.isAudioActive(audioSource)) {
+            cursor.audioSequences.put(audioSource, sequence);
+            audioWindowsSilent.incrementAndGet();
+            return SILENT_WINDOW;
+        }
+
+        // Copie dans le tableau de la fenêtre précédente de ce flux pour cette source
+        LatestSampleSlot.Sample<float[][]> audio = audioCaptureService.snapshotFeatures(
+                audioSource, lastSequence, cursor.audioWindows.get(audioSource));
+        if (audio == null) {
+            return null;
+        }
+        cursor.audioSequences.put(audioSource, audio.getSequence());
+        cursor.audioWindows.put(audioSource, audio.getValue());
+        audioWindowsActive.incrementAndGet();
+        return audio.getValue();
+    }
+
+    /**
+     * Flux audio associé à une source : sa propre piste audio, sinon le microphone routé
+     * vers elle (detection.audio.routes), sinon le microphone par défaut
+     */
+    private String audioStreamFor(String sourceKey) {
+        if (audioCaptureService.hasFeatureStream(sourceKey)) {
+            return sourceKey;
         }
+        String routed = audioRouteMap.get(sourceKey);
+        return routed != null ? routed : AudioCaptureService.MICROPHONE_SOURCE;
+    }
+
+    /**
+     * Type de source d'une détection audio selon le flux analysé (piste d'un flux RTSP ou microphone)
+     */
+    private static DetectionSource audioSourceType(String audioStreamKey) {
+        return audioStreamKey.startsWith("rtsp_") ? DetectionSource.RTSP : DetectionSource.MICROPHONE;
     }
 
     /**
@@ -289,52 +438,44 @@ public class ActivityDetectionService {
     /**
      * Effectue la détection d'activité basée sur l'image
      */
-    private ActivityDetection performImageDetection(double personConfidence) {
-        BufferedImage frame = imageBuffer.poll();
+    private ActivityDetection performImageDetection(BufferedImage frame, DetectionSource source, double personConfidence) {
         if (frame == null) {
             return null;
         }
 
         try {
-            // Vérifier le cache
-            String cacheKey = "image_" + System.currentTimeMillis() / 10000; // Cache pour 10 secondes
-            PredictionCacheEntry cached = predictionCache.get(cacheKey);
-            if (cached != null) {
-                return createDetectionFromCache(cached, DetectionSource.CAMERA, personConfidence);
-            }
-
             // Redimensionner l'image
             BufferedImage resized = resizeImage(frame, imageWidth, imageHeight);
+
+            // Vérifier le cache (empreinte perceptuelle de la frame prétraitée + modèle)
+            String cacheKey = PredictionCache.key(getImageModelId(), ContentFingerprint.imageDHash(resized));
+            float[] scores = predictionCache.get(cacheKey);
+            if (scores != null) {
+                return createDetection(scores, source, personConfidence);
+            }
             
             // Convertir en INDArray
             INDArray input = imageToINDArray(resized);
             
-            // Obtenir le modèle d'activité par défaut
-            MultiLayerNetwork model = modelService.getDefaultActivityImageModel();
-            if (model == null) {
-                logger.warn("Modèle d'activité image non disponible");
+            // Faire la prédiction (cascade ou modèle par défaut)
+            if (cascadeEnabled) {
+                scores = runImageCascade(input);
+            } else {
+                MultiLayerNetwork model = modelService.getDefaultActivityImageModel();
+                if (model == null) {
+                    logger.warn("Modèle d'activité image non disponible");
+                    return null;
+                }
+                scores = ActivityScores.fromImageOutput(model.output(input).toFloatVector());
+            }
+            if (scores == null) {
                 return null;
             }
 
-            // Faire la prédiction
-            INDArray output = model.output(input);
-            Map<String, Double> predictions = parsePredictions(output);
-            
-            // Trouver la meilleure prédiction
-            String bestActivity = Collections.max(predictions.entrySet(), 
-                Map.Entry.comparingByValue()).getKey();
-            double confidence = predictions.get(bestActivity);
-
             // Mettre en cache
-            predictionCache.put(cacheKey, new PredictionCacheEntry(predictions, System.currentTimeMillis()));
+            predictionCache.put(cacheKey, scores);
 
-            // Créer la détection
-            ActivityDetection detection = new ActivityDetection(bestActivity, confidence, DetectionSource.CAMERA);
-            detection.setPersonDetected(true);
-            detection.setPersonConfidence(personConfidence);
-            detection.setPredictions(predictions);
-
-            return detection;
+            return createDetection(scores, source, personConfidence);
 
         } catch (Exception e) {
             logger.error("Erreur lors de la détection d'activité par image: {}", e.getMessage());
@@ -342,21 +483,82 @@ public class ActivityDetectionService {
         }
     }
 
+    /**
+     * Exécute la cascade de modèles image : le modèle léger sur chaque frame,
+     * le modèle lourd seulement si la prédiction du modèle léger est ambiguë
+     */
+    private float[] runImageCascade(INDArray input) {
+        MultiLayerNetwork lightModel = modelService.getCascadeLightImageModel();
+        MultiLayerNetwork heavyModel = modelService.getCascadeHeavyImageModel();
+
+        if (lightModel == null) {
+            if (heavyModel == null) {
+                logger.warn("Aucun modèle de la cascade d'images n'est disponible");
+                return null;
+            }
+            return ActivityScores.fromImageOutput(heavyModel.output(input).toFloatVector());
+        }
+
+        float[] lightScores = ActivityScores.fromImageOutput(lightModel.output(input).toFloatVector());
+        cascadeEvaluations.incrementAndGet();
+
+        if (heavyModel == null || !isAmbiguous(lightScores)) {
+            return lightScores;
+        }
+
+        cascadeEscalations.incrementAndGet();
+        logger.debug("Prédiction ambiguë du modèle {}, escalade vers le modèle {}",
+                    modelService.getCascadeLightImageModelName(), modelService.getCascadeHeavyImageModelName());
+        return ActivityScores.fromImageOutput(heavyModel.output(input).toFloatVector());
+    }
+
+    /**
+     * Une prédiction est ambiguë si la confiance top-1 ou l'écart top-1/top-2 est sous le seuil
+     */
+    private boolean isAmbiguous(float[] scores) {
+        float top1 = 0.0f;
+        float top2 = 0.0f;
+        for (float score : scores) {
+            if (score > top1) {
+                top2 = top1;
+                top1 = score;
+            } else if (score > top2) {
+                top2 = score;
+            }
+        }
+        return top1 < cascadeConfidenceThreshold || (top1 - top2) < cascadeMarginThreshold;
+    }
+
+    /**
+     * Clé de cache d'une fenêtre audio, null si la fenêtre est trop courte pour une empreinte
+     */
+    private static String audioCacheKey(String soundModelName, float[][] powerFrames) {
+        Long fingerprint = ContentFingerprint.audioFingerprint(powerFrames);
+        return fingerprint != null ? PredictionCache.key("sound_" + soundModelName, fingerprint) : null;
+    }
+
     /**
      * Effectue la détection d'activité basée sur l'audio
      */
-    private ActivityDetection performAudioDetection(double personConfidence) {
-        byte[] audioData = audioBuffer.poll();
-        if (audioData == null) {
+    private ActivityDetection performAudioDetection(float[][] powerFrames, DetectionSource source,
+                                                    double personConfidence) {
+        if (powerFrames == null) {
             return null;
         }
+        if (powerFrames == SILENT_WINDOW) {
+            // Silence : pas d'inférence, éventuellement un a priori neutre pour la fusion
+            return "neutral".equalsIgnoreCase(silencePolicy)
+                    ? createDetection(ActivityScores.neutralAudio(), source, personConfidence)
+                    : null;
+        }
 
         try {
-            // Vérifier le cache
-            String cacheKey = "audio_" + System.currentTimeMillis() / 10000; // Cache pour 10 secondes
-            PredictionCacheEntry cached = predictionCache.get(cacheKey);
-            if (cached != null) {
-                return createDetectionFromCache(cached, DetectionSource.MICROPHONE, personConfidence);
+            // Vérifier le cache (empreinte audio + modèle)
+            String soundModelName = modelService.getDefaultSoundModelName();
+            String cacheKey = audioCacheKey(soundModelName, powerFrames);
+            float[] scores = cacheKey != null ? predictionCache.get(cacheKey) : null;
+            if (scores != null) {
+                return createDetection(scores, source, personConfidence);
             }
 
             // Obtenir le modèle de son par défaut
@@ -366,38 +568,18 @@ public class ActivityDetectionService {
                 return null;
             }
 
-            // Convertir l'audio selon le type de modèle
-            INDArray input;
-            String defaultSoundModel = "spectrogram"; // Depuis la config
-            
-            if ("mfcc".equals(defaultSoundModel)) {
-                float[] mfccFeatures = audioCaptureService.convertToMFCC(audioData);
-                input = Nd4j.create(mfccFeatures).reshape(1, mfccFeatures.length);
-            } else {
-                // Spectrogramme par défaut
-                float[][] spectrogram = audioCaptureService.convertToSpectrogram(audioData);
-                input = Nd4j.create(spectrogram).reshape(1, spectrogram.length, spectrogram[0].length, 1);
-            }
-
-            // Faire la prédiction
-            INDArray output = model.output(input);
-            Map<String, Double> predictions = parsePredictions(output);
-            
-            // Trouver la meilleure prédiction
-            String bestActivity = Collections.max(predictions.entrySet(), 
-                Map.Entry.comparingByValue()).getKey();
-            double confidence = predictions.get(bestActivity);
+            // Caractéristiques (MFCC ou spectrogramme par défaut) écrites dans un tenseur réutilisé
+            // et prédiction dans la même section critique (sorties indexées selon les classes de l'audio)
+            INDArray output = audioCaptureService.soundModelOutput(model, "mfcc".equalsIgnoreCase(soundModelName),
+                                                                   Collections.singletonList(powerFrames));
+            scores = ActivityScores.fromAudioOutput(output.toFloatVector());
 
             // Mettre en cache
-            predictionCache.put(cacheKey, new PredictionCacheEntry(predictions, System.currentTimeMillis()));
-
-            // Créer la détection
-            ActivityDetection detection = new ActivityDetection(bestActivity, confidence, DetectionSource.MICROPHONE);
-            detection.setPersonDetected(true);
-            detection.setPersonConfidence(personConfidence);
-            detection.setPredictions(predictions);
+            if (cacheKey != null) {
+                predictionCache.put(cacheKey, scores);
+            }
 
-            return detection;
+            return createDetection(scores, source, personConfidence);
 
         } catch (Exception e) {
             logger.error("Erreur lors de la détection d'activité par audio: {}", e.getMessage());
@@ -405,51 +587,113 @@ public class ActivityDetectionService {
         }
     }
 
+    /**
+     * Détection audio seule de plusieurs sources (microphones de différentes pièces), présence non exigée :
+     * les fenêtres actives absentes du cache sont regroupées en un seul tenseur
+     * [lot, ...] et passées au modèle de son en un appel par lot
+     */
+    private void performAudioBatchDetection(List<String> sourceKeys) {
+        if (sourceKeys.isEmpty()) {
+            return;
+        }
+
+        // Présence non exigée : même marquage que la détection d'une source seule
+        double personConfidence = 1.0;
+        String soundModelName = modelService.getDefaultSoundModelName();
+        List<String> batchSources = new ArrayList<>();
+        List<float[][]> batchWindows = new ArrayList<>();
+        List<String> batchCacheKeys = new ArrayList<>();
+
+        for (String sourceKey : sourceKeys) {
+            float[][] audio = takeAudio(sourceKey, sourceCursors.computeIfAbsent(sourceKey, k -> new SourceCursor()));
+            if (audio == null) {
+                continue;
+            }
+
+            // Silence, fenêtre de taille différente : traitement individuel
+            if (audio == SILENT_WINDOW || (!batchWindows.isEmpty() && audio.length != batchWindows.get(0).length)) {
+                publishDetection(sourceKey, performAudioDetection(audio, audioSourceType(sourceKey), personConfidence));
+                continue;
+            }
+
+            String cacheKey = audioCacheKey(soundModelName, audio);
+            float[] cached = cacheKey != null ? predictionCache.get(cacheKey) : null;
+            if (cached != null) {
+                publishDetection(sourceKey, createDetection(cached, audioSourceType(sourceKey), personConfidence));
+                continue;
+            }
+
+            batchSources.add(sourceKey);
+            batchWindows.add(audio);
+            batchCacheKeys.add(cacheKey);
+        }
+
+        if (batchWindows.isEmpty()) {
+            return;
+        }
+
+        try {
+            MultiLayerNetwork model = modelService.getDefaultActivitySoundModel();
+            if (model == null) {
+                logger.warn("Modèle d'activité audio non disponible");
+                return;
+            }
+
+            int batchLimit = Math.max(1, audioBatchSize);
+            for (int start = 0; start < batchWindows.size(); start += batchLimit) {
+                int end = Math.min(batchWindows.size(), start + batchLimit);
+                List<float[][]> windows = batchWindows.subList(start, end);
+
+                INDArray output = audioCaptureService.soundModelOutput(model, "mfcc".equalsIgnoreCase(soundModelName),
+                                                                       windows);
+
+                for (int i = start; i < end; i++) {
+                    float[] scores = ActivityScores.fromAudioOutput(output.getRow(i - start).toFloatVector());
+                    if (batchCacheKeys.get(i) != null) {
+                        predictionCache.put(batchCacheKeys.get(i), scores);
+                    }
+                    String sourceKey = batchSources.get(i);
+                    publishDetection(sourceKey, createDetection(scores, audioSourceType(sourceKey), personConfidence));
+                }
+
+                audioBatches.incrementAndGet();
+                audioBatchedWindows.addAndGet(end - start);
+            }
+
+        } catch (Exception e) {
+            logger.error("Erreur lors de la détection audio groupée: {}", e.getMessage());
+        }
+    }
+
     /**
      * Effectue la détection par fusion des modalités image + son
      */
-    private ActivityDetection performFusionDetection(double personConfidence) {
+    private ActivityDetection performFusionDetection(BufferedImage frame, DetectionSource imageSource,
+                                                     float[][] audioFrames, DetectionSource audioSource,
+                                                     double personConfidence) {
         try {
             // Obtenir les prédictions image et audio
-            ActivityDetection imageDetection = performImageDetection(personConfidence);
-            ActivityDetection audioDetection = performAudioDetection(personConfidence);
+            ActivityDetection imageDetection = performImageDetection(frame, imageSource, personConfidence);
+            ActivityDetection audioDetection = performAudioDetection(audioFrames, audioSource, personConfidence);
 
             if (imageDetection == null && audioDetection == null) {
                 return null;
             }
 
-            Map<String, Double> fusedPredictions = new HashMap<>();
-
             // Fusionner les prédictions
+            float[] fusedScores;
             if (imageDetection != null && audioDetection != null) {
                 // Fusion pondérée
-                Set<String> allActivities = new HashSet<>();
-                allActivities.addAll(imageDetection.getPredictions().keySet());
-                allActivities.addAll(audioDetection.getPredictions().keySet());
-
-                for (String activity : allActivities) {
-                    double imageScore = imageDetection.getPredictions().getOrDefault(activity, 0.0);
-                    double audioScore = audioDetection.getPredictions().getOrDefault(activity, 0.0);
-                    
-                    double fusedScore = (imageScore * imageWeight) + (audioScore * soundWeight);
-                    fusedPredictions.put(activity, fusedScore);
-                }
+                fusedScores = ActivityScores.fuse(imageDetection.getScores(), imageWeight,
+                                                  audioDetection.getScores(), soundWeight);
             } else if (imageDetection != null) {
-                fusedPredictions = imageDetection.getPredictions();
+                fusedScores = imageDetection.getScores();
             } else {
-                fusedPredictions = audioDetection.getPredictions();
+                fusedScores = audioDetection.getScores();
             }
 
-            // Trouver la meilleure prédiction fusionnée
-            String bestActivity = Collections.max(fusedPredictions.entrySet(), 
-                Map.Entry.comparingByValue()).getKey();
-            double confidence = fusedPredictions.get(bestActivity);
-
             // Créer la détection fusionnée
-            ActivityDetection detection = new ActivityDetection(bestActivity, confidence, DetectionSource.FUSION);
-            detection.setPersonDetected(true);
-            detection.setPersonConfidence(personConfidence);
-            detection.setPredictions(fusedPredictions);
+            ActivityDetection detection = createDetection(fusedScores, DetectionSource.FUSION, personConfidence);
             detection.setFusionWeights(new FusionWeights(imageWeight, soundWeight));
 
             return detection;
@@ -498,74 +742,86 @@ public class ActivityDetectionService {
     }
 
     /**
-     * Parse les prédictions du modèle vers une Map
-     */
-    private Map<String, Double> parsePredictions(INDArray output) {
-        Map<String, Double> predictions = new HashMap<>();
-        
-        ActivityClass[] supportedClasses = ActivityClass.getImageSupportedClasses();
-        float[] outputArray = output.toFloatVector();
-        
-        for (int i = 0; i < Math.min(outputArray.length, supportedClasses.length); i++) {
-            predictions.put(supportedClasses[i].getEnglishName(), (double) outputArray[i]);
-        }
-        
-        return predictions;
-    }
-
-    /**
-     * Crée une détection depuis le cache
+     * Crée une détection à partir d'un vecteur de scores (meilleure classe par argmax)
+     * @param personConfidence confiance de présence (0 : aucune personne vue, détection audio seule)
      */
-    private ActivityDetection createDetectionFromCache(PredictionCacheEntry cached, 
-                                                     DetectionSource source, double personConfidence) {
-        String bestActivity = Collections.max(cached.predictions.entrySet(), 
-            Map.Entry.comparingByValue()).getKey();
-        double confidence = cached.predictions.get(bestActivity);
+    private ActivityDetection createDetection(float[] scores, DetectionSource source, double personConfidence) {
+        int best = ActivityScores.argmax(scores);
+        String bestActivity = ActivityScores.classAt(best).getEnglishName();
 
-        ActivityDetection detection = new ActivityDetection(bestActivity, confidence, source);
-        detection.setPersonDetected(true);
+        ActivityDetection detection = new ActivityDetection(bestActivity, scores[best], source);
+        detection.setPersonDetected(personConfidence > 0.0);
         detection.setPersonConfidence(personConfidence);
-        detection.setPredictions(cached.predictions);
+        detection.setScores(scores);
 
         return detection;
     }
 
+    /**
+     * Identifiant du modèle image utilisé, pour la clé de cache
+     */
+    private String getImageModelId() {
+        if (cascadeEnabled) {
+            return "image_cascade_" + modelService.getCascadeLightImageModelName()
+                 + "_" + modelService.getCascadeHeavyImageModelName();
+        }
+        return "image_" + modelService.getDefaultImageModelName();
+    }
+
     /**
      * Nettoie le cache des prédictions
      */
     private void cleanPredictionCache() {
-        long currentTime = System.currentTimeMillis();
-        long ttlMs = predictionCacheTTL * 1000L;
-        
-        predictionCache.entrySet().removeIf(entry -> 
-            currentTime - entry.getValue().timestamp > ttlMs);
+        int removed = predictionCache.purgeExpired();
+        if (removed > 0) {
+            logger.debug("{} prédictions expirées supprimées du cache", removed);
+        }
     }
 
     /**
-     * Notifie tous les listeners de détection
+     * Publie la détection sur le bus (les listeners sont notifiés sur leurs propres threads)
      */
     private void notifyDetectionListeners(ActivityDetection detection) {
-        for (Consumer<ActivityDetection> listener : detectionListeners) {
-            try {
-                listener.accept(detection);
-            } catch (Exception e) {
-                logger.error("Erreur lors de la notification d'un listener de détection: {}", e.getMessage());
-            }
-        }
+        eventBus.publish(detection);
     }
 
     /**
      * Ajoute un listener pour les détections d'activité
      */
     public void addDetectionListener(Consumer<ActivityDetection> listener) {
-        detectionListeners.add(listener);
+        addDetectionListener("listener-" + listenerCounter.incrementAndGet(), listener,
+                             eventQueueCapacity, DetectionEventBus.OverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * Ajoute un listener nommé avec sa propre file bornée et sa politique de débordement
+     */
+    public void addDetectionListener(String name, Consumer<ActivityDetection> listener,
+                                     int queueCapacity, DetectionEventBus.OverflowPolicy policy) {
+        eventBus.subscribe(name, listener, queueCapacity, policy);
     }
 
     /**
      * Supprime un listener de détection
      */
     public void removeDetectionListener(Consumer<ActivityDetection> listener) {
-        detectionListeners.remove(listener);
+        eventBus.unsubscribe(listener);
+    }
+
+    /**
+     * Attend la livraison des détections publiées (historique compris)
+     * @return true si toutes les détections ont été livrées avant l'expiration du délai
+     */
+    public boolean drainDetectionListeners(long timeoutMillis) {
+        return eventBus.drain(timeoutMillis);
+    }
+
+    /**
+     * Livre les détections en attente puis arrête les threads de livraison à la fermeture
+     */
+    @PreDestroy
+    public void cleanup() {
+        eventBus.shutdown(LISTENER_DRAIN_TIMEOUT_MILLIS);
     }
 
     /**
@@ -588,26 +844,72 @@ public class ActivityDetectionService {
     public Map<String, Object> getDetectionStats() {
         Map<String, Object> stats = new HashMap<>();
         stats.put("is_detecting", isDetecting);
-        stats.put("image_buffer_size", imageBuffer.size());
-        stats.put("audio_buffer_size", audioBuffer.size());
+        stats.put("frame_sources", getFrameSourceStats());
+        stats.put("audio_sources", audioCaptureService.getFeatureStreamStats());
+        stats.put("audio_ring_buffer", audioCaptureService.getRingBufferStats());
+        stats.put("audio_file_replay", audioCaptureService.getFileReplayStats());
         stats.put("prediction_cache_size", predictionCache.size());
+        stats.put("prediction_cache", predictionCache.getStats());
         stats.put("last_detection", lastDetection);
-        stats.put("detection_listeners_count", detectionListeners.size());
+        stats.put("detection_listeners_count", eventBus.getSubscriberCount());
+        stats.put("detection_listeners", eventBus.getStats());
         stats.put("require_person_presence", requirePersonPresence);
         stats.put("person_detection_type", personDetectionType);
+
+        long evaluations = cascadeEvaluations.get();
+        long escalations = cascadeEscalations.get();
+        stats.put("cascade_enabled", cascadeEnabled);
+        stats.put("cascade_evaluations", evaluations);
+        stats.put("cascade_escalations", escalations);
+        stats.put("cascade_escalation_rate", evaluations > 0 ? (double) escalations / evaluations : 0.0);
+
+        long activeWindows = audioWindowsActive.get();
+        long silentWindows = audioWindowsSilent.get();
+        stats.put("audio_silence_policy", silencePolicy);
+        stats.put("audio_windows_active", activeWindows);
+        stats.put("audio_windows_silent", silentWindows);
+        stats.put("audio_silence_skip_rate", activeWindows + silentWindows > 0
+                ? (double) silentWindows / (activeWindows + silentWindows) : 0.0);
+
+        long batches = audioBatches.get();
+        stats.put("audio_batches", batches);
+        stats.put("audio_batch_average_size", batches > 0 ? (double) audioBatchedWindows.get() / batches : 0.0);
         return stats;
     }
 
     /**
-     * Classe interne pour le cache des prédictions
+     * Statistiques des dernières frames par source (séquence, âge, frames ignorées)
      */
-    private static class PredictionCacheEntry {
-        final Map<String, Double> predictions;
-        final long timestamp;
-
-        PredictionCacheEntry(Map<String, Double> predictions, long timestamp) {
-            this.predictions = predictions;
-            this.timestamp = timestamp;
+    private Map<String, Object> getFrameSourceStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, LatestSampleSlot<BufferedImage>> entry : frameSlots.entrySet()) {
+            LatestSampleSlot.Sample<BufferedImage> sample = entry.getValue().latest();
+            if (sample == null) {
+                continue;
+            }
+            Map<String, Object> sourceStats = new HashMap<>();
+            sourceStats.put("sequence", sample.getSequence());
+            sourceStats.put("age_ms", now - sample.getTimestamp());
+            SourceCursor cursor = sourceCursors.get(entry.getKey());
+            if (cursor != null) {
+                sourceStats.put("processed_sequence", cursor.frameSequence);
+                sourceStats.put("skipped_frames", cursor.skippedFrames);
+            }
+            stats.put(entry.getKey(), sourceStats);
         }
+        return stats;
+    }
+
+    /**
+     * Séquences des derniers échantillons traités pour une source
+     */
+    private static class SourceCursor {
+        volatile long frameSequence;
+        volatile long skippedFrames;
+        // Dernière séquence traitée par flux audio
+        final Map<String, Long> audioSequences = new ConcurrentHashMap<>();
+        // Tableau réutilisé pour la fenêtre de chaque flux audio (thread de détection uniquement)
+        final Map<String, float[][]> audioWindows = new HashMap<>();
     }
 }
\ No newline at end of file
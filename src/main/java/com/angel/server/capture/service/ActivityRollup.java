@@ -0,0 +1,223 @@
+package com.angel.server.capture.service;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Agrégats d'activité d'une journée, maintenus de façon incrémentale à la minute,
+ * à l'heure et au jour : nombre de détections, temps passé et confiance moyenne par activité
+ *
+ * Le temps passé est attribué à l'activité d'une détection jusqu'à la détection suivante
+ * de la même source (écart plafonné), dans la tranche de la détection qui l'ouvre
+ */
+public class ActivityRollup {
+
+    /** Granularités disponibles */
+    public static final String MINUTE = "minute";
+    public static final String HOUR = "hour";
+    public static final String DAY = "day";
+
+    /**
+     * Agrégat d'une activité sur une tranche de temps
+     */
+    public static class Aggregate {
+        @JsonProperty("count")
+        private long count;
+
+        @JsonProperty("duration_ms")
+        private long durationMs;
+
+        @JsonProperty("confidence_sum")
+        private double confidenceSum;
+
+        public Aggregate() {}
+
+        Aggregate(long count, long durationMs, double confidenceSum) {
+            this.count = count;
+            this.durationMs = durationMs;
+            this.confidenceSum = confidenceSum;
+        }
+
+        void addDetection(double confidence) {
+            count++;
+            confidenceSum += confidence;
+        }
+
+        void addDuration(long millis) {
+            durationMs += millis;
+        }
+
+        void merge(Aggregate other) {
+            count += other.count;
+            durationMs += other.durationMs;
+            confidenceSum += other.confidenceSum;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        @JsonIgnore
+        public double getMeanConfidence() {
+            return count > 0 ? confidenceSum / count : 0.0;
+        }
+
+        /**
+         * Représentation pour l'API
+         */
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("count", count);
+            map.put("duration_seconds", durationMs / 1000.0);
+            map.put("mean_confidence", getMeanConfidence());
+            return map;
+        }
+    }
+
+    @JsonProperty("date")
+    private String date;
+
+    // Tranches indexées par minute du jour (0-1439) et par heure (0-23)
+    @JsonProperty("minutes")
+    private TreeMap<Integer, Map<String, Aggregate>> minutes = new TreeMap<>();
+
+    @JsonProperty("hours")
+    private TreeMap<Integer, Map<String, Aggregate>> hours = new TreeMap<>();
+
+    @JsonProperty("day")
+    private Map<String, Aggregate> day = new HashMap<>();
+
+    @JsonIgnore
+    private volatile boolean dirty;
+
+    public ActivityRollup() {}
+
+    public ActivityRollup(String date) {
+        this.date = date;
+    }
+
+    /**
+     * Compte une détection dans ses tranches
+     */
+    public synchronized void addDetection(LocalDateTime timestamp, String activity, double confidence) {
+        if (activity == null) {
+            return;
+        }
+        aggregate(minutes, minuteOf(timestamp), activity).addDetection(confidence);
+        aggregate(hours, timestamp.getHour(), activity).addDetection(confidence);
+        day.computeIfAbsent(activity, key -> new Aggregate()).addDetection(confidence);
+        dirty = true;
+    }
+
+    /**
+     * Ajoute du temps passé à une activité, dans les tranches de l'instant où il commence
+     */
+    public synchronized void addDuration(LocalDateTime start, String activity, long millis) {
+        if (activity == null || millis <= 0) {
+            return;
+        }
+        aggregate(minutes, minuteOf(start), activity).addDuration(millis);
+        aggregate(hours, start.getHour(), activity).addDuration(millis);
+        day.computeIfAbsent(activity, key -> new Aggregate()).addDuration(millis);
+        dirty = true;
+    }
+
+    /**
+     * Copie des agrégats de chaque tranche de la granularité donnée, indexés par début de tranche
+     */
+    public synchronized Map<LocalDateTime, Map<String, Aggregate>> buckets(String granularity) {
+        LocalDateTime midnight = LocalDate.parse(date).atStartOfDay();
+        Map<LocalDateTime, Map<String, Aggregate>> buckets = new TreeMap<>();
+        if (MINUTE.equals(granularity)) {
+            for (Map.Entry<Integer, Map<String, Aggregate>> entry : minutes.entrySet()) {
+                buckets.put(midnight.plusMinutes(entry.getKey()), copy(entry.getValue()));
+            }
+        } else if (HOUR.equals(granularity)) {
+            for (Map.Entry<Integer, Map<String, Aggregate>> entry : hours.entrySet()) {
+                buckets.put(midnight.plusHours(entry.getKey()), copy(entry.getValue()));
+            }
+        } else if (!day.isEmpty()) {
+            buckets.put(midnight, copy(day));
+        }
+        return buckets;
+    }
+
+    /**
+     * Ajoute les agrégats du jour à des totaux
+     */
+    public synchronized void mergeDayInto(Map<String, Aggregate> totals) {
+        for (Map.Entry<String, Aggregate> entry : day.entrySet()) {
+            totals.computeIfAbsent(entry.getKey(), key -> new Aggregate()).merge(entry.getValue());
+        }
+    }
+
+    /**
+     * Représentation pour l'API d'un résumé de période : totaux par activité et tranches chronologiques
+     */
+    public static Map<String, Object> toSummary(String granularity, Map<String, Aggregate> totals,
+                                                Map<LocalDateTime, Map<String, Aggregate>> buckets) {
+        List<Map<String, Object>> bucketList = new ArrayList<>();
+        for (Map.Entry<LocalDateTime, Map<String, Aggregate>> entry : new TreeMap<>(buckets).entrySet()) {
+            Map<String, Object> activities = new TreeMap<>();
+            entry.getValue().forEach((activity, aggregate) -> activities.put(activity, aggregate.toMap()));
+
+            Map<String, Object> bucket = new HashMap<>();
+            bucket.put("start", entry.getKey().toString());
+            bucket.put("activities", activities);
+            bucketList.add(bucket);
+        }
+
+        Map<String, Object> activityTotals = new TreeMap<>();
+        totals.forEach((activity, aggregate) -> activityTotals.put(activity, aggregate.toMap()));
+
+        Map<String, Object> summary = new HashMap<>();
+        summary.put("granularity", granularity);
+        summary.put("totals", activityTotals);
+        summary.put("buckets", bucketList);
+        return summary;
+    }
+
+    public String getDate() {
+        return date;
+    }
+
+    @JsonIgnore
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    void markClean() {
+        dirty = false;
+    }
+
+    private static int minuteOf(LocalDateTime timestamp) {
+        return timestamp.getHour() * 60 + timestamp.getMinute();
+    }
+
+    private static Aggregate aggregate(TreeMap<Integer, Map<String, Aggregate>> buckets, int bucket, String activity) {
+        return buckets.computeIfAbsent(bucket, key -> new HashMap<>())
+                      .computeIfAbsent(activity, key -> new Aggregate());
+    }
+
+    private static Map<String, Aggregate> copy(Map<String, Aggregate> aggregates) {
+        Map<String, Aggregate> copy = new HashMap<>();
+        for (Map.Entry<String, Aggregate> entry : aggregates.entrySet()) {
+            Aggregate aggregate = new Aggregate();
+            aggregate.merge(entry.getValue());
+            copy.put(entry.getKey(), aggregate);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,158 @@
+package com.angel.server.capture.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Détecteur d'activité audio (énergie / voix) par trame, à plancher de bruit adaptatif
+ * Combine l'énergie RMS, le taux de passage par zéro (ZCR) et le flux spectral :
+ * une trame est active si son énergie dépasse nettement le plancher de bruit,
+ * sauf s'il s'agit d'un souffle stationnaire (ZCR élevé et flux spectral faible).
+ * Une temporisation (hangover) évite de hacher la fin des événements sonores
+ *
+ * Utilisé par un seul thread producteur ; les statistiques peuvent être lues depuis n'importe quel thread
+ */
+public class AudioActivityDetector {
+
+    // Vitesse d'adaptation du plancher de bruit (descente rapide, montée lente)
+    private static final double FLOOR_FALL_RATE = 0.1;
+    private static final double FLOOR_RISE_RATE = 0.002;
+
+    private final double energyRatioThreshold;
+    private final double minRms;
+    private final double zcrNoiseThreshold;
+    private final double fluxThreshold;
+    private final int hangoverFrames;
+
+    private float[] previousMagnitude;
+    private double noiseFloor = -1.0;
+    private int hangover;
+
+    // Dernières mesures et compteurs (lus par les statistiques)
+    private volatile double lastRms;
+    private volatile double lastZcr;
+    private volatile double lastFlux;
+    private volatile long totalFrames;
+    private volatile long activeFrames;
+
+    /**
+     * @param energyRatioThreshold rapport minimal entre l'énergie RMS et le plancher de bruit
+     * @param minRms énergie RMS minimale absolue d'une trame active
+     * @param zcrNoiseThreshold ZCR au-delà duquel une trame sans flux spectral est considérée comme du souffle
+     * @param fluxThreshold flux spectral normalisé caractérisant un début d'événement
+     * @param hangoverFrames nombre de trames maintenues actives après la dernière trame active
+     */
+    public AudioActivityDetector(double energyRatioThreshold, double minRms, double zcrNoiseThreshold,
+                                 double fluxThreshold, int hangoverFrames) {
+        this.energyRatioThreshold = energyRatioThreshold;
+        this.minRms = minRms;
+        this.zcrNoiseThreshold = zcrNoiseThreshold;
+        this.fluxThreshold = fluxThreshold;
+        this.hangoverFrames = hangoverFrames;
+    }
+
+    /**
+     * Évalue une trame
+     * @param samples échantillons temporels de la trame
+     * @param power spectre de puissance de la trame
+     * @return true si la trame contient de l'activité audio
+     */
+    public boolean update(float[] samples, int offset, int length, float[] power) {
+        // Énergie RMS et passages par zéro
+        double energy = 0.0;
+        int crossings = 0;
+        for (int i = offset; i < offset + length; i++) {
+            energy += samples[i] * samples[i];
+            if (i > offset && (samples[i] >= 0.0f) != (samples[i - 1] >= 0.0f)) {
+                crossings++;
+            }
+        }
+        double rms = Math.sqrt(energy / Math.max(1, length));
+        double zcr = (double) crossings / Math.max(1, length - 1);
+
+        // Flux spectral normalisé (augmentation positive des magnitudes)
+        if (previousMagnitude == null || previousMagnitude.length != power.length) {
+            previousMagnitude = new float[power.length];
+        }
+        double flux = 0.0;
+        double total = 0.0;
+        for (int k = 0; k < power.length; k++) {
+            float magnitude = (float) Math.sqrt(power[k]);
+            float increase = magnitude - previousMagnitude[k];
+            if (increase > 0) {
+                flux += increase;
+            }
+            total += magnitude;
+            previousMagnitude[k] = magnitude;
+        }
+        flux = total > 0 ? flux / total : 0.0;
+
+        // Décision par rapport au plancher de bruit
+        if (noiseFloor < 0) {
+            noiseFloor = rms;
+        }
+        double ratio = rms / Math.max(noiseFloor, 1e-9);
+        boolean stationaryNoise = zcr >= zcrNoiseThreshold && flux < fluxThreshold;
+        boolean loud = rms >= minRms && ratio >= energyRatioThreshold && !stationaryNoise;
+        boolean onset = rms >= minRms && ratio >= energyRatioThreshold * 0.75 && flux >= fluxThreshold;
+
+        boolean active;
+        if (loud || onset) {
+            hangover = hangoverFrames;
+            active = true;
+        } else if (hangover > 0) {
+            hangover--;
+            active = true;
+        } else {
+            active = false;
+        }
+
+        // Le plancher suit rapidement les baisses, lentement les hausses (hors activité)
+        if (rms < noiseFloor) {
+            noiseFloor += (rms - noiseFloor) * FLOOR_FALL_RATE;
+        } else if (!active) {
+            noiseFloor += (rms - noiseFloor) * FLOOR_RISE_RATE;
+        }
+
+        lastRms = rms;
+        lastZcr = zcr;
+        lastFlux = flux;
+        totalFrames++;
+        if (active) {
+            activeFrames++;
+        }
+        return active;
+    }
+
+    /**
+     * Réinitialise l'état adaptatif (les compteurs sont conservés)
+     */
+    public void reset() {
+        previousMagnitude = null;
+        noiseFloor = -1.0;
+        hangover = 0;
+    }
+
+    /**
+     * Proportion de trames silencieuses depuis le démarrage
+     */
+    public double getSilenceRatio() {
+        long total = totalFrames;
+        return total > 0 ? 1.0 - (double) activeFrames / total : 0.0;
+    }
+
+    /**
+     * Retourne les mesures courantes et les compteurs
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("noise_floor", noiseFloor);
+        stats.put("last_rms", lastRms);
+        stats.put("last_zcr", lastZcr);
+        stats.put("last_flux", lastFlux);
+        stats.put("total_frames", totalFrames);
+        stats.put("active_frames", activeFrames);
+        stats.put("silence_ratio", getSilenceRatio());
+        return stats;
+    }
+}
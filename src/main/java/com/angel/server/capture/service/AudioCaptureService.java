@@ -1,30 +1,54 @@
 package com.angel.server.capture.service;
 
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PreDestroy;
 import javax.sound.sampled.*;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 /**
  * Service de capture audio depuis le microphone
+ * Chaque source audio (microphone, flux RTSP...) dispose de sa propre chaîne de traitement,
+ * alimentée par son producteur et consommée par un planificateur commun
  */
 @Service
 public class AudioCaptureService {
 
     private static final Logger logger = LoggerFactory.getLogger(AudioCaptureService.class);
 
+    /** Clé de source du microphone local */
+    public static final String MICROPHONE_SOURCE = "microphone";
+
+    @Autowired
+    private ModelService modelService;
+
     // Configuration depuis application.properties
     @Value("${capture.microphone.enabled}")
     private boolean microphoneEnabled;
@@ -35,21 +59,114 @@ public class AudioCaptureService {
     @Value("${capture.microphone.buffer.size}")
     private int bufferSize;
 
+    // Microphones à ouvrir simultanément : "clé=nom du mixer[#canaux]" (vide : microphone par défaut)
+    @Value("${capture.microphone.devices:}")
+    private String[] microphoneDevices;
+
     @Value("${detection.audio.duration}")
     private int audioDuration; // en secondes
 
     @Value("${threads.capture.pool.size}")
     private int captureThreadPoolSize;
 
+    // Durée couverte par le buffer circulaire d'échantillons (en secondes)
+    @Value("${capture.microphone.ring.seconds:10}")
+    private int ringSeconds;
+
+    // Relecture d'un fichier audio à la place du microphone (vide : microphone)
+    @Value("${capture.audio.file.path:}")
+    private String audioFilePath;
+
+    @Value("${capture.audio.file.realtime:true}")
+    private boolean audioFileRealTime;
+
+    @Value("${capture.audio.file.loop:true}")
+    private boolean audioFileLoop;
+
+    // Répertoire des fichiers pouvant être rejoués via l'API
+    @Value("${capture.audio.replay.directory:replay}")
+    private String replayDirectory;
+
+    // Paramètres du spectrogramme
+    @Value("${audio.spectrogram.fft.size:1024}")
+    private int spectrogramFftSize;
+
+    @Value("${audio.spectrogram.hop.size:512}")
+    private int spectrogramHopSize;
+
+    @Value("${audio.spectrogram.mel.bands:0}")
+    private int spectrogramMelBands;
+
+    @Value("${audio.spectrogram.log.power:true}")
+    private boolean spectrogramLogPower;
+
+    // Détection d'activité audio (porte sur le silence)
+    @Value("${audio.activity.enabled:true}")
+    private boolean activityGateEnabled;
+
+    @Value("${audio.activity.energy.ratio:2.0}")
+    private double activityEnergyRatio;
+
+    @Value("${audio.activity.min.rms:0.002}")
+    private double activityMinRms;
+
+    @Value("${audio.activity.zcr.noise:0.35}")
+    private double activityZcrNoise;
+
+    @Value("${audio.activity.flux.threshold:0.4}")
+    private double activityFluxThreshold;
+
+    @Value("${audio.activity.hangover.frames:8}")
+    private int activityHangoverFrames;
+
+    // Paramètres MFCC
+    @Value("${audio.mfcc.coefficients:13}")
+    private int mfccCoefficients;
+
+    @Value("${audio.mfcc.mel.bands:40}")
+    private int mfccMelBands;
+
+    @Value("${audio.mfcc.deltas:false}")
+    private boolean mfccDeltas;
+
     // État de la capture
     private final AtomicBoolean isCapturing = new AtomicBoolean(false);
-    private final List<Consumer<byte[]>> audioListeners = new ArrayList<>();
+    private final List<Consumer<byte[]>> audioListeners = new CopyOnWriteArrayList<>();
+    private final List<BiConsumer<String, byte[]>> sourceAudioListeners = new CopyOnWriteArrayList<>();
     
-    // Composants audio
-    private TargetDataLine microphone;
+    // Extraction des caractéristiques (buffers réutilisés)
+    private SpectrogramEngine spectrogramEngine;
+    private MfccExtractor mfccExtractor;
+    private float[] sampleBuffer;
+    private float[][] powerFrames = new float[0][];
+    private float[][] spectrogramFrames = new float[0][];
+
+    // Inférence du modèle de son : verrou dédié (le moniteur du service protège les sources et la capture),
+    // tenseurs d'entrée par taille de lot réutilisés d'une inférence à l'autre (mémoire hors tas)
+    // et moteurs de caractéristiques propres (tampons de travail non partagés)
+    private final Object inferenceLock = new Object();
+    private final Map<Integer, INDArray> spectrogramTensors = new HashMap<>();
+    private final Map<Integer, INDArray> mfccTensors = new HashMap<>();
+    private float[] featureRow = new float[0];
+    private SpectrogramEngine inferenceSpectrogramEngine;
+    private MfccExtractor inferenceMfccExtractor;
+
+    // Chaînes de traitement par source audio (buffer circulaire, rééchantillonnage, STFT incrémentale)
+    private final Map<String, AudioSourcePipeline> pipelines = new ConcurrentHashMap<>();
+    private ScheduledExecutorService processingExecutor;
+
+    // Relectures de fichiers audio en cours par source
+    private final Map<String, AudioFileSource> fileSources = new ConcurrentHashMap<>();
+    private ExecutorService replayExecutor;
+    
+    // Composants audio : une ligne de capture par microphone, un thread de lecture par ligne
+    private final List<MicrophoneLine> microphoneLines = new CopyOnWriteArrayList<>();
     private AudioFormat audioFormat;
-    private ScheduledExecutorService captureExecutor;
-    private ByteArrayOutputStream audioBuffer;
+    private ExecutorService captureExecutor;
+
+    // Rééchantillonnage des clips vers la fréquence native du modèle de son (null si identique)
+    private PolyphaseResampler clipResampler;
+    private float[] clipResampleBuffer;
 
     /**
      * Démarre la capture audio
@@ -60,6 +177,18 @@ public class AudioCaptureService {
             return;
         }
 
+        // Relecture d'un fichier à la place du microphone (sans matériel audio)
+        if (audioFilePath != null && !audioFilePath.trim().isEmpty()) {
+            try {
+                audioFormat = new AudioFormat(sampleRate, 16, 1, true, false);
+                startFileReplay(MICROPHONE_SOURCE, audioFilePath.trim(), audioFileRealTime, audioFileLoop);
+                isCapturing.set(true);
+            } catch (IOException e) {
+                logger.error("Erreur lors du démarrage de la relecture audio: {}", e.getMessage());
+            }
+            return;
+        }
+
         if (!microphoneEnabled) {
             logger.info("Capture audio désactivée dans la configuration");
             return;
@@ -68,7 +197,7 @@ public class AudioCaptureService {
         logger.info("Démarrage de la capture audio...");
 
         try {
-            // Configurer le format audio
+            // Format des clips envoyés aux listeners (mono)
             audioFormat = new AudioFormat(
                 sampleRate,     // Sample rate
                 16,             // Sample size in bits
@@ -77,40 +206,143 @@ public class AudioCaptureService {
                 false           // Little endian
             );
 
-            // Obtenir la ligne de capture
-            DataLine.Info info = new DataLine.Info(TargetDataLine.class, audioFormat);
-            
-            if (!AudioSystem.isLineSupported(info)) {
-                logger.error("Format audio non supporté");
+            // Ouvrir les microphones configurés, sinon le microphone par défaut
+            boolean devicesConfigured = false;
+            if (microphoneDevices != null) {
+                for (String device : microphoneDevices) {
+                    if (device != null && !device.trim().isEmpty()) {
+                        devicesConfigured = true;
+                        openConfiguredLine(device.trim());
+                    }
+                }
+            }
+            if (!devicesConfigured) {
+                openLine(MICROPHONE_SOURCE, null, 1);
+            }
+
+            if (microphoneLines.isEmpty()) {
+                logger.error("Aucun microphone n'a pu être ouvert");
                 return;
             }
 
-            microphone = (TargetDataLine) AudioSystem.getLine(info);
-            microphone.open(audioFormat, bufferSize);
-            microphone.start();
+            // Un thread de capture par ligne
+            captureExecutor = Executors.newFixedThreadPool(microphoneLines.size());
+            isCapturing.set(true);
 
-            // Initialiser le buffer audio
-            audioBuffer = new ByteArrayOutputStream();
+            // Démarrer la capture continue
+            for (MicrophoneLine line : microphoneLines) {
+                captureExecutor.execute(() -> captureAudioLoop(line));
+            }
 
-            // Créer le pool de threads
-            captureExecutor = Executors.newScheduledThreadPool(1);
+            logger.info("Capture audio démarrée avec succès ({} ligne(s))", microphoneLines.size());
 
-            // Démarrer la capture continue
-            captureExecutor.execute(this::captureAudioLoop);
+        } catch (Exception e) {
+            isCapturing.set(false);
+            closeLines();
+            logger.error("Erreur lors du démarrage de la capture audio: {}", e.getMessage());
+        }
+    }
 
-            // Planifier l'envoi des échantillons audio
-            int intervalMs = audioDuration * 1000;
-            captureExecutor.scheduleWithFixedDelay(
-                this::processAudioBuffer,
-                intervalMs, intervalMs, TimeUnit.MILLISECONDS
-            );
+    /**
+     * Ouvre un microphone décrit par "clé=nom du mixer[#canaux]"
+     */
+    private void openConfiguredLine(String device) {
+        int separator = device.indexOf('=');
+        String key = separator > 0 ? device.substring(0, separator).trim() : device;
+        String mixerName = separator > 0 ? device.substring(separator + 1).trim() : device;
+        int channels = 1;
 
-            isCapturing.set(true);
-            logger.info("Capture audio démarrée avec succès");
+        int channelSeparator = mixerName.lastIndexOf('#');
+        if (channelSeparator >= 0) {
+            try {
+                channels = Math.max(1, Integer.parseInt(mixerName.substring(channelSeparator + 1).trim()));
+                mixerName = mixerName.substring(0, channelSeparator).trim();
+            } catch (NumberFormatException e) {
+                logger.warn("Nombre de canaux invalide pour le microphone {}: {}", key, e.getMessage());
+            }
+        }
+
+        openLine(key, mixerName, channels);
+    }
+
+    /**
+     * Ouvre une ligne de capture et crée une chaîne de traitement par canal
+     * (clé de la ligne si mono, sinon clé_ch0, clé_ch1...)
+     * @param mixerName sous-chaîne du nom du mixer (null : mixer par défaut)
+     */
+    private void openLine(String key, String mixerName, int channels) {
+        try {
+            AudioFormat lineFormat = new AudioFormat(sampleRate, 16, channels, true, false);
+            DataLine.Info info = new DataLine.Info(TargetDataLine.class, lineFormat);
+
+            TargetDataLine line;
+            if (mixerName == null) {
+                if (!AudioSystem.isLineSupported(info)) {
+                    logger.error("Format audio non supporté");
+                    return;
+                }
+                line = (TargetDataLine) AudioSystem.getLine(info);
+            } else {
+                Mixer mixer = findMixer(mixerName, info);
+                if (mixer == null) {
+                    logger.error("Aucun mixer compatible trouvé pour le microphone {} ({})", key, mixerName);
+                    return;
+                }
+                line = (TargetDataLine) mixer.getLine(info);
+            }
+
+            // Tampon de la ligne : buffer.size par canal, multiple de la taille d'une trame
+            int frameBytes = channels * 2;
+            line.open(lineFormat, Math.max(frameBytes, bufferSize / 2 * frameBytes));
+            line.start();
+
+            List<AudioSourcePipeline> channelPipelines = new ArrayList<>();
+            for (int channel = 0; channel < channels; channel++) {
+                String channelKey = channels == 1 ? key : key + "_ch" + channel;
+                channelPipelines.add(registerAudioSource(channelKey, sampleRate));
+            }
+            microphoneLines.add(new MicrophoneLine(key, line, channels, channelPipelines));
+
+            logger.info("Microphone {} ouvert ({}, {} canal(aux))", key,
+                       mixerName != null ? mixerName : "mixer par défaut", channels);
 
         } catch (Exception e) {
-            logger.error("Erreur lors du démarrage de la capture audio: {}", e.getMessage());
+            logger.error("Erreur lors de l'ouverture du microphone {}: {}", key, e.getMessage());
+        }
+    }
+
+    /**
+     * Recherche un mixer dont le nom contient la chaîne donnée et supportant le format demandé
+     */
+    private static Mixer findMixer(String mixerName, DataLine.Info info) {
+        String wanted = mixerName.toLowerCase();
+        for (Mixer.Info mixerInfo : AudioSystem.getMixerInfo()) {
+            if (mixerInfo.getName().toLowerCase().contains(wanted)) {
+                Mixer mixer = AudioSystem.getMixer(mixerInfo);
+                if (mixer.isLineSupported(info)) {
+                    return mixer;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Ferme les lignes de capture et supprime leurs chaînes de traitement
+     */
+    private void closeLines() {
+        for (MicrophoneLine line : microphoneLines) {
+            try {
+                line.line.stop();
+                line.line.close();
+            } catch (Exception e) {
+                logger.debug("Erreur lors de la fermeture du microphone {}: {}", line.key, e.getMessage());
+            }
+            for (AudioSourcePipeline pipeline : line.pipelines) {
+                unregisterAudioSource(pipeline.getSourceKey());
+            }
         }
+        microphoneLines.clear();
     }
 
     /**
@@ -126,12 +358,8 @@ public class AudioCaptureService {
 
         isCapturing.set(false);
 
-        // Arrêter le microphone
-        if (microphone != null) {
-            microphone.stop();
-            microphone.close();
-            microphone = null;
-        }
+        // Arrêter les microphones
+        closeLines();
 
         // Arrêter le pool de threads
         if (captureExecutor != null) {
@@ -146,31 +374,30 @@ public class AudioCaptureService {
             }
         }
 
-        // Fermer le buffer
-        if (audioBuffer != null) {
-            try {
-                audioBuffer.close();
-            } catch (IOException e) {
-                logger.debug("Erreur lors de la fermeture du buffer audio: {}", e.getMessage());
-            }
-            audioBuffer = null;
-        }
+        stopFileReplay(MICROPHONE_SOURCE);
+        unregisterAudioSource(MICROPHONE_SOURCE);
 
         logger.info("Capture audio arrêtée");
     }
 
     /**
      * Boucle principale de capture audio
+     * Ne fait que convertir et écrire dans le buffer circulaire : aucun travail en aval ne peut la bloquer
      */
-    private void captureAudioLoop() {
-        byte[] buffer = new byte[bufferSize];
+    private void captureAudioLoop(MicrophoneLine line) {
+        int frameBytes = line.channels * 2;
+        byte[] buffer = new byte[Math.max(frameBytes, bufferSize / 2 * frameBytes)];
         
-        while (isCapturing.get() && microphone != null) {
+        while (isCapturing.get() && line.line.isOpen()) {
             try {
-                int bytesRead = microphone.read(buffer, 0, buffer.length);
+                int bytesRead = line.line.read(buffer, 0, buffer.length);
                 if (bytesRead > 0) {
-                    synchronized (audioBuffer) {
-                        audioBuffer.write(buffer, 0, bytesRead);
+                    if (line.channels == 1) {
+                        line.pipelines.get(0).writePcm16(buffer, 0, bytesRead);
+                    } else {
+                        for (int channel = 0; channel < line.channels; channel++) {
+                            line.pipelines.get(channel).writePcm16Channel(buffer, 0, bytesRead, channel, line.channels);
+                        }
                     }
                 }
             } catch (Exception e) {
@@ -181,31 +408,235 @@ public class AudioCaptureService {
     }
 
     /**
-     * Traite le buffer audio accumulé
+     * Enregistre une source audio et crée sa chaîne de traitement
+     * Le producteur de la source y écrit ses échantillons (mono) depuis un seul thread ;
+     * une source déjà enregistrée à la même fréquence est conservée
+     */
+    public synchronized AudioSourcePipeline registerAudioSource(String sourceKey, float inputSampleRate) {
+        AudioSourcePipeline existing = pipelines.get(sourceKey);
+        if (existing != null && existing.getInputSampleRate() == inputSampleRate) {
+            return existing;
+        }
+
+        float featureSampleRate = getFeatureSampleRate();
+        int ringCapacity = (int) (inputSampleRate * Math.max(ringSeconds, audioDuration + 1));
+        AudioSourcePipeline pipeline = new AudioSourcePipeline(sourceKey, inputSampleRate, ringCapacity,
+                createResampler(inputSampleRate, featureSampleRate), createResampler(inputSampleRate, sampleRate),
+                createFeatureStream(featureSampleRate));
+        pipelines.put(sourceKey, pipeline);
+        startProcessing();
+
+        logger.info("Source audio enregistrée: {} ({} Hz)", sourceKey, inputSampleRate);
+        return pipeline;
+    }
+
+    /**
+     * Supprime une source audio et sa chaîne de traitement
+     */
+    public synchronized void unregisterAudioSource(String sourceKey) {
+        if (pipelines.remove(sourceKey) != null) {
+            logger.info("Source audio supprimée: {}", sourceKey);
+        }
+    }
+
+    /**
+     * Retourne les clés des sources audio enregistrées
+     */
+    public List<String> getAudioSourceKeys() {
+        return new ArrayList<>(pipelines.keySet());
+    }
+
+    /**
+     * Retourne la chaîne de traitement d'une source audio (null si non enregistrée)
+     */
+    public AudioSourcePipeline getAudioSource(String sourceKey) {
+        return pipelines.get(sourceKey);
+    }
+
+    /**
+     * Démarre la relecture d'un fichier audio comme source (remplace une relecture de même clé)
+     * @param realTime cadencer à la fréquence du fichier ; sinon vitesse maximale, la relecture
+     *                 calcule elle-même les caractéristiques et envoie un clip toutes les
+     *                 detection.audio.duration secondes d'audio
+     */
+    public synchronized AudioFileSource startFileReplay(String sourceKey, String path,
+                                                        boolean realTime, boolean loop) throws IOException {
+        stopFileReplay(sourceKey);
+
+        AudioFileSource fileSource = new AudioFileSource(new File(path), realTime, loop);
+        unregisterAudioSource(sourceKey);
+        AudioSourcePipeline pipeline = registerAudioSource(sourceKey, fileSource.getSampleRate());
+        pipeline.setProducerDriven(!realTime);
+        fileSource.attach(pipeline, this::emitClip, (int) (fileSource.getSampleRate() * audioDuration));
+
+        fileSource.setOnFinished(() -> onFileReplayFinished(sourceKey, fileSource));
+
+        if (replayExecutor == null) {
+            replayExecutor = Executors.newCachedThreadPool();
+        }
+        fileSources.put(sourceKey, fileSource);
+        replayExecutor.execute(fileSource);
+        return fileSource;
+    }
+
+    /**
+     * Démarre la relecture d'un fichier du répertoire de relecture (capture.audio.replay.directory)
+     * Tout chemin qui sort de ce répertoire (.., chemin absolu, lien symbolique) est refusé
+     */
+    public AudioFileSource startDirectoryReplay(String sourceKey, String path,
+                                                boolean realTime, boolean loop) throws IOException {
+        Path root = Paths.get(replayDirectory).toAbsolutePath().normalize();
+        Path file = root.resolve(path).normalize();
+        if (!file.startsWith(root)) {
+            throw new IOException("Chemin hors du répertoire de relecture: " + path);
+        }
+        if (Files.exists(file) && !file.toRealPath().startsWith(root.toRealPath())) {
+            throw new IOException("Chemin hors du répertoire de relecture: " + path);
+        }
+        return startFileReplay(sourceKey, file.toString(), realTime, loop);
+    }
+
+    /**
+     * Fin d'une relecture : la capture d'un fichier rejoué à la place du microphone s'arrête avec lui
+     */
+    private synchronized void onFileReplayFinished(String sourceKey, AudioFileSource fileSource) {
+        AudioFileSource current = fileSources.get(sourceKey);
+        if (MICROPHONE_SOURCE.equals(sourceKey) && microphoneLines.isEmpty()
+                && (current == null || current == fileSource) && isCapturing.compareAndSet(true, false)) {
+            logger.info("Fin de la relecture audio, capture arrêtée");
+        }
+    }
+
+    /**
+     * Interrompt la relecture d'un fichier audio (la source reste enregistrée)
+     */
+    public synchronized void stopFileReplay(String sourceKey) {
+        AudioFileSource fileSource = fileSources.remove(sourceKey);
+        if (fileSource != null) {
+            fileSource.stop();
+        }
+    }
+
+    /**
+     * Statistiques des relectures de fichiers audio (avancement, facteur de vitesse)
+     */
+    public Map<String, Object> getFileReplayStats() {
+        Map<String, Object> stats = new HashMap<>();
+        for (Map.Entry<String, AudioFileSource> entry : fileSources.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().getStats());
+        }
+        return stats;
+    }
+
+    /**
+     * Démarre le planificateur commun : STFT incrémentale à chaque pas, clips des listeners
+     */
+    private void startProcessing() {
+        if (processingExecutor != null) {
+            return;
+        }
+
+        processingExecutor = Executors.newScheduledThreadPool(2);
+
+        // Consommer les échantillons pour la STFT à chaque pas
+        long drainIntervalMs = Math.max(5, (long) (spectrogramHopSize * 1000 / getFeatureSampleRate()));
+        processingExecutor.scheduleWithFixedDelay(
+            this::drainFeatureStreams,
+            drainIntervalMs, drainIntervalMs, TimeUnit.MILLISECONDS
+        );
+
+        // Planifier l'envoi des échantillons audio
+        int intervalMs = audioDuration * 1000;
+        processingExecutor.scheduleWithFixedDelay(
+            this::processAudioBuffers,
+            intervalMs, intervalMs, TimeUnit.MILLISECONDS
+        );
+    }
+
+    /**
+     * Consomme les nouveaux échantillons de chaque source pour sa STFT incrémentale
+     */
+    private void drainFeatureStreams() {
+        for (AudioSourcePipeline pipeline : pipelines.values()) {
+            if (pipeline.isProducerDriven()) {
+                continue;
+            }
+            try {
+                pipeline.drainFeatures();
+            } catch (Exception e) {
+                logger.error("Erreur lors de l'extraction des caractéristiques audio ({}): {}",
+                           pipeline.getSourceKey(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Envoie aux listeners les échantillons accumulés par chaque source depuis le dernier envoi
      */
-    private void processAudioBuffer() {
+    private void processAudioBuffers() {
+        for (AudioSourcePipeline pipeline : pipelines.values()) {
+            if (!pipeline.isProducerDriven()) {
+                emitClip(pipeline);
+            }
+        }
+    }
+
+    /**
+     * Envoie aux listeners le clip accumulé par une source
+     */
+    private void emitClip(AudioSourcePipeline pipeline) {
         try {
-            synchronized (audioBuffer) {
-                if (audioBuffer.size() > 0) {
-                    byte[] audioData = audioBuffer.toByteArray();
-                    audioBuffer.reset();
-                    
-                    // Notifier tous les listeners
-                    notifyAudioListeners(audioData);
-                }
+            boolean microphoneSource = MICROPHONE_SOURCE.equals(pipeline.getSourceKey());
+
+            // Sans listener, ne rien accumuler
+            if (sourceAudioListeners.isEmpty() && (!microphoneSource || audioListeners.isEmpty())) {
+                pipeline.skipClips();
+                return;
+            }
+
+            float[] clip = pipeline.takeClip();
+            if (clip != null && clip.length > 0) {
+                byte[] audioData = toPcm16(clip, clip.length);
+                
+                // Notifier tous les listeners
+                notifyAudioListeners(pipeline.getSourceKey(), audioData);
             }
         } catch (Exception e) {
             logger.error("Erreur lors du traitement du buffer audio: {}", e.getMessage());
         }
     }
 
+    /**
+     * Convertit des échantillons normalisés en PCM 16 bits little-endian
+     */
+    private static byte[] toPcm16(float[] samples, int count) {
+        byte[] pcm = new byte[count * 2];
+        for (int i = 0; i < count; i++) {
+            int value = Math.round(samples[i] * 32768.0f);
+            short sample = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+            pcm[i * 2] = (byte) sample;
+            pcm[i * 2 + 1] = (byte) (sample >> 8);
+        }
+        return pcm;
+    }
+
     /**
      * Notifie tous les listeners d'audio
+     * Les listeners sans clé de source ne reçoivent que le microphone
      */
-    private void notifyAudioListeners(byte[] audioData) {
-        for (Consumer<byte[]> listener : audioListeners) {
+    private void notifyAudioListeners(String sourceKey, byte[] audioData) {
+        if (MICROPHONE_SOURCE.equals(sourceKey)) {
+            for (Consumer<byte[]> listener : audioListeners) {
+                try {
+                    listener.accept(audioData);
+                } catch (Exception e) {
+                    logger.error("Erreur lors de la notification d'un listener audio: {}", e.getMessage());
+                }
+            }
+        }
+        for (BiConsumer<String, byte[]> listener : sourceAudioListeners) {
             try {
-                listener.accept(audioData);
+                listener.accept(sourceKey, audioData);
             } catch (Exception e) {
                 logger.error("Erreur lors de la notification d'un listener audio: {}", e.getMessage());
             }
@@ -226,6 +657,20 @@ public class AudioCaptureService {
         audioListeners.remove(listener);
     }
 
+    /**
+     * Ajoute un listener recevant les données audio avec la clé de leur source
+     */
+    public void addSourceAudioListener(BiConsumer<String, byte[]> listener) {
+        sourceAudioListeners.add(listener);
+    }
+
+    /**
+     * Supprime un listener audio par source
+     */
+    public void removeSourceAudioListener(BiConsumer<String, byte[]> listener) {
+        sourceAudioListeners.remove(listener);
+    }
+
     /**
      * Vérifie si la capture audio est en cours
      */
@@ -241,71 +686,304 @@ public class AudioCaptureService {
     }
 
     /**
-     * Convertit les données audio brutes en spectrogramme
+     * Convertit les données audio brutes en spectrogramme (STFT par FFT radix-2)
+     * Le tableau retourné est réutilisé par l'appel suivant
+     */
+    public synchronized float[][] convertToSpectrogram(byte[] audioData) {
+        return spectrogramFromPower(computePowerFrames(audioData));
+    }
+
+    /**
+     * Convertit les données audio en coefficients MFCC (moyenne des trames, deltas en option)
+     */
+    public synchronized float[] convertToMFCC(byte[] audioData) {
+        return mfccFromPower(computePowerFrames(audioData));
+    }
+
+    /**
+     * Convertit des spectres de puissance (clip ou fenêtre glissante) en spectrogramme
+     * Le tableau retourné est réutilisé par l'appel suivant
      */
-    public float[][] convertToSpectrogram(byte[] audioData) {
-        // Convertir bytes en float
-        float[] samples = new float[audioData.length / 2];
-        for (int i = 0; i < samples.length; i++) {
-            short sample = (short) ((audioData[i * 2 + 1] << 8) | (audioData[i * 2] & 0xFF));
-            samples[i] = sample / 32768.0f;
+    public synchronized float[][] spectrogramFromPower(float[][] power) {
+        SpectrogramEngine engine = getSpectrogramEngine();
+
+        int featureSize = engine.getFeatureSize();
+        if (spectrogramFrames.length != power.length
+                || (power.length > 0 && spectrogramFrames[0].length != featureSize)) {
+            spectrogramFrames = new float[power.length][featureSize];
+        }
+        for (int frame = 0; frame < power.length; frame++) {
+            engine.toFeatures(power[frame], spectrogramFrames[frame]);
         }
+        return spectrogramFrames;
+    }
 
-        // Paramètres pour la FFT
-        int windowSize = 1024;
-        int hopSize = 512;
-        int numFrames = (samples.length - windowSize) / hopSize + 1;
-        int numFreqs = windowSize / 2 + 1;
+    /**
+     * Convertit des spectres de puissance (clip ou fenêtre glissante) en vecteur MFCC
+     */
+    public synchronized float[] mfccFromPower(float[][] power) {
+        return getMfccExtractor().extract(power);
+    }
 
-        float[][] spectrogram = new float[numFrames][numFreqs];
+    /**
+     * Passe une ou plusieurs fenêtres de spectres de puissance (même nombre de trames) au modèle de son
+     * Les caractéristiques sont écrites dans le tenseur d'entrée réutilisé et le modèle évalué sous
+     * le verrou d'inférence : le tenseur partagé n'est jamais lu ni réécrit par un autre appel, et
+     * l'enregistrement des sources ou la relecture de fichiers n'attendent pas le modèle
+     * @param mfcc entrée MFCC [lot, coefficients] ; sinon spectrogramme [lot, trames, fréquences, 1]
+     * @return sortie du modèle, une ligne par fenêtre (propre à l'appelant)
+     */
+    public INDArray soundModelOutput(MultiLayerNetwork model, boolean mfcc, List<float[][]> windows) {
+        synchronized (inferenceLock) {
+            INDArray input = mfcc ? mfccBatchTensor(windows) : spectrogramBatchTensor(windows);
+            return model.output(input);
+        }
+    }
 
-        // Fenêtre de Hamming
-        float[] window = new float[windowSize];
-        for (int i = 0; i < windowSize; i++) {
-            window[i] = (float) (0.54 - 0.46 * Math.cos(2 * Math.PI * i / (windowSize - 1)));
+    /**
+     * Écrit les spectrogrammes de plusieurs fenêtres (même nombre de trames) dans un tenseur
+     * de lot de forme [lot, trames, fréquences, 1]
+     * Le tenseur retourné est réutilisé par l'appel suivant de même taille de lot
+     */
+    private INDArray spectrogramBatchTensor(List<float[][]> windows) {
+        if (inferenceSpectrogramEngine == null) {
+            inferenceSpectrogramEngine = new SpectrogramEngine(spectrogramFftSize, spectrogramHopSize,
+                                                               getFeatureSampleRate(), spectrogramMelBands,
+                                                               spectrogramLogPower);
+        }
+        SpectrogramEngine engine = inferenceSpectrogramEngine;
+        int featureSize = engine.getFeatureSize();
+        int frames = windows.get(0).length;
+        INDArray tensor = reuseTensor(spectrogramTensors, windows.size(), frames, featureSize, 1);
+        if (featureRow.length < featureSize) {
+            featureRow = new float[featureSize];
         }
 
-        // Calculer le spectrogramme (version simplifiée)
-        for (int frame = 0; frame < numFrames; frame++) {
-            int start = frame * hopSize;
-            
-            // Appliquer la fenêtre et calculer la magnitude
-            for (int i = 0; i < numFreqs; i++) {
-                if (start + i < samples.length) {
-                    float windowed = samples[start + i] * window[i];
-                    spectrogram[frame][i] = Math.abs(windowed);
-                } else {
-                    spectrogram[frame][i] = 0;
-                }
+        FloatBuffer data = tensor.data().asNioFloat();
+        for (int item = 0; item < windows.size(); item++) {
+            float[][] power = windows.get(item);
+            for (int frame = 0; frame < frames; frame++) {
+                engine.toFeatures(power[frame], featureRow);
+                data.position((item * frames + frame) * featureSize);
+                data.put(featureRow, 0, featureSize);
             }
         }
+        return tensor;
+    }
+
+    /**
+     * Écrit les vecteurs MFCC de plusieurs fenêtres dans un tenseur de lot de forme [lot, coefficients]
+     * Le tenseur retourné est réutilisé par l'appel suivant de même taille de lot
+     */
+    private INDArray mfccBatchTensor(List<float[][]> windows) {
+        if (inferenceMfccExtractor == null) {
+            inferenceMfccExtractor = new MfccExtractor(mfccCoefficients, mfccMelBands, spectrogramFftSize,
+                                                       getFeatureSampleRate(), mfccDeltas);
+        }
+        MfccExtractor extractor = inferenceMfccExtractor;
+        int featureSize = extractor.getFeatureSize();
+        INDArray tensor = reuseTensor(mfccTensors, windows.size(), featureSize);
+        if (featureRow.length < featureSize) {
+            featureRow = new float[featureSize];
+        }
 
-        return spectrogram;
+        FloatBuffer data = tensor.data().asNioFloat();
+        for (int item = 0; item < windows.size(); item++) {
+            extractor.extract(windows.get(item), featureRow);
+            data.position(item * featureSize);
+            data.put(featureRow, 0, featureSize);
+        }
+        return tensor;
     }
 
     /**
-     * Convertit les données audio en coefficients MFCC
+     * Réutilise le tenseur de la taille de lot (première dimension) s'il a déjà la forme demandée,
+     * sinon en alloue un nouveau
      */
-    public float[] convertToMFCC(byte[] audioData) {
-        // Conversion simplifiée vers MFCC
-        // Dans une implémentation complète, on utiliserait une bibliothèque spécialisée
-        
-        float[][] spectrogram = convertToSpectrogram(audioData);
-        int numMfccCoeffs = 13;
-        float[] mfccFeatures = new float[numMfccCoeffs];
-        
-        // Calcul simplifié des MFCC (approximation)
-        for (int i = 0; i < numMfccCoeffs; i++) {
-            float sum = 0;
-            for (int frame = 0; frame < spectrogram.length; frame++) {
-                for (int freq = 0; freq < spectrogram[frame].length; freq++) {
-                    sum += spectrogram[frame][freq] * Math.cos(Math.PI * i * freq / spectrogram[frame].length);
-                }
+    private static INDArray reuseTensor(Map<Integer, INDArray> tensors, long... shape) {
+        int batchSize = (int) shape[0];
+        INDArray tensor = tensors.get(batchSize);
+        if (tensor != null && Arrays.equals(tensor.shape(), shape)) {
+            return tensor;
+        }
+        if (tensor != null) {
+            tensor.close();
+        }
+        tensor = Nd4j.create(DataType.FLOAT, shape);
+        tensors.put(batchSize, tensor);
+        return tensor;
+    }
+
+    /**
+     * Copie la fenêtre de spectres de puissance d'une source audio dans un tableau réutilisé
+     * si une trame plus récente que la séquence donnée est disponible, sinon null
+     * @param target tableau de l'appel précédent pour ce consommateur (null : allocation)
+     */
+    public LatestSampleSlot.Sample<float[][]> snapshotFeatures(String sourceKey, long afterSequence, float[][] target) {
+        AudioSourcePipeline pipeline = pipelines.get(sourceKey);
+        return pipeline != null ? pipeline.getFeatureStream().snapshotAfter(afterSequence, target) : null;
+    }
+
+    /**
+     * Vérifie si la fenêtre d'analyse d'une source contient de l'activité audio
+     * (toujours vrai si la détection d'activité est désactivée)
+     */
+    public boolean isAudioActive(String sourceKey) {
+        AudioSourcePipeline pipeline = pipelines.get(sourceKey);
+        return pipeline == null || pipeline.getFeatureStream().isWindowActive();
+    }
+
+    /**
+     * Retourne la séquence de la dernière trame calculée pour une source (0 si aucune)
+     */
+    public long getFeatureSequence(String sourceKey) {
+        AudioSourcePipeline pipeline = pipelines.get(sourceKey);
+        return pipeline != null ? pipeline.getFeatureStream().getFrameSequence() : 0L;
+    }
+
+    /**
+     * Vérifie si une source audio produit un flux de caractéristiques
+     */
+    public boolean hasFeatureStream(String sourceKey) {
+        return pipelines.containsKey(sourceKey);
+    }
+
+    /**
+     * Fréquence d'échantillonnage des caractéristiques : celle du modèle de son qui les consomme
+     * (le modèle par défaut)
+     */
+    public float getFeatureSampleRate() {
+        return getFeatureSampleRate(modelService.getDefaultSoundModelName());
+    }
+
+    /**
+     * Fréquence d'échantillonnage attendue par un modèle de son, ou celle de la capture
+     * si le modèle n'en précise pas
+     */
+    public float getFeatureSampleRate(String soundModelType) {
+        int modelRate = modelService.getSoundModelSampleRate(soundModelType);
+        return modelRate > 0 ? modelRate : sampleRate;
+    }
+
+    /**
+     * Crée un rééchantillonneur (null si les fréquences sont identiques)
+     */
+    private PolyphaseResampler createResampler(float inputSampleRate, float outputSampleRate) {
+        int inputRate = Math.round(inputSampleRate);
+        int outputRate = Math.round(outputSampleRate);
+        if (inputRate == outputRate) {
+            return null;
+        }
+        logger.info("Rééchantillonnage audio {} Hz -> {} Hz", inputRate, outputRate);
+        return new PolyphaseResampler(inputRate, outputRate);
+    }
+
+    /**
+     * Crée un flux de caractéristiques couvrant detection.audio.duration secondes
+     */
+    private StreamingFeatureExtractor createFeatureStream(float streamSampleRate) {
+        SpectrogramEngine engine = new SpectrogramEngine(spectrogramFftSize, spectrogramHopSize,
+                                                         streamSampleRate, spectrogramMelBands, spectrogramLogPower);
+        int windowFrames = engine.frameCount((int) (audioDuration * streamSampleRate));
+        AudioActivityDetector activityDetector = activityGateEnabled
+                ? new AudioActivityDetector(activityEnergyRatio, activityMinRms, activityZcrNoise,
+                                            activityFluxThreshold, activityHangoverFrames)
+                : null;
+        return new StreamingFeatureExtractor(engine, windowFrames, activityDetector);
+    }
+
+    /**
+     * Statistiques des buffers circulaires par source (retard et débordements par consommateur)
+     */
+    public Map<String, Object> getRingBufferStats() {
+        Map<String, Object> stats = new HashMap<>();
+        for (Map.Entry<String, AudioSourcePipeline> entry : pipelines.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().getRingStats());
+        }
+        stats.put("feature_sample_rate", getFeatureSampleRate());
+        return stats;
+    }
+
+    /**
+     * Statistiques des flux de caractéristiques par source
+     */
+    public Map<String, Object> getFeatureStreamStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, AudioSourcePipeline> entry : pipelines.entrySet()) {
+            StreamingFeatureExtractor stream = entry.getValue().getFeatureStream();
+            Map<String, Object> streamStats = new HashMap<>();
+            long lastFrame = stream.getLastFrameTimestamp();
+            streamStats.put("frame_sequence", stream.getFrameSequence());
+            streamStats.put("window_frames", stream.getWindowFrames());
+            streamStats.put("hop_size", stream.getHopSize());
+            streamStats.put("age_ms", lastFrame > 0 ? now - lastFrame : -1);
+            streamStats.put("window_active_frames", stream.getActiveFramesInWindow());
+            if (stream.getActivityDetector() != null) {
+                streamStats.put("activity", stream.getActivityDetector().getStats());
             }
-            mfccFeatures[i] = sum / (spectrogram.length * spectrogram[0].length);
+            stats.put(entry.getKey(), streamStats);
         }
-        
-        return mfccFeatures;
+        return stats;
+    }
+
+    /**
+     * Calcule les spectres de puissance d'un clip (toujours recalculés : le tampon audio peut être réutilisé)
+     * Pour extraire spectrogramme et MFCC d'un même clip avec une seule STFT, passer le résultat
+     * à {@link #spectrogramFromPower} et {@link #mfccFromPower}
+     * Le tableau retourné est réutilisé par l'appel suivant
+     */
+    public synchronized float[][] computePowerFrames(byte[] audioData) {
+        SpectrogramEngine engine = getSpectrogramEngine();
+        sampleBuffer = SpectrogramEngine.toSamples(audioData, sampleBuffer);
+        float[] samples = sampleBuffer;
+        int length = audioData.length / 2;
+
+        // Ramener le clip à la fréquence du modèle de son
+        if (clipResampler == null) {
+            clipResampler = createResampler(sampleRate, getFeatureSampleRate());
+        }
+        if (clipResampler != null) {
+            clipResampler.reset();
+            int maxLength = clipResampler.maxOutputLength(length);
+            if (clipResampleBuffer == null || clipResampleBuffer.length < maxLength) {
+                clipResampleBuffer = new float[maxLength];
+            }
+            length = clipResampler.process(sampleBuffer, 0, length, clipResampleBuffer);
+            samples = clipResampleBuffer;
+        }
+
+        int numFrames = engine.frameCount(length);
+
+        if (powerFrames.length != numFrames) {
+            powerFrames = new float[numFrames][engine.getNumBins()];
+        }
+        for (int frame = 0; frame < numFrames; frame++) {
+            engine.powerSpectrum(samples, frame * engine.getHopSize(), length, powerFrames[frame]);
+        }
+        return powerFrames;
+    }
+
+    /**
+     * Moteur de spectrogramme, créé à la première utilisation avec la fréquence d'échantillonnage configurée
+     */
+    private SpectrogramEngine getSpectrogramEngine() {
+        if (spectrogramEngine == null) {
+            spectrogramEngine = new SpectrogramEngine(spectrogramFftSize, spectrogramHopSize,
+                                                      getFeatureSampleRate(), spectrogramMelBands, spectrogramLogPower);
+        }
+        return spectrogramEngine;
+    }
+
+    /**
+     * Extracteur MFCC, créé à la première utilisation
+     */
+    private MfccExtractor getMfccExtractor() {
+        if (mfccExtractor == null) {
+            mfccExtractor = new MfccExtractor(mfccCoefficients, mfccMelBands, spectrogramFftSize,
+                                              getFeatureSampleRate(), mfccDeltas);
+        }
+        return mfccExtractor;
     }
 
     /**
@@ -340,11 +1018,40 @@ public class AudioCaptureService {
         return mixers;
     }
 
+    /**
+     * Ligne de capture ouverte et chaînes de traitement de ses canaux
+     */
+    private static final class MicrophoneLine {
+        private final String key;
+        private final TargetDataLine line;
+        private final int channels;
+        private final List<AudioSourcePipeline> pipelines;
+
+        MicrophoneLine(String key, TargetDataLine line, int channels, List<AudioSourcePipeline> pipelines) {
+            this.key = key;
+            this.line = line;
+            this.channels = channels;
+            this.pipelines = pipelines;
+        }
+    }
+
     /**
      * Nettoyage automatique à la fermeture
      */
     @PreDestroy
     public void cleanup() {
-        stopCapture();
+        if (isCapturing.get()) {
+            stopCapture();
+        }
+        fileSources.values().forEach(AudioFileSource::stop);
+        fileSources.clear();
+        pipelines.clear();
+
+        if (processingExecutor != null) {
+            processingExecutor.shutdownNow();
+        }
+        if (replayExecutor != null) {
+            replayExecutor.shutdownNow();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,279 @@
+package com.angel.server.capture.service;
+
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Source audio rejouant un fichier (WAV/AIFF/AU via javax.sound, tout autre format via FFmpeg)
+ * Permet d'exercer la chaîne audio sans microphone (CI, serveurs sans carte son)
+ *
+ * En temps réel, les échantillons sont cadencés à la fréquence du fichier et traités par le
+ * planificateur commun comme ceux d'un microphone. En vitesse maximale, la source pilote elle-même
+ * sa chaîne de traitement (STFT après chaque bloc, clip tous les N échantillons) : le résultat
+ * est déterministe et ne dépend pas de la vitesse du planificateur
+ */
+public class AudioFileSource implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(AudioFileSource.class);
+
+    // Taille des blocs lus dans le fichier (en trames)
+    private static final int BLOCK_FRAMES = 1024;
+
+    private final File file;
+    private final boolean realTime;
+    private final boolean loop;
+    private final boolean ffmpeg;
+    private final float sampleRate;
+
+    private AudioSourcePipeline pipeline;
+    private Consumer<AudioSourcePipeline> clipHandler;
+    private int clipSamples;
+    private Runnable onFinished;
+
+    private volatile boolean running = true;
+    private volatile long samplesWritten;
+    private volatile long passes;
+    private volatile long startTime;
+    private volatile long endTime;
+
+    /**
+     * Ouvre le fichier pour en déterminer le décodeur et la fréquence d'échantillonnage
+     * @param realTime cadencer la lecture à la fréquence du fichier (sinon vitesse maximale)
+     * @param loop rejouer le fichier en boucle
+     */
+    public AudioFileSource(File file, boolean realTime, boolean loop) throws IOException {
+        if (!file.isFile()) {
+            throw new IOException("Fichier audio introuvable: " + file);
+        }
+        this.file = file;
+        this.realTime = realTime;
+        this.loop = loop;
+
+        float rate;
+        boolean useFfmpeg;
+        try {
+            rate = AudioSystem.getAudioFileFormat(file).getFormat().getSampleRate();
+            useFfmpeg = false;
+        } catch (UnsupportedAudioFileException e) {
+            rate = probeFfmpegSampleRate(file);
+            useFfmpeg = true;
+        }
+        if (rate <= 0) {
+            throw new IOException("Fréquence d'échantillonnage inconnue: " + file);
+        }
+        this.sampleRate = rate;
+        this.ffmpeg = useFfmpeg;
+    }
+
+    /**
+     * Associe la chaîne de traitement alimentée par le fichier
+     * @param clipHandler traitement d'un clip en vitesse maximale (envoi aux listeners)
+     * @param clipSamples nombre d'échantillons d'entrée par clip en vitesse maximale
+     */
+    public void attach(AudioSourcePipeline pipeline, Consumer<AudioSourcePipeline> clipHandler, int clipSamples) {
+        this.pipeline = pipeline;
+        this.clipHandler = clipHandler;
+        this.clipSamples = Math.max(1, clipSamples);
+    }
+
+    /**
+     * Action exécutée quand la relecture s'arrête (fin du fichier sans boucle, arrêt ou erreur)
+     */
+    public void setOnFinished(Runnable onFinished) {
+        this.onFinished = onFinished;
+    }
+
+    @Override
+    public void run() {
+        startTime = System.currentTimeMillis();
+        logger.info("Relecture du fichier audio {} ({} Hz, {})", file.getName(), sampleRate,
+                   realTime ? "temps réel" : "vitesse maximale");
+
+        try {
+            do {
+                if (ffmpeg) {
+                    replayFfmpeg();
+                } else {
+                    replayAudioStream();
+                }
+                passes++;
+            } while (running && loop);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.error("Erreur lors de la relecture du fichier audio {}: {}", file.getName(), e.getMessage());
+        } finally {
+            running = false;
+            endTime = System.currentTimeMillis();
+            logger.info("Relecture du fichier audio {} terminée ({} échantillons)", file.getName(), samplesWritten);
+            if (onFinished != null) {
+                onFinished.run();
+            }
+        }
+    }
+
+    /**
+     * Décodage javax.sound : conversion en PCM 16 bits little-endian puis mixage mono
+     */
+    private void replayAudioStream() throws Exception {
+        try (AudioInputStream source = AudioSystem.getAudioInputStream(file)) {
+            AudioFormat sourceFormat = source.getFormat();
+            int channels = Math.max(1, sourceFormat.getChannels());
+            AudioFormat pcmFormat = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, sampleRate, 16,
+                                                    channels, channels * 2, sampleRate, false);
+
+            try (AudioInputStream pcm = AudioSystem.getAudioInputStream(pcmFormat, source)) {
+                int frameBytes = channels * 2;
+                byte[] buffer = new byte[BLOCK_FRAMES * frameBytes];
+                float[] mono = new float[BLOCK_FRAMES];
+                int pending = 0;
+                int read;
+
+                while (running && (read = pcm.read(buffer, pending, buffer.length - pending)) >= 0) {
+                    pending += read;
+                    int frames = pending / frameBytes;
+                    for (int i = 0; i < frames; i++) {
+                        float sum = 0.0f;
+                        for (int c = 0; c < channels; c++) {
+                            int index = i * frameBytes + c * 2;
+                            sum += (short) ((buffer[index + 1] << 8) | (buffer[index] & 0xFF)) / 32768.0f;
+                        }
+                        mono[i] = sum / channels;
+                    }
+
+                    // Conserver l'éventuelle trame incomplète pour la lecture suivante
+                    int consumed = frames * frameBytes;
+                    System.arraycopy(buffer, consumed, buffer, 0, pending - consumed);
+                    pending -= consumed;
+
+                    if (frames > 0) {
+                        pipeline.write(mono, 0, frames);
+                        afterWrite(frames);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Décodage FFmpeg de la piste audio (trames planaires ou entrelacées mixées en mono)
+     */
+    private void replayFfmpeg() throws Exception {
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(file);
+        grabber.start();
+        try {
+            Frame frame;
+            while (running && (frame = grabber.grabSamples()) != null) {
+                if (frame.samples == null || frame.samples.length == 0) {
+                    continue;
+                }
+                int channels = frame.samples.length > 1 ? 1 : Math.max(1, frame.audioChannels);
+                int frames = frame.samples[0].remaining() / channels;
+                pipeline.writeSamples(frame.samples, frame.audioChannels);
+                afterWrite(frames);
+            }
+        } finally {
+            grabber.stop();
+            grabber.release();
+        }
+    }
+
+    /**
+     * Cadence la lecture (temps réel) ou traite les échantillons écrits (vitesse maximale)
+     */
+    private void afterWrite(int frames) throws InterruptedException {
+        long before = samplesWritten;
+        samplesWritten = before + frames;
+
+        if (realTime) {
+            long dueMs = startTime + (long) (samplesWritten * 1000.0 / sampleRate);
+            long waitMs = dueMs - System.currentTimeMillis();
+            if (waitMs > 0) {
+                Thread.sleep(waitMs);
+            }
+        } else {
+            pipeline.drainFeatures();
+            if (samplesWritten / clipSamples != before / clipSamples && clipHandler != null) {
+                clipHandler.accept(pipeline);
+            }
+        }
+    }
+
+    /**
+     * Interrompt la relecture
+     */
+    public void stop() {
+        running = false;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public boolean isRealTime() {
+        return realTime;
+    }
+
+    public float getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Retourne l'avancement et le débit de la relecture (facteur par rapport au temps réel)
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long written = samplesWritten;
+        long elapsedMs = (running || endTime == 0 ? System.currentTimeMillis() : endTime) - startTime;
+        double audioSeconds = written / sampleRate;
+
+        stats.put("file", file.getName());
+        stats.put("decoder", ffmpeg ? "ffmpeg" : "javax.sound");
+        stats.put("sample_rate", sampleRate);
+        stats.put("real_time", realTime);
+        stats.put("loop", loop);
+        stats.put("running", running);
+        stats.put("passes", passes);
+        stats.put("samples_written", written);
+        stats.put("audio_seconds", audioSeconds);
+        stats.put("speed_factor", startTime > 0 && elapsedMs > 0 ? audioSeconds * 1000.0 / elapsedMs : 0.0);
+        return stats;
+    }
+
+    /**
+     * Détermine la fréquence d'échantillonnage de la piste audio avec FFmpeg
+     */
+    private static float probeFfmpegSampleRate(File file) throws IOException {
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(file);
+        try {
+            grabber.start();
+            if (!grabber.hasAudio()) {
+                throw new IOException("Aucune piste audio: " + file);
+            }
+            return grabber.getSampleRate();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Format audio non supporté: " + e.getMessage(), e);
+        } finally {
+            try {
+                grabber.stop();
+                grabber.release();
+            } catch (Exception e) {
+                logger.debug("Erreur lors de la fermeture du décodeur FFmpeg: {}", e.getMessage());
+            }
+        }
+    }
+}
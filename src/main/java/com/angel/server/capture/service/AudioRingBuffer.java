@@ -0,0 +1,209 @@
+package com.angel.server.capture.service;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Buffer circulaire sans verrou d'échantillons audio normalisés [-1, 1]
+ * Un seul producteur (la boucle de capture), plusieurs consommateurs ayant chacun
+ * leur curseur de lecture. Le producteur ne bloque jamais : un consommateur trop lent
+ * est dépassé, ses échantillons perdus sont comptés comme débordements (overruns)
+ */
+public class AudioRingBuffer {
+
+    private final float[] samples;
+    private final int mask;
+
+    // Position réservée par le producteur avant écriture, puis position publiée après écriture
+    private final AtomicLong writeClaim = new AtomicLong();
+    private final AtomicLong writePosition = new AtomicLong();
+
+    private final List<Cursor> cursors = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param minCapacity capacité minimale en échantillons (arrondie à la puissance de 2 supérieure)
+     */
+    public AudioRingBuffer(int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(2, minCapacity - 1)) << 1;
+        this.samples = new float[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Écrit des échantillons PCM 16 bits little-endian (convertis une seule fois en float)
+     */
+    public void writePcm16(byte[] pcm, int offset, int length) {
+        ShortBuffer shorts = SpectrogramEngine.pcm16View(pcm, offset, length);
+        int count = shorts.remaining();
+        long position = beginWrite(count);
+        for (int i = 0; i < count; i++) {
+            samples[(int) ((position + i) & mask)] = shorts.get(i) / 32768.0f;
+        }
+        writePosition.set(position + count);
+    }
+
+    /**
+     * Écrit des échantillons déjà normalisés
+     */
+    public void write(float[] source, int offset, int length) {
+        long position = beginWrite(length);
+        for (int i = 0; i < length; i++) {
+            samples[(int) ((position + i) & mask)] = source[offset + i];
+        }
+        writePosition.set(position + length);
+    }
+
+    /**
+     * Réserve la zone à écrire : les lecteurs qui la chevauchent détecteront l'écrasement
+     */
+    private long beginWrite(int count) {
+        long position = writePosition.get();
+        writeClaim.set(position + count);
+        // Les écritures de données ne doivent pas être visibles avant la réservation
+        VarHandle.storeStoreFence();
+        return position;
+    }
+
+    /**
+     * Crée un curseur de lecture positionné sur les échantillons les plus récents
+     */
+    public Cursor newCursor(String name) {
+        Cursor cursor = new Cursor(name, writePosition.get());
+        cursors.add(cursor);
+        return cursor;
+    }
+
+    /**
+     * Supprime un curseur de lecture
+     */
+    public void removeCursor(Cursor cursor) {
+        cursors.remove(cursor);
+    }
+
+    /**
+     * Lit jusqu'à maxLength échantillons disponibles pour un curseur
+     * Un curseur ne doit être lu que par un seul thread à la fois
+     * @return le nombre d'échantillons copiés dans destination
+     */
+    public int read(Cursor cursor, float[] destination, int offset, int maxLength) {
+        long published = writePosition.get();
+        long start = cursor.position;
+
+        // Le producteur a fait le tour du buffer : sauter les échantillons écrasés
+        long oldest = published - samples.length;
+        if (start < oldest) {
+            cursor.recordOverrun(oldest - start);
+            start = oldest;
+        }
+
+        int count = (int) Math.min(maxLength, published - start);
+        if (count <= 0) {
+            cursor.position = start;
+            return 0;
+        }
+
+        for (int i = 0; i < count; i++) {
+            destination[offset + i] = samples[(int) ((start + i) & mask)];
+        }
+
+        // Vérifier qu'aucune écriture concurrente n'a écrasé la zone pendant la copie
+        VarHandle.loadLoadFence();
+        long overwrittenBefore = writeClaim.get() - samples.length;
+        if (start < overwrittenBefore) {
+            int lost = (int) Math.min(count, overwrittenBefore - start);
+            cursor.recordOverrun(lost);
+            System.arraycopy(destination, offset + lost, destination, offset, count - lost);
+            count -= lost;
+            start += lost;
+        }
+
+        cursor.position = start + count;
+        cursor.consumed.addAndGet(count);
+        return count;
+    }
+
+    /**
+     * Nombre d'échantillons en attente pour un curseur (borné par la capacité)
+     */
+    public int available(Cursor cursor) {
+        return (int) Math.min(samples.length, writePosition.get() - cursor.position);
+    }
+
+    /**
+     * Positionne un curseur sur les échantillons les plus récents (abandon du retard sans débordement)
+     */
+    public void skipToLatest(Cursor cursor) {
+        cursor.position = writePosition.get();
+    }
+
+    public int getCapacity() {
+        return samples.length;
+    }
+
+    public long getWritePosition() {
+        return writePosition.get();
+    }
+
+    /**
+     * Retourne les métriques du buffer et de chaque curseur
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long published = writePosition.get();
+        stats.put("capacity", samples.length);
+        stats.put("written", published);
+
+        List<Map<String, Object>> cursorStats = new ArrayList<>();
+        for (Cursor cursor : cursors) {
+            Map<String, Object> entry = new HashMap<>();
+            entry.put("name", cursor.name);
+            entry.put("lag", Math.max(0, published - cursor.position));
+            entry.put("consumed", cursor.consumed.get());
+            entry.put("overruns", cursor.overruns.get());
+            entry.put("overrun_samples", cursor.overrunSamples.get());
+            cursorStats.add(entry);
+        }
+        stats.put("cursors", cursorStats);
+        return stats;
+    }
+
+    /**
+     * Curseur de lecture d'un consommateur
+     */
+    public static final class Cursor {
+        private final String name;
+        private volatile long position;
+
+        private final AtomicLong consumed = new AtomicLong();
+        private final AtomicLong overruns = new AtomicLong();
+        private final AtomicLong overrunSamples = new AtomicLong();
+
+        Cursor(String name, long position) {
+            this.name = name;
+            this.position = position;
+        }
+
+        private void recordOverrun(long lostSamples) {
+            overruns.incrementAndGet();
+            overrunSamples.addAndGet(lostSamples);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getOverruns() {
+            return overruns.get();
+        }
+
+        public long getOverrunSamples() {
+            return overrunSamples.get();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.angel.server.capture.service;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Chaîne de traitement audio d'une source (microphone, flux RTSP, fichier...)
+ * Le producteur écrit dans le buffer circulaire de la source ; le thread de traitement
+ * rééchantillonne vers la fréquence du modèle de son et alimente la STFT incrémentale,
+ * et les clips bruts sont prélevés pour les listeners
+ */
+public class AudioSourcePipeline {
+
+    private final String sourceKey;
+    private final float inputSampleRate;
+    private final AudioRingBuffer ringBuffer;
+    private final AudioRingBuffer.Cursor featureCursor;
+    private final AudioRingBuffer.Cursor clipCursor;
+    private final PolyphaseResampler resampler;
+    private final PolyphaseResampler clipResampler;
+    private final StreamingFeatureExtractor featureStream;
+
+    // Buffers du thread de traitement
+    private final float[] drainBuffer;
+    private final float[] resampleBuffer;
+
+    // Buffer de mixage du producteur (conversion des trames multi-canaux)
+    private float[] mixBuffer = new float[0];
+
+    // Le producteur consomme lui-même ses échantillons (relecture de fichier à vitesse maximale)
+    private volatile boolean producerDriven;
+
+    /**
+     * @param resampler rééchantillonneur vers la fréquence des caractéristiques (null si identique)
+     * @param clipResampler rééchantillonneur des clips vers le format de capture (null si identique)
+     */
+    public AudioSourcePipeline(String sourceKey, float inputSampleRate, int ringCapacity,
+                               PolyphaseResampler resampler, PolyphaseResampler clipResampler,
+                               StreamingFeatureExtractor featureStream) {
+        this.sourceKey = sourceKey;
+        this.inputSampleRate = inputSampleRate;
+        this.ringBuffer = new AudioRingBuffer(ringCapacity);
+        this.featureCursor = ringBuffer.newCursor("features");
+        this.clipCursor = ringBuffer.newCursor("clips");
+        this.resampler = resampler;
+        this.clipResampler = clipResampler;
+        this.featureStream = featureStream;
+        this.drainBuffer = new float[4096];
+        this.resampleBuffer = resampler != null ? new float[resampler.maxOutputLength(drainBuffer.length)] : null;
+    }
+
+    /**
+     * Écrit des échantillons PCM 16 bits little-endian mono (thread producteur)
+     */
+    public void writePcm16(byte[] pcm, int offset, int length) {
+        ringBuffer.writePcm16(pcm, offset, length);
+    }
+
+    /**
+     * Écrit des échantillons normalisés mono (thread producteur)
+     */
+    public void write(float[] samples, int offset, int length) {
+        ringBuffer.write(samples, offset, length);
+    }
+
+    /**
+     * Écrit un canal d'un bloc PCM 16 bits little-endian entrelacé (thread producteur)
+     * Les canaux d'une même ligne multi-canaux alimentent chacun leur propre chaîne
+     */
+    public void writePcm16Channel(byte[] pcm, int offset, int length, int channel, int channels) {
+        ShortBuffer shorts = SpectrogramEngine.pcm16View(pcm, offset, length);
+        int frames = shorts.remaining() / channels;
+        if (frames <= 0) {
+            return;
+        }
+        if (mixBuffer.length < frames) {
+            mixBuffer = new float[frames];
+        }
+        for (int i = 0; i < frames; i++) {
+            mixBuffer[i] = shorts.get(i * channels + channel) / 32768.0f;
+        }
+        ringBuffer.write(mixBuffer, 0, frames);
+    }
+
+    /**
+     * Écrit une trame audio décodée, entrelacée (un buffer) ou planaire (un buffer par canal),
+     * en la ramenant en mono (thread producteur)
+     * Les buffers entiers sont normalisés selon leur type (short, int, float, double, byte non signé)
+     */
+    public void writeSamples(Buffer[] planes, int channels) {
+        if (planes == null || planes.length == 0 || planes[0] == null) {
+            return;
+        }
+
+        boolean planar = planes.length > 1;
+        int channelCount = planar ? planes.length : Math.max(1, channels);
+        int frames = planar ? planes[0].remaining() : planes[0].remaining() / channelCount;
+        if (frames <= 0) {
+            return;
+        }
+        if (mixBuffer.length < frames) {
+            mixBuffer = new float[frames];
+        }
+
+        for (int i = 0; i < frames; i++) {
+            float sum = 0.0f;
+            for (int c = 0; c < channelCount; c++) {
+                sum += planar
+                        ? sampleAt(planes[c], planes[c].position() + i)
+                        : sampleAt(planes[0], planes[0].position() + i * channelCount + c);
+            }
+            mixBuffer[i] = sum / channelCount;
+        }
+        ringBuffer.write(mixBuffer, 0, frames);
+    }
+
+    private static float sampleAt(Buffer buffer, int index) {
+        if (buffer instanceof ShortBuffer) {
+            return ((ShortBuffer) buffer).get(index) / 32768.0f;
+        } else if (buffer instanceof FloatBuffer) {
+            return ((FloatBuffer) buffer).get(index);
+        } else if (buffer instanceof IntBuffer) {
+            return ((IntBuffer) buffer).get(index) / 2147483648.0f;
+        } else if (buffer instanceof DoubleBuffer) {
+            return (float) ((DoubleBuffer) buffer).get(index);
+        } else if (buffer instanceof ByteBuffer) {
+            return ((((ByteBuffer) buffer).get(index) & 0xFF) - 128) / 128.0f;
+        }
+        return 0.0f;
+    }
+
+    /**
+     * Consomme les nouveaux échantillons pour la STFT incrémentale (thread de traitement)
+     */
+    public void drainFeatures() {
+        int read;
+        while ((read = ringBuffer.read(featureCursor, drainBuffer, 0, drainBuffer.length)) > 0) {
+            if (resampler != null) {
+                int produced = resampler.process(drainBuffer, 0, read, resampleBuffer);
+                featureStream.accept(resampleBuffer, 0, produced);
+            } else {
+                featureStream.accept(drainBuffer, 0, read);
+            }
+        }
+    }
+
+    /**
+     * Prélève les échantillons accumulés depuis le dernier clip, à la fréquence de capture (null si aucun)
+     */
+    public float[] takeClip() {
+        int available = ringBuffer.available(clipCursor);
+        if (available <= 0) {
+            return null;
+        }
+        float[] clip = new float[available];
+        int read = ringBuffer.read(clipCursor, clip, 0, available);
+        if (clipResampler != null) {
+            float[] resampled = new float[clipResampler.maxOutputLength(read)];
+            int produced = clipResampler.process(clip, 0, read, resampled);
+            clip = resampled;
+            available = resampled.length;
+            read = produced;
+        }
+        if (read < available) {
+            float[] trimmed = new float[read];
+            System.arraycopy(clip, 0, trimmed, 0, read);
+            return trimmed;
+        }
+        return clip;
+    }
+
+    /**
+     * Abandonne les échantillons en attente de clip (aucun listener)
+     */
+    public void skipClips() {
+        ringBuffer.skipToLatest(clipCursor);
+    }
+
+    public String getSourceKey() {
+        return sourceKey;
+    }
+
+    public float getInputSampleRate() {
+        return inputSampleRate;
+    }
+
+    /**
+     * Indique que le producteur traite lui-même ses échantillons : le planificateur commun l'ignore
+     */
+    public void setProducerDriven(boolean producerDriven) {
+        this.producerDriven = producerDriven;
+    }
+
+    public boolean isProducerDriven() {
+        return producerDriven;
+    }
+
+    public StreamingFeatureExtractor getFeatureStream() {
+        return featureStream;
+    }
+
+    /**
+     * Statistiques du buffer circulaire et de la fréquence de la source
+     */
+    public Map<String, Object> getRingStats() {
+        Map<String, Object> stats = new HashMap<>(ringBuffer.getStats());
+        stats.put("input_sample_rate", inputSampleRate);
+        stats.put("resampled_to", resampler != null ? resampler.getOutputRate() : inputSampleRate);
+        return stats;
+    }
+}
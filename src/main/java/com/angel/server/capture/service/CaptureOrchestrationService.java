@@ -18,6 +18,9 @@ public class CaptureOrchestrationService {
 
     private static final Logger logger = LoggerFactory.getLogger(CaptureOrchestrationService.class);
 
+    // Délai maximal de livraison des détections en file avant la sauvegarde de l'historique
+    private static final long HISTORY_DRAIN_TIMEOUT_MILLIS = 10_000;
+
     @Autowired
     private VideoCaptureService videoCaptureService;
 
@@ -37,8 +40,10 @@ public class CaptureOrchestrationService {
     public void initialize() {
         logger.info("Initialisation du service d'orchestration de capture...");
         
-        // Configurer les listeners pour l'historique
-        activityDetectionService.addDetectionListener(this::onActivityDetected);
+        // Configurer les listeners pour l'historique (file pleine : attente brève puis perte comptée,
+        // le journal d'historique garantit la durabilité des détections reçues)
+        activityDetectionService.addDetectionListener("history", this::onActivityDetected,
+                                                      1000, DetectionEventBus.OverflowPolicy.BLOCK);
         
         logger.info("Service d'orchestration initialisé");
     }
@@ -77,7 +82,8 @@ public class CaptureOrchestrationService {
             audioCaptureService.stopCapture();
             videoCaptureService.stopCapture();
             
-            // Forcer la sauvegarde de l'historique
+            // Livrer les détections encore en file puis forcer la sauvegarde de l'historique
+            activityDetectionService.drainDetectionListeners(HISTORY_DRAIN_TIMEOUT_MILLIS);
             historyService.forceSave();
             
             logger.info("Tous les services de capture ont été arrêtés");
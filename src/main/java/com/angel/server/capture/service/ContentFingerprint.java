@@ -0,0 +1,128 @@
+package com.angel.server.capture.service;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Empreintes perceptuelles 64 bits des images et des échantillons audio
+ * Deux contenus quasi identiques produisent la même empreinte, ce qui permet
+ * de réutiliser les prédictions en cache pour des frames ou des clips redondants
+ */
+public final class ContentFingerprint {
+
+    private static final int HASH_WIDTH = 9;
+    private static final int HASH_HEIGHT = 8;
+    private static final int AUDIO_SEGMENTS = 9;
+    private static final int AUDIO_BANDS = 4;
+
+    private ContentFingerprint() {
+    }
+
+    /**
+     * Calcule le dHash (difference hash) d'une image
+     * L'image est réduite à une grille 9x8 de luminances moyennes ;
+     * chaque bit indique si une cellule est plus claire que sa voisine de droite
+     */
+    public static long imageDHash(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        int[] pixels = new int[width * height];
+        image.getRGB(0, 0, width, height, pixels, 0, width);
+
+        double[] luminance = new double[HASH_WIDTH * HASH_HEIGHT];
+        int[] counts = new int[HASH_WIDTH * HASH_HEIGHT];
+
+        for (int y = 0; y < height; y++) {
+            int cellY = y * HASH_HEIGHT / height;
+            int rowOffset = y * width;
+            for (int x = 0; x < width; x++) {
+                int cell = cellY * HASH_WIDTH + x * HASH_WIDTH / width;
+                int rgb = pixels[rowOffset + x];
+                luminance[cell] += 0.299 * ((rgb >> 16) & 0xFF)
+                                 + 0.587 * ((rgb >> 8) & 0xFF)
+                                 + 0.114 * (rgb & 0xFF);
+                counts[cell]++;
+            }
+        }
+
+        long hash = 0L;
+        int bit = 0;
+        for (int y = 0; y < HASH_HEIGHT; y++) {
+            for (int x = 0; x < HASH_WIDTH - 1; x++) {
+                int left = y * HASH_WIDTH + x;
+                double leftMean = counts[left] > 0 ? luminance[left] / counts[left] : 0.0;
+                double rightMean = counts[left + 1] > 0 ? luminance[left + 1] / counts[left + 1] : 0.0;
+                if (leftMean > rightMean) {
+                    hash |= 1L << bit;
+                }
+                bit++;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Calcule l'empreinte d'une fenêtre audio à partir de ses spectres de puissance
+     * Les trames sont regroupées en 9 segments et les fréquences en 4 bandes espacées
+     * logarithmiquement (proches de l'échelle mel). Les bits indiquent, pour chaque bande,
+     * si son énergie augmente d'un segment au suivant (32 bits), et pour chaque segment,
+     * si une bande est plus énergétique que la suivante (27 bits) : deux sons de même
+     * enveloppe mais de spectres différents n'ont pas la même empreinte (insensible au gain global)
+     * @return null si la fenêtre est trop courte pour être distinguée (pas de mise en cache)
+     */
+    public static Long audioFingerprint(float[][] powerFrames) {
+        if (powerFrames.length < AUDIO_SEGMENTS || powerFrames[0].length < AUDIO_BANDS) {
+            return null;
+        }
+
+        int bins = powerFrames[0].length;
+        int[] bandEdges = new int[AUDIO_BANDS + 1];
+        for (int band = 1; band <= AUDIO_BANDS; band++) {
+            int edge = (int) Math.round(Math.pow(bins, band / (double) AUDIO_BANDS));
+            bandEdges[band] = Math.min(bins, Math.max(bandEdges[band - 1] + 1, edge));
+        }
+        bandEdges[AUDIO_BANDS] = bins;
+
+        double[][] energy = new double[AUDIO_SEGMENTS][AUDIO_BANDS];
+        int[] counts = new int[AUDIO_SEGMENTS];
+        for (int frame = 0; frame < powerFrames.length; frame++) {
+            int segment = (int) ((long) frame * AUDIO_SEGMENTS / powerFrames.length);
+            float[] power = powerFrames[frame];
+            for (int band = 0; band < AUDIO_BANDS; band++) {
+                double sum = 0.0;
+                for (int bin = bandEdges[band]; bin < bandEdges[band + 1] && bin < power.length; bin++) {
+                    sum += power[bin];
+                }
+                energy[segment][band] += sum;
+            }
+            counts[segment]++;
+        }
+        for (int segment = 0; segment < AUDIO_SEGMENTS; segment++) {
+            for (int band = 0; band < AUDIO_BANDS; band++) {
+                energy[segment][band] /= Math.max(1, counts[segment]);
+            }
+        }
+
+        long hash = 0L;
+        int bit = 0;
+        // Évolution temporelle de chaque bande
+        for (int band = 0; band < AUDIO_BANDS; band++) {
+            for (int segment = 0; segment < AUDIO_SEGMENTS - 1; segment++) {
+                if (energy[segment + 1][band] > energy[segment][band]) {
+                    hash |= 1L << bit;
+                }
+                bit++;
+            }
+        }
+        // Forme spectrale de chaque segment
+        for (int segment = 0; segment < AUDIO_SEGMENTS; segment++) {
+            for (int band = 0; band < AUDIO_BANDS - 1; band++) {
+                if (energy[segment][band] > energy[segment][band + 1]) {
+                    hash |= 1L << bit;
+                }
+                bit++;
+            }
+        }
+        return hash;
+    }
+}
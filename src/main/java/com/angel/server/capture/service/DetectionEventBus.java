@@ -0,0 +1,274 @@
+package com.angel.server.capture.service;
+
+import com.angel.server.capture.model.ActivityDetection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Bus d'événements asynchrone pour les détections d'activité
+ * Chaque abonné dispose de sa propre file bornée et de son propre thread de livraison :
+ * la publication n'attend (brièvement) que pour un abonné BLOCK dont la file est pleine
+ */
+public class DetectionEventBus {
+
+    private static final Logger logger = LoggerFactory.getLogger(DetectionEventBus.class);
+
+    /**
+     * Politique appliquée quand la file d'un abonné est pleine
+     */
+    public enum OverflowPolicy {
+        /** Supprime l'événement le plus ancien de la file */
+        DROP_OLDEST,
+        /** Ignore le nouvel événement */
+        DROP_NEWEST,
+        /** Ne conserve que le dernier événement (file de taille 1) */
+        CONFLATE,
+        /** Attend qu'une place se libère, au plus {@link #BLOCK_TIMEOUT_MILLIS} ms, puis ignore le nouvel événement */
+        BLOCK
+    }
+
+    // Attente entre deux vérifications des files pendant une vidange
+    private static final long DRAIN_POLL_MILLIS = 10;
+
+    /** Attente maximale du publieur sur la file pleine d'un abonné BLOCK (le cycle d'inférence n'est jamais bloqué) */
+    public static final long BLOCK_TIMEOUT_MILLIS = 50;
+
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+    /**
+     * Abonne un listener avec sa propre file et sa politique de débordement
+     */
+    public void subscribe(String name, Consumer<ActivityDetection> listener, int capacity, OverflowPolicy policy) {
+        Subscriber subscriber = new Subscriber(name, listener, capacity, policy);
+        subscribers.add(subscriber);
+        subscriber.start();
+        logger.debug("Abonné ajouté au bus de détections: {} (capacité: {}, politique: {})",
+                    name, subscriber.capacity, policy);
+    }
+
+    /**
+     * Désabonne un listener et arrête son thread de livraison
+     */
+    public boolean unsubscribe(Consumer<ActivityDetection> listener) {
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.listener.equals(listener)) {
+                subscribers.remove(subscriber);
+                subscriber.stop();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Publie une détection vers tous les abonnés ; n'attend que sur un abonné BLOCK dont la file est pleine
+     */
+    public void publish(ActivityDetection detection) {
+        long publishedAt = System.nanoTime();
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(new Envelope(detection, publishedAt));
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * Retourne les métriques de livraison par abonné
+     */
+    public List<Map<String, Object>> getStats() {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (Subscriber subscriber : subscribers) {
+            stats.add(subscriber.getStats());
+        }
+        return stats;
+    }
+
+    /**
+     * Attend que toutes les détections publiées aient été livrées
+     * @return true si les files sont vides avant l'expiration du délai
+     */
+    public boolean drain(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (Subscriber subscriber : subscribers) {
+            while (subscriber.pending.get() > 0) {
+                if (System.currentTimeMillis() >= deadline) {
+                    logger.warn("Vidange du bus de détections incomplète: {} détection(s) en attente pour {}",
+                               subscriber.pending.get(), subscriber.name);
+                    return false;
+                }
+                try {
+                    Thread.sleep(DRAIN_POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Livre les détections en attente (dans la limite du délai) puis arrête tous les threads de livraison
+     */
+    public void shutdown(long drainTimeoutMillis) {
+        drain(drainTimeoutMillis);
+        for (Subscriber subscriber : subscribers) {
+            subscriber.stop();
+        }
+        subscribers.clear();
+    }
+
+    /**
+     * Détection publiée avec son instant de publication (pour mesurer le retard de livraison)
+     */
+    private static class Envelope {
+        final ActivityDetection detection;
+        final long publishedAt;
+
+        Envelope(ActivityDetection detection, long publishedAt) {
+            this.detection = detection;
+            this.publishedAt = publishedAt;
+        }
+    }
+
+    /**
+     * Abonné : file bornée + thread de livraison dédié
+     */
+    private static class Subscriber implements Runnable {
+        final String name;
+        final Consumer<ActivityDetection> listener;
+        final int capacity;
+        final OverflowPolicy policy;
+        final BlockingQueue<Envelope> queue;
+
+        private volatile boolean running = true;
+        private Thread worker;
+
+        // Détections en file ou en cours de livraison
+        final AtomicLong pending = new AtomicLong();
+
+        // Métriques
+        private final AtomicLong delivered = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong totalLagNanos = new AtomicLong();
+        private volatile long lastLagNanos;
+        private volatile long maxLagNanos;
+
+        Subscriber(String name, Consumer<ActivityDetection> listener, int capacity, OverflowPolicy policy) {
+            this.name = name;
+            this.listener = listener;
+            this.policy = policy;
+            this.capacity = policy == OverflowPolicy.CONFLATE ? 1 : Math.max(1, capacity);
+            this.queue = new ArrayBlockingQueue<>(this.capacity);
+        }
+
+        void start() {
+            worker = new Thread(this, "detection-bus-" + name);
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        void stop() {
+            running = false;
+            if (worker != null) {
+                worker.interrupt();
+            }
+        }
+
+        void offer(Envelope envelope) {
+            pending.incrementAndGet();
+            if (policy == OverflowPolicy.BLOCK) {
+                boolean queued = false;
+                try {
+                    queued = queue.offer(envelope, BLOCK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (!queued) {
+                    pending.decrementAndGet();
+                    dropped.incrementAndGet();
+                }
+                return;
+            }
+            if (policy == OverflowPolicy.DROP_NEWEST) {
+                if (!queue.offer(envelope)) {
+                    pending.decrementAndGet();
+                    dropped.incrementAndGet();
+                }
+                return;
+            }
+            // DROP_OLDEST / CONFLATE : faire de la place en retirant les plus anciens
+            while (!queue.offer(envelope)) {
+                if (queue.poll() != null) {
+                    pending.decrementAndGet();
+                    dropped.incrementAndGet();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                Envelope envelope;
+                try {
+                    envelope = queue.poll(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                if (envelope == null) {
+                    continue;
+                }
+
+                long lag = System.nanoTime() - envelope.publishedAt;
+                lastLagNanos = lag;
+                if (lag > maxLagNanos) {
+                    maxLagNanos = lag;
+                }
+                totalLagNanos.addAndGet(lag);
+
+                try {
+                    listener.accept(envelope.detection);
+                    delivered.incrementAndGet();
+                } catch (Throwable e) {
+                    // Une erreur (mémoire, pile) ne doit pas arrêter le thread : la file ne serait plus vidée
+                    failures.incrementAndGet();
+                    logger.error("Erreur lors de la notification de l'abonné {}: {}", name, e.toString());
+                } finally {
+                    pending.decrementAndGet();
+                }
+            }
+        }
+
+        Map<String, Object> getStats() {
+            Map<String, Object> stats = new HashMap<>();
+            long deliveredCount = delivered.get();
+            long received = deliveredCount + failures.get();
+            stats.put("name", name);
+            stats.put("policy", policy.name());
+            stats.put("capacity", capacity);
+            stats.put("queue_size", queue.size());
+            stats.put("delivered", deliveredCount);
+            stats.put("dropped", dropped.get());
+            stats.put("failures", failures.get());
+            stats.put("last_lag_ms", lastLagNanos / 1_000_000.0);
+            stats.put("max_lag_ms", maxLagNanos / 1_000_000.0);
+            stats.put("avg_lag_ms", received > 0 ? totalLagNanos.get() / 1_000_000.0 / received : 0.0);
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,1172 @@
+package com.angel.server.capture.service;
+
+import com.angel.server.capture.model.ActivityDetection;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+
+/**
+ * Stockage de l'historique en fichiers, un par jour et par format
+ * Un journal par jour en JSON Lines (une détection par ligne, ajout seul) :
+ * chaque sauvegarde n'ajoute que les nouvelles détections, quel que soit le volume du jour.
+ * Le format 'segment' (binaire colonnaire compressé, voir {@link HistorySegment}) réduit
+ * l'espace disque et ne décode que les colonnes demandées par les requêtes de période.
+ * Le format 'json' (tableau réécrit à chaque sauvegarde) reste lisible et configurable
+ *
+ * Des agrégats par activité (minute, heure, jour) sont tenus à jour à chaque détection et
+ * sauvegardés à côté de l'historique : les résumés de période ne relisent pas les détections
+ *
+ * Avec les formats 'jsonl' et 'segment', les jours clos sont compactés en tâche de fond
+ * (voir {@link HistoryCompactor}) : leurs fichiers (jsonl, segment, ou json d'un format antérieur)
+ * sont réécrits en un segment trié, dédoublonné et compressé par blocs d'une heure par défaut.
+ * Avec le format 'json', aucun jour n'est compacté
+ */
+public class FileHistoryStore implements HistoryStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileHistoryStore.class);
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    // Formats de fichiers d'historique
+    static final String FORMAT_JSON = "json";
+    static final String FORMAT_JSONL = "jsonl";
+    static final String FORMAT_SEGMENT = "segment";
+    private static final String FILE_PREFIX = "detections_";
+    private static final String ROLLUP_PREFIX = "rollups_";
+    private static final String COMPACTION_SUFFIX = ".compact";
+    private static final int COMPACTION_READ_LINES = 4096;
+
+    private final File directory;
+    private final String fileFormat;
+    private final int segmentBlockMinutes;
+    private final int compactionBlockMinutes;
+    private final int rollupMaxGapSeconds;
+    private final boolean sync;
+    private final ObjectMapper objectMapper;
+
+    // Agrégats par jour et dernière détection de chaque source (calcul du temps passé)
+    private final Map<String, ActivityRollup> rollups = new ConcurrentHashMap<>();
+    private final Map<String, ActivityDetection> lastDetectionBySource = new ConcurrentHashMap<>();
+
+    // Index temporels des segments, par date
+    private final Map<String, HistorySegment.TimeIndex> segmentIndexes = new ConcurrentHashMap<>();
+
+    // Journaux jsonl dont la fin a été vérifiée depuis l'ouverture
+    private final Set<String> checkedJsonlTails = ConcurrentHashMap.newKeySet();
+
+    // Dernière position lue dans le journal jsonl de chaque jour (lecture par curseur sans relire le début)
+    private final Map<String, JsonlPosition> jsonlPositions = new ConcurrentHashMap<>();
+
+    /**
+     * @param fileFormat jsonl, segment ou json
+     * @param compactionBlockMinutes durée des blocs des segments compactés
+     * @param sync force l'écriture sur disque des fichiers modifiés à chaque enregistrement
+     */
+    public FileHistoryStore(File directory, String fileFormat, int segmentBlockMinutes, int compactionBlockMinutes,
+                            int rollupMaxGapSeconds, boolean sync, ObjectMapper objectMapper) {
+        this.directory = directory;
+        this.fileFormat = fileFormat;
+        this.segmentBlockMinutes = segmentBlockMinutes;
+        this.compactionBlockMinutes = Math.max(1, compactionBlockMinutes);
+        this.rollupMaxGapSeconds = rollupMaxGapSeconds;
+        this.sync = sync;
+        this.objectMapper = objectMapper;
+    }
+
+    // ========== ENREGISTREMENT ==========
+
+    @Override
+    public boolean append(List<ActivityDetection> detections) {
+        if (FORMAT_JSONL.equalsIgnoreCase(fileFormat) || FORMAT_SEGMENT.equalsIgnoreCase(fileFormat)) {
+            return appendDetections(detections);
+        }
+
+        try {
+            // Grouper les détections par date
+            Map<String, List<ActivityDetection>> detectionsByDate = detections.stream()
+                .collect(Collectors.groupingBy(FileHistoryStore::dateOf));
+
+            for (Map.Entry<String, List<ActivityDetection>> entry : detectionsByDate.entrySet()) {
+                String date = entry.getKey();
+
+                // Charger les détections existantes dans l'ordre d'enregistrement et ajouter les nouvelles
+                // à la fin (la lecture trie ; l'ordre du fichier sert aux curseurs)
+                List<ActivityDetection> existingDetections = new ArrayList<>();
+                forEachDetection(date, HistorySegment.ALL_COLUMNS, existingDetections::add);
+                existingDetections.addAll(entry.getValue());
+
+                // Sauvegarder
+                saveDetectionsForDate(date, existingDetections);
+
+                // Le tableau contient maintenant tout le jour (segment compacté compris)
+                for (String format : new String[] {FORMAT_JSONL, HistorySegment.EXTENSION}) {
+                    File file = getFileForDate(date, format);
+                    if (file.exists() && !file.delete()) {
+                        logger.warn("Impossible de supprimer le fichier: {}", file.getName());
+                    }
+                }
+                segmentIndexes.remove(date);
+                jsonlPositions.remove(date);
+            }
+            return true;
+
+        } catch (Exception e) {
+            logger.error("Erreur lors de la sauvegarde des détections: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Ajoute les détections au fichier de leur jour (ligne JSON par détection, ou un bloc
+     * de segment trié) : une seule écriture par jour et par sauvegarde, sans relire ni réécrire le fichier
+     */
+    private boolean appendDetections(List<ActivityDetection> detections) {
+        try {
+            Map<String, List<ActivityDetection>> detectionsByDate = detections.stream()
+                .collect(Collectors.groupingBy(FileHistoryStore::dateOf));
+
+            for (Map.Entry<String, List<ActivityDetection>> entry : detectionsByDate.entrySet()) {
+                String date = entry.getKey();
+                List<ActivityDetection> dailyDetections = entry.getValue();
+
+                File file;
+                if (FORMAT_SEGMENT.equalsIgnoreCase(fileFormat)) {
+                    List<ActivityDetection> sorted = new ArrayList<>(dailyDetections);
+                    sorted.sort(Comparator.comparing(ActivityDetection::getTimestamp));
+                    file = appendSegmentBlocks(date, sorted);
+                } else {
+                    StringBuilder lines = new StringBuilder(dailyDetections.size() * 512);
+                    for (ActivityDetection detection : dailyDetections) {
+                        lines.append(objectMapper.writeValueAsString(detection)).append('\n');
+                    }
+
+                    file = getFileForDate(date, FORMAT_JSONL);
+                    if (checkedJsonlTails.add(date)) {
+                        repairJsonlTail(file);
+                    }
+                    try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8,
+                                                                 StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                        writer.write(lines.toString());
+                    }
+                }
+                if (sync) {
+                    HistoryJournal.sync(file);
+                }
+                logger.debug("Détections ajoutées pour {}: {} éléments", date, dailyDetections.size());
+            }
+            return true;
+
+        } catch (Exception e) {
+            logger.error("Erreur lors de la sauvegarde des détections: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Avant le premier ajout à un journal jsonl : une dernière ligne sans fin de ligne (écriture
+     * interrompue) collerait l'enregistrement suivant au fragment et le rendrait illisible.
+     * Une ligne complète reçoit sa fin de ligne, un fragment illisible est tronqué
+     */
+    private void repairJsonlTail(File file) throws IOException {
+        long length = file.length();
+        if (length == 0) {
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Rechercher la dernière fin de ligne en remontant depuis la fin du fichier
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            long lineStart = 0;
+            long position = length;
+            boolean lastByte = true;
+            search:
+            while (position > 0) {
+                int size = (int) Math.min(buffer.capacity(), position);
+                position -= size;
+                buffer.clear().limit(size);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) {
+                        break;
+                    }
+                }
+                for (int i = size - 1; i >= 0; i--) {
+                    if (buffer.get(i) == '\n') {
+                        if (lastByte) {
+                            return;
+                        }
+                        lineStart = position + i + 1;
+                        break search;
+                    }
+                    lastByte = false;
+                }
+            }
+
+            ByteBuffer tail = ByteBuffer.allocate((int) (length - lineStart));
+            while (tail.hasRemaining()) {
+                if (channel.read(tail, lineStart + tail.position()) < 0) {
+                    break;
+                }
+            }
+            String line = new String(tail.array(), 0, tail.position(), StandardCharsets.UTF_8).trim();
+            if (isDetectionLine(line)) {
+                channel.write(ByteBuffer.wrap(new byte[] {'\n'}), length);
+                logger.warn("Fin de ligne ajoutée en fin de {}", file.getName());
+            } else {
+                channel.truncate(lineStart);
+                logger.warn("Écriture interrompue tronquée en fin de {} ({} octets)", file.getName(), length - lineStart);
+            }
+        }
+    }
+
+    private boolean isDetectionLine(String line) {
+        if (line.isEmpty()) {
+            return false;
+        }
+        try {
+            objectMapper.readValue(line, ActivityDetection.class);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Ajoute des blocs au segment d'un jour et à son index ; une écriture interrompue
+     * en fin de fichier est d'abord tronquée pour que les nouveaux blocs restent lisibles
+     */
+    private File appendSegmentBlocks(String date, List<ActivityDetection> sorted) throws IOException {
+        File file = getFileForDate(date, HistorySegment.EXTENSION);
+        HistorySegment.TimeIndex index = segmentIndex(date);
+        if (index != null && file.length() > index.getReadableLength()) {
+            logger.warn("Écriture interrompue tronquée en fin de {} ({} octets)",
+                       file.getName(), file.length() - index.getReadableLength());
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(index.getReadableLength());
+            }
+        }
+
+        List<HistorySegment.BlockInfo> written =
+                HistorySegment.appendBlocks(file, sorted, segmentBlockMinutes * 60_000L);
+        if (index != null) {
+            index.add(written);
+        } else {
+            segmentIndexes.remove(date);
+        }
+        return file;
+    }
+
+    /**
+     * Sauvegarde les détections pour une date donnée (format tableau JSON)
+     */
+    private void saveDetectionsForDate(String date, List<ActivityDetection> detections) throws IOException {
+        File file = getFileForDate(date, FORMAT_JSON);
+
+        try {
+            objectMapper.writerWithDefaultPrettyPrinter().writeValue(file, detections);
+            if (sync) {
+                HistoryJournal.sync(file);
+            }
+            logger.debug("Détections sauvegardées pour {}: {} éléments", date, detections.size());
+
+        } catch (IOException e) {
+            logger.error("Erreur lors de la sauvegarde des détections pour {}: {}", date, e.getMessage());
+            throw e;
+        }
+    }
+
+    // ========== LECTURE ==========
+
+    @Override
+    public List<ActivityDetection> readDay(String date) {
+        List<ActivityDetection> detectionList = new ArrayList<>();
+        if (isSegmentOnly(date)) {
+            // Blocs fusionnés dans l'ordre chronologique : pas de tri
+            forEachSegmentDetection(date, HistorySegment.ALL_COLUMNS, Long.MIN_VALUE, Long.MAX_VALUE,
+                                    detectionList::add);
+        } else {
+            forEachDetection(date, HistorySegment.ALL_COLUMNS, detectionList::add);
+
+            // Les journaux sont presque triés : le tri est linéaire dans ce cas
+            detectionList.sort(Comparator.comparing(ActivityDetection::getTimestamp));
+        }
+        return detectionList;
+    }
+
+    /**
+     * Un segment n'est lu que sur les blocs couverts par la plage (index temporel) ;
+     * les autres formats lisent le jour entier puis le trient
+     */
+    @Override
+    public void forEachInRange(LocalDateTime from, LocalDateTime to, Set<HistorySegment.Column> columns,
+                               Consumer<ActivityDetection> consumer) {
+        boolean allColumns = columns.containsAll(HistorySegment.ALL_COLUMNS);
+        long fromMillis = HistorySegment.toMillis(from);
+        long toMillis = HistorySegment.toMillis(to);
+
+        LocalDate currentDate = from.toLocalDate();
+        LocalDate endDate = to.toLocalDate();
+        while (!currentDate.isAfter(endDate)) {
+            String date = currentDate.format(DATE_FORMATTER);
+            currentDate = currentDate.plusDays(1);
+
+            if (isSegmentOnly(date)) {
+                forEachSegmentDetection(date, columns, fromMillis, toMillis, consumer);
+                continue;
+            }
+            for (ActivityDetection detection : readDay(date)) {
+                if (!detection.getTimestamp().isBefore(from) && !detection.getTimestamp().isAfter(to)) {
+                    consumer.accept(allColumns ? detection : HistorySegment.project(detection, columns));
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean isIndexed(String date) {
+        return isSegmentOnly(date);
+    }
+
+    /**
+     * Taille et date de modification des fichiers du jour
+     */
+    @Override
+    public String getDayVersion(String date) {
+        long length = 0;
+        long modified = 0;
+        for (String format : new String[] {FORMAT_JSON, FORMAT_JSONL, HistorySegment.EXTENSION}) {
+            File file = getFileForDate(date, format);
+            if (file.exists()) {
+                length += file.length();
+                modified = Math.max(modified, file.lastModified());
+            }
+        }
+        return String.format("%x-%x", length, modified);
+    }
+
+    /**
+     * Identité des fichiers du jour : un fichier remplacé (compaction) ou un format ajouté
+     * ou supprimé change la génération, un ajout en fin de fichier ne la change pas
+     */
+    @Override
+    public String getDayGeneration(String date) {
+        StringBuilder identity = new StringBuilder();
+        for (String format : new String[] {FORMAT_JSON, FORMAT_JSONL, HistorySegment.EXTENSION}) {
+            File file = getFileForDate(date, format);
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                Object key = attributes.fileKey();
+                identity.append(format).append('=')
+                        .append(key != null ? key : attributes.creationTime().toMillis()).append(';');
+            } catch (IOException e) {
+                // fichier absent
+            }
+        }
+        return Integer.toHexString(identity.toString().hashCode());
+    }
+
+    /**
+     * Ordre d'enregistrement : tableau JSON, journal jsonl (ligne par ligne), puis blocs du segment
+     * dans l'ordre du fichier. Les détections déjà lues d'un journal sont sautées à partir de la
+     * dernière position connue ; les blocs de segment sautés ne sont pas décompressés
+     */
+    @Override
+    public List<ActivityDetection> readAppended(String date, long position, int limit) {
+        AppendedReader reader = new AppendedReader(position, limit);
+        String generation = getDayGeneration(date);
+
+        File logFile = getFileForDate(date, FORMAT_JSONL);
+        JsonlPosition known = jsonlPositions.get(date);
+        boolean resume = known != null && known.generation.equals(generation)
+                && known.records <= position && known.offset <= logFile.length();
+
+        try {
+            long logOffset = 0;
+            if (resume) {
+                reader.seen = known.records;
+                logOffset = known.offset;
+            } else {
+                File arrayFile = getFileForDate(date, FORMAT_JSON);
+                if (arrayFile.exists()) {
+                    for (ActivityDetection detection : objectMapper.readValue(arrayFile, ActivityDetection[].class)) {
+                        reader.accept(detection);
+                    }
+                }
+            }
+
+            if (logFile.exists() && !reader.isFull()) {
+                readJsonlAppended(date, generation, logFile, logOffset, reader);
+            }
+
+            HistorySegment.TimeIndex index = reader.isFull() ? null : segmentIndex(date);
+            if (index != null) {
+                File segmentFile = getFileForDate(date, HistorySegment.EXTENSION);
+                for (HistorySegment.BlockInfo block : index.blocksInFileOrder()) {
+                    if (reader.isFull()) {
+                        break;
+                    }
+                    if (!reader.skip(block.getRecordCount())) {
+                        HistorySegment.readBlocks(segmentFile, Collections.singletonList(block),
+                                                  HistorySegment.ALL_COLUMNS, reader);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Erreur lors de la lecture de l'historique du {}: {}", date, e.getMessage());
+        }
+        return reader.detections;
+    }
+
+    /**
+     * Lit le journal jsonl à partir d'une fin de ligne connue et mémorise la dernière fin de ligne lue
+     * Seules les lignes lisibles comptent dans la position (comme à la lecture du jour)
+     */
+    private void readJsonlAppended(String date, String generation, File logFile, long offset,
+                                   AppendedReader reader) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(logFile.toPath()), 65536)) {
+            long toSkip = offset;
+            while (toSkip > 0) {
+                long skipped = in.skip(toSkip);
+                if (skipped <= 0) {
+                    return;
+                }
+                toSkip -= skipped;
+            }
+
+            ByteArrayOutputStream line = new ByteArrayOutputStream(512);
+            long lineEnd = offset;
+            long position = offset;
+            int value;
+            while (!reader.isFull() && (value = in.read()) >= 0) {
+                position++;
+                if (value != '\n') {
+                    line.write(value);
+                    continue;
+                }
+                acceptJsonlLine(line, reader);
+                line.reset();
+                lineEnd = position;
+            }
+            jsonlPositions.put(date, new JsonlPosition(generation, reader.seen, lineEnd));
+
+            // Dernière ligne sans fin de ligne : lue mais pas mémorisée (complétée ou tronquée au prochain ajout)
+            if (!reader.isFull() && line.size() > 0) {
+                acceptJsonlLine(line, reader);
+            }
+        }
+    }
+
+    private void acceptJsonlLine(ByteArrayOutputStream line, AppendedReader reader) {
+        if (line.size() == 0) {
+            return;
+        }
+        try {
+            reader.accept(objectMapper.readValue(line.toByteArray(), ActivityDetection.class));
+        } catch (IOException e) {
+            // ligne illisible, ignorée comme à la lecture du jour
+        }
+    }
+
+    /**
+     * Saute les détections antérieures à une position puis collecte jusqu'à la limite
+     */
+    private static final class AppendedReader implements Consumer<ActivityDetection> {
+        final long position;
+        final int limit;
+        final List<ActivityDetection> detections = new ArrayList<>();
+        long seen;
+
+        AppendedReader(long position, int limit) {
+            this.position = position;
+            this.limit = limit;
+        }
+
+        @Override
+        public void accept(ActivityDetection detection) {
+            if (seen++ >= position && !isFull()) {
+                detections.add(detection);
+            }
+        }
+
+        /**
+         * Saute un groupe de détections s'il précède entièrement la position
+         */
+        boolean skip(int count) {
+            if (seen + count > position) {
+                return false;
+            }
+            seen += count;
+            return true;
+        }
+
+        boolean isFull() {
+            return limit > 0 && detections.size() >= limit;
+        }
+    }
+
+    /**
+     * Fin de ligne d'un journal jsonl et nombre de détections du jour qui la précèdent
+     */
+    private static final class JsonlPosition {
+        final String generation;
+        final long records;
+        final long offset;
+
+        JsonlPosition(String generation, long records, long offset) {
+            this.generation = generation;
+            this.records = records;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Retourne l'index temporel du segment d'un jour, construit à la première utilisation
+     * à partir des en-têtes de blocs (null si le jour n'a pas de segment)
+     */
+    private HistorySegment.TimeIndex segmentIndex(String date) {
+        File file = getFileForDate(date, HistorySegment.EXTENSION);
+        if (!file.exists()) {
+            segmentIndexes.remove(date);
+            return null;
+        }
+        return segmentIndexes.computeIfAbsent(date, key -> {
+            try {
+                return HistorySegment.buildIndex(file);
+            } catch (IOException e) {
+                logger.error("Erreur lors de l'indexation du segment {}: {}", file.getName(), e.getMessage());
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Indique si un jour n'est stocké que sous forme de segment (lecture indexée possible)
+     */
+    private boolean isSegmentOnly(String date) {
+        return getFileForDate(date, HistorySegment.EXTENSION).exists()
+                && !getFileForDate(date, FORMAT_JSON).exists()
+                && !getFileForDate(date, FORMAT_JSONL).exists();
+    }
+
+    /**
+     * Parcourt les détections indexées d'un segment comprises dans [fromMillis, toMillis],
+     * dans l'ordre chronologique (seuls les blocs couverts par la plage sont lus)
+     */
+    private void forEachSegmentDetection(String date, Set<HistorySegment.Column> columns, long fromMillis,
+                                         long toMillis, Consumer<ActivityDetection> consumer) {
+        HistorySegment.TimeIndex index = segmentIndex(date);
+        if (index == null) {
+            return;
+        }
+        File file = getFileForDate(date, HistorySegment.EXTENSION);
+        try {
+            HistorySegment.readRange(file, index.blocksFor(fromMillis, toMillis), columns,
+                                     fromMillis, toMillis, consumer);
+        } catch (IOException e) {
+            logger.error("Erreur lors de la lecture du segment {}: {}", file.getName(), e.getMessage());
+        }
+    }
+
+    /**
+     * Parcourt en flux les détections d'un jour (tableau JSON, journal JSON Lines puis segment)
+     * Une ligne illisible ou un bloc tronqué (écriture interrompue) est ignoré sans invalider le reste du jour
+     * Seules les colonnes demandées sont renseignées ; le segment ne décompresse que celles-ci
+     */
+    private void forEachDetection(String date, Set<HistorySegment.Column> columns,
+                                  Consumer<ActivityDetection> consumer) {
+        boolean allColumns = columns.containsAll(HistorySegment.ALL_COLUMNS);
+        Consumer<ActivityDetection> target = allColumns
+                ? consumer
+                : detection -> consumer.accept(HistorySegment.project(detection, columns));
+
+        File arrayFile = getFileForDate(date, FORMAT_JSON);
+        if (arrayFile.exists()) {
+            try {
+                for (ActivityDetection detection : objectMapper.readValue(arrayFile, ActivityDetection[].class)) {
+                    target.accept(detection);
+                }
+            } catch (IOException e) {
+                logger.error("Erreur lors du chargement des détections pour {}: {}", date, e.getMessage());
+            }
+        }
+
+        File logFile = getFileForDate(date, FORMAT_JSONL);
+        if (logFile.exists()) {
+            int skipped = 0;
+            try (BufferedReader reader = Files.newBufferedReader(logFile.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    try {
+                        target.accept(objectMapper.readValue(line, ActivityDetection.class));
+                    } catch (IOException e) {
+                        skipped++;
+                    }
+                }
+            } catch (IOException e) {
+                logger.error("Erreur lors de la lecture du journal {}: {}", logFile.getName(), e.getMessage());
+            }
+            if (skipped > 0) {
+                logger.warn("{} ligne(s) illisible(s) ignorée(s) dans {}", skipped, logFile.getName());
+            }
+        }
+
+        File segmentFile = getFileForDate(date, HistorySegment.EXTENSION);
+        if (segmentFile.exists()) {
+            try {
+                long readable = HistorySegment.read(segmentFile, columns, consumer);
+                if (readable < segmentFile.length()) {
+                    logger.warn("{} octet(s) illisible(s) ignoré(s) en fin de {}",
+                               segmentFile.length() - readable, segmentFile.getName());
+                }
+            } catch (IOException e) {
+                logger.error("Erreur lors de la lecture du segment {}: {}", segmentFile.getName(), e.getMessage());
+            }
+        }
+    }
+
+    // ========== SUPPRESSION ==========
+
+    @Override
+    public SortedSet<String> listDays() {
+        SortedSet<String> days = new TreeSet<>();
+        File[] files = listHistoryFiles();
+        if (files != null) {
+            for (File file : files) {
+                days.add(dateOfFile(file));
+            }
+        }
+        return days;
+    }
+
+    @Override
+    public boolean deleteDay(String date) {
+        boolean success = true;
+        for (String format : new String[] {FORMAT_JSON, FORMAT_JSONL, HistorySegment.EXTENSION}) {
+            File file = getFileForDate(date, format);
+            if (file.exists()) {
+                if (file.delete()) {
+                    logger.debug("Fichier d'historique supprimé: {}", file.getName());
+                } else {
+                    success = false;
+                    logger.warn("Impossible de supprimer le fichier: {}", file.getName());
+                }
+            }
+        }
+        segmentIndexes.remove(date);
+        jsonlPositions.remove(date);
+        invalidateSummary(date);
+        return success;
+    }
+
+    // ========== COMPACTION ==========
+
+    /**
+     * Jours stockés en JSON ou dont le segment n'est pas encore compact (blocs ajoutés à
+     * chaque sauvegarde, fin tronquée) ; les formes préparées abandonnées sont supprimées.
+     * Aucun jour en format json : l'historique reste dans le format configuré
+     */
+    @Override
+    public List<String> listCompactableDays(String before) {
+        File[] leftovers = directory.listFiles((dir, name) -> name.endsWith(COMPACTION_SUFFIX));
+        if (leftovers != null) {
+            for (File leftover : leftovers) {
+                if (!leftover.delete()) {
+                    logger.warn("Impossible de supprimer le fichier: {}", leftover.getName());
+                }
+            }
+        }
+
+        List<String> days = new ArrayList<>();
+        if (!FORMAT_JSONL.equalsIgnoreCase(fileFormat) && !FORMAT_SEGMENT.equalsIgnoreCase(fileFormat)) {
+            return days;
+        }
+        for (String date : listDays()) {
+            if (date.compareTo(before) < 0 && !isCompactSegment(date)) {
+                days.add(date);
+            }
+        }
+        return days;
+    }
+
+    /**
+     * Un segment est compact s'il est seul pour son jour, lisible jusqu'au bout, et si ses blocs
+     * se suivent sans chevauchement, un par tranche de compaction
+     */
+    private boolean isCompactSegment(String date) {
+        if (!isSegmentOnly(date)) {
+            return false;
+        }
+        File file = getFileForDate(date, HistorySegment.EXTENSION);
+        long span = compactionBlockMinutes * 60_000L;
+        try {
+            long readable = 0;
+            long previousSlot = Long.MIN_VALUE;
+            for (HistorySegment.BlockInfo block : HistorySegment.readBlockIndex(file)) {
+                long slot = Math.floorDiv(block.getMinTimestamp(), span);
+                if (slot <= previousSlot || Math.floorDiv(block.getMaxTimestamp(), span) != slot) {
+                    return false;
+                }
+                previousSlot = slot;
+                readable = block.getOffset() + block.getLength();
+            }
+            return readable == file.length();
+        } catch (IOException e) {
+            logger.error("Erreur lors de la lecture du segment {}: {}", file.getName(), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Relit tous les fichiers du jour, fusionne et trie leurs détections sans les doublons d'un
+     * fichier à l'autre (laissés par un arrêt pendant une compaction ou une reprise), puis écrit
+     * le segment compact dans un fichier à part, bloc par bloc et au niveau de compression maximal
+     */
+    @Override
+    public Compaction prepareCompaction(String date, IoThrottle throttle) {
+        File target = getFileForDate(date, HistorySegment.EXTENSION);
+        File temp = new File(directory, target.getName() + COMPACTION_SUFFIX);
+        try {
+            List<List<ActivityDetection>> files = readDayStrict(date, throttle);
+            throttle.start();
+            List<ActivityDetection> unique = mergeWithoutDuplicates(files);
+            unique.sort(Comparator.comparing(ActivityDetection::getTimestamp));
+            if (unique.isEmpty()) {
+                return null;
+            }
+            throttle.pace(0);
+            int removedDuplicates = files.stream().mapToInt(List::size).sum() - unique.size();
+
+            long written = 0;
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), 65536)) {
+                for (List<ActivityDetection> slice
+                        : HistorySegment.splitBySpan(unique, compactionBlockMinutes * 60_000L)) {
+                    throttle.start();
+                    byte[] block = HistorySegment.encodeBlock(slice, Deflater.BEST_COMPRESSION);
+                    out.write(block);
+                    written += block.length;
+                    throttle.pace(block.length);
+                }
+            }
+            HistoryJournal.sync(temp);
+
+            return new SegmentCompaction(date, temp, target, removedDuplicates, written);
+
+        } catch (IOException e) {
+            logger.error("Erreur lors de la compaction de l'historique du {}: {}", date, e.getMessage());
+            if (temp.exists() && !temp.delete()) {
+                logger.warn("Impossible de supprimer le fichier: {}", temp.getName());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Lit les détections de chaque fichier d'un jour ; contrairement à la lecture courante, un fichier
+     * ou un bloc illisible au milieu du jour fait échouer la lecture (la compaction ne doit rien perdre).
+     * Seules une ligne JSON illisible et une fin de segment tronquée, déjà ignorées à la lecture, sont écartées
+     */
+    private List<List<ActivityDetection>> readDayStrict(String date, IoThrottle throttle) throws IOException {
+        List<List<ActivityDetection>> files = new ArrayList<>();
+
+        File arrayFile = getFileForDate(date, FORMAT_JSON);
+        if (arrayFile.exists()) {
+            throttle.start();
+            files.add(Arrays.asList(objectMapper.readValue(arrayFile, ActivityDetection[].class)));
+            throttle.pace(arrayFile.length());
+        }
+
+        File logFile = getFileForDate(date, FORMAT_JSONL);
+        if (logFile.exists()) {
+            List<ActivityDetection> detections = new ArrayList<>();
+            files.add(detections);
+            int skipped = 0;
+            try (BufferedReader reader = Files.newBufferedReader(logFile.toPath(), StandardCharsets.UTF_8)) {
+                throttle.start();
+                long bytes = 0;
+                int lines = 0;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    bytes += line.length() + 1;
+                    if (++lines % COMPACTION_READ_LINES == 0) {
+                        throttle.pace(bytes);
+                        bytes = 0;
+                    }
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    try {
+                        detections.add(objectMapper.readValue(line, ActivityDetection.class));
+                    } catch (IOException e) {
+                        skipped++;
+                    }
+                }
+                throttle.pace(bytes);
+            }
+            if (skipped > 0) {
+                logger.warn("{} ligne(s) illisible(s) écartée(s) de {}", skipped, logFile.getName());
+            }
+        }
+
+        File segmentFile = getFileForDate(date, HistorySegment.EXTENSION);
+        if (segmentFile.exists()) {
+            List<ActivityDetection> detections = new ArrayList<>();
+            files.add(detections);
+            throttle.start();
+            List<HistorySegment.BlockInfo> blocks = HistorySegment.readBlockIndex(segmentFile);
+            long indexed = blocks.isEmpty() ? 0 : blocks.get(blocks.size() - 1).getOffset()
+                    + blocks.get(blocks.size() - 1).getLength();
+            long readable = HistorySegment.read(segmentFile, HistorySegment.ALL_COLUMNS, detections::add);
+            if (readable < indexed) {
+                throw new IOException("bloc illisible à l'octet " + readable + " de " + segmentFile.getName());
+            }
+            throttle.pace(segmentFile.length());
+        }
+        return files;
+    }
+
+    /**
+     * Fusionne les détections des fichiers d'un jour ; une détection déjà présente dans un fichier
+     * précédent est retirée (une seule fois par occurrence). Les détections d'un même fichier ne sont
+     * jamais fusionnées entre elles : deux détections identiques à la seconde près peuvent être réelles
+     */
+    private static List<ActivityDetection> mergeWithoutDuplicates(List<List<ActivityDetection>> files) {
+        List<ActivityDetection> merged = new ArrayList<>();
+        Map<String, Integer> previousFiles = new HashMap<>();
+        for (List<ActivityDetection> file : files) {
+            Map<String, Integer> kept = new HashMap<>();
+            for (ActivityDetection detection : file) {
+                String key = duplicateKey(detection);
+                Integer count = previousFiles.get(key);
+                if (count != null && count > 0) {
+                    previousFiles.put(key, count - 1);
+                } else {
+                    merged.add(detection);
+                    kept.merge(key, 1, Integer::sum);
+                }
+            }
+            kept.forEach((key, count) -> previousFiles.merge(key, count, Integer::sum));
+        }
+        return merged;
+    }
+
+    /**
+     * Contenu d'une détection aux précisions communes des formats (horodatage à la seconde,
+     * confiances et scores sur 16 bits)
+     */
+    private static String duplicateKey(ActivityDetection detection) {
+        StringBuilder key = new StringBuilder(96)
+                .append(detection.getTimestamp().withNano(0)).append('|')
+                .append(detection.getSource()).append('|').append(detection.getSourceId()).append('|')
+                .append(detection.getPredictedActivity()).append('|')
+                .append(HistorySegment.quantize(detection.getConfidence())).append('|')
+                .append(detection.isPersonDetected()).append(HistorySegment.quantize(detection.getPersonConfidence()));
+        float[] scores = detection.getScores();
+        if (scores != null) {
+            for (float score : scores) {
+                key.append(',').append(HistorySegment.quantize(score));
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Segment compact préparé pour un jour
+     */
+    private final class SegmentCompaction implements Compaction {
+        private final String date;
+        private final File temp;
+        private final File target;
+        private final int removedDuplicates;
+        private final long compactedBytes;
+
+        SegmentCompaction(String date, File temp, File target, int removedDuplicates, long compactedBytes) {
+            this.date = date;
+            this.temp = temp;
+            this.target = target;
+            this.removedDuplicates = removedDuplicates;
+            this.compactedBytes = compactedBytes;
+        }
+
+        /**
+         * Le segment compact remplace celui du jour avant la suppression des fichiers JSON :
+         * un arrêt entre les deux laisse des doublons, retirés à la compaction suivante, jamais de perte
+         */
+        @Override
+        public boolean install() {
+            long previousBytes = 0;
+            for (String format : new String[] {FORMAT_JSON, FORMAT_JSONL, HistorySegment.EXTENSION}) {
+                previousBytes += getFileForDate(date, format).length();
+            }
+
+            try {
+                Files.move(temp.toPath(), target.toPath(),
+                           StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                logger.error("Erreur lors de l'installation du segment compact du {}: {}", date, e.getMessage());
+                discard();
+                return false;
+            }
+            segmentIndexes.remove(date);
+            jsonlPositions.remove(date);
+
+            for (String format : new String[] {FORMAT_JSON, FORMAT_JSONL}) {
+                File file = getFileForDate(date, format);
+                if (file.exists() && !file.delete()) {
+                    logger.warn("Impossible de supprimer le fichier: {}", file.getName());
+                }
+            }
+
+            // Les agrégats comptaient les doublons retirés
+            if (removedDuplicates > 0) {
+                invalidateSummary(date);
+            }
+
+            logger.info("Historique du {} compacté: {} -> {} octets, {} doublon(s) retiré(s)",
+                       date, previousBytes, compactedBytes, removedDuplicates);
+            return true;
+        }
+
+        @Override
+        public void discard() {
+            if (temp.exists() && !temp.delete()) {
+                logger.warn("Impossible de supprimer le fichier: {}", temp.getName());
+            }
+        }
+    }
+
+    // ========== AGRÉGATS ==========
+
+    /**
+     * Compte une détection dans les agrégats de son jour et attribue à l'activité précédente
+     * de la même source le temps écoulé depuis celle-ci
+     */
+    @Override
+    public void track(ActivityDetection detection) {
+        if (detection.getTimestamp() == null) {
+            return;
+        }
+        String sourceKey = rollupSourceKey(detection);
+        ActivityDetection previous = lastDetectionBySource.get(sourceKey);
+        if (previous == null || !detection.getTimestamp().isBefore(previous.getTimestamp())) {
+            lastDetectionBySource.put(sourceKey, detection);
+        }
+        accumulate(rollupFor(dateOf(detection)), detection,
+                   previous, previous != null ? rollupFor(dateOf(previous)) : null);
+    }
+
+    /**
+     * Ajoute une détection à un agrégat ; l'écart avec la détection précédente de la source
+     * (plafonné) est compté comme temps passé sur l'activité précédente
+     */
+    private void accumulate(ActivityRollup rollup, ActivityDetection detection,
+                            ActivityDetection previous, ActivityRollup previousRollup) {
+        rollup.addDetection(detection.getTimestamp(), detection.getPredictedActivity(), detection.getConfidence());
+
+        if (previous != null && previousRollup != null) {
+            long gap = Duration.between(previous.getTimestamp(), detection.getTimestamp()).toMillis();
+            if (gap > 0 && gap <= rollupMaxGapSeconds * 1000L) {
+                previousRollup.addDuration(previous.getTimestamp(), previous.getPredictedActivity(), gap);
+            }
+        }
+    }
+
+    private static String rollupSourceKey(ActivityDetection detection) {
+        return detection.getSourceId() != null ? detection.getSourceId() : String.valueOf(detection.getSource());
+    }
+
+    /**
+     * Retourne les agrégats d'un jour : chargés depuis leur fichier, sinon recalculés
+     * une fois à partir des détections enregistrées
+     */
+    private ActivityRollup rollupFor(String date) {
+        return rollups.computeIfAbsent(date, this::loadRollup);
+    }
+
+    private ActivityRollup loadRollup(String date) {
+        File file = getRollupFile(date);
+        if (file.exists()) {
+            try {
+                return objectMapper.readValue(file, ActivityRollup.class);
+            } catch (IOException e) {
+                logger.warn("Agrégats illisibles pour {}, recalcul: {}", date, e.getMessage());
+            }
+        }
+        if (!hasHistoryFile(date)) {
+            return new ActivityRollup(date);
+        }
+        return rebuildRollup(date);
+    }
+
+    /**
+     * Recalcule les agrégats d'un jour à partir de ses détections (colonnes de résumé seulement)
+     */
+    private ActivityRollup rebuildRollup(String date) {
+        ActivityRollup rollup = new ActivityRollup(date);
+        Map<String, ActivityDetection> last = new HashMap<>();
+        LocalDate day = LocalDate.parse(date, DATE_FORMATTER);
+
+        forEachInRange(day.atStartOfDay(), day.atTime(LocalTime.MAX), HistorySegment.SUMMARY_COLUMNS,
+            detection -> {
+                ActivityDetection previous = last.put(rollupSourceKey(detection), detection);
+                accumulate(rollup, detection, previous, rollup);
+            });
+        logger.info("Agrégats recalculés pour {}", date);
+        return rollup;
+    }
+
+    /**
+     * Sauvegarde les agrégats modifiés (écriture dans un fichier temporaire puis remplacement)
+     */
+    @Override
+    public void flush() {
+        for (ActivityRollup rollup : rollups.values()) {
+            if (!rollup.isDirty()) {
+                continue;
+            }
+            File file = getRollupFile(rollup.getDate());
+            File temp = new File(file.getPath() + ".tmp");
+            try {
+                synchronized (rollup) {
+                    objectMapper.writeValue(temp, rollup);
+                    rollup.markClean();
+                }
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                logger.error("Erreur lors de la sauvegarde des agrégats pour {}: {}", rollup.getDate(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Oublie les agrégats d'un jour (recalculés à la prochaine utilisation)
+     */
+    @Override
+    public void invalidateSummary(String date) {
+        rollups.remove(date);
+        File file = getRollupFile(date);
+        if (file.exists() && !file.delete()) {
+            logger.warn("Impossible de supprimer le fichier: {}", file.getName());
+        }
+    }
+
+    /**
+     * Résumé calculé à partir des agrégats, sans relire les détections
+     */
+    @Override
+    public Map<String, Object> getActivitySummary(LocalDate startDate, LocalDate endDate, String granularity) {
+        Map<String, ActivityRollup.Aggregate> totals = new TreeMap<>();
+        Map<LocalDateTime, Map<String, ActivityRollup.Aggregate>> buckets = new TreeMap<>();
+
+        LocalDate currentDate = startDate;
+        while (!currentDate.isAfter(endDate)) {
+            ActivityRollup rollup = rollupFor(currentDate.format(DATE_FORMATTER));
+            currentDate = currentDate.plusDays(1);
+
+            rollup.mergeDayInto(totals);
+            buckets.putAll(rollup.buckets(granularity));
+        }
+        return ActivityRollup.toSummary(granularity, totals, buckets);
+    }
+
+    private File getRollupFile(String date) {
+        return new File(directory, ROLLUP_PREFIX + date + "." + FORMAT_JSON);
+    }
+
+    // ========== FICHIERS ==========
+
+    @Override
+    public void clearCache() {
+        segmentIndexes.clear();
+        jsonlPositions.clear();
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+
+        // Compter les fichiers d'historique
+        File[] files = listHistoryFiles();
+        stats.put("history_files_count", files != null ? files.length : 0);
+        stats.put("history_file_format", fileFormat);
+        stats.put("indexed_segments", segmentIndexes.size());
+        stats.put("rollup_days", rollups.size());
+        stats.put("segment_block_minutes", segmentBlockMinutes);
+
+        // Taille totale des fichiers
+        long totalSize = 0;
+        if (files != null) {
+            for (File file : files) {
+                totalSize += file.length();
+            }
+        }
+        stats.put("total_size_bytes", totalSize);
+        stats.put("total_size_mb", totalSize / (1024.0 * 1024.0));
+        return stats;
+    }
+
+    /**
+     * Retourne le fichier d'un format pour une date donnée
+     */
+    private File getFileForDate(String date, String format) {
+        String filename = String.format("%s%s.%s", FILE_PREFIX, date, format);
+        return new File(directory, filename);
+    }
+
+    /**
+     * Vérifie si un fichier d'historique existe pour une date, quel que soit son format
+     */
+    private boolean hasHistoryFile(String date) {
+        return getFileForDate(date, FORMAT_JSON).exists() || getFileForDate(date, FORMAT_JSONL).exists()
+                || getFileForDate(date, HistorySegment.EXTENSION).exists();
+    }
+
+    /**
+     * Liste les fichiers d'historique de tous les formats
+     */
+    private File[] listHistoryFiles() {
+        return directory.listFiles((dir, name) -> name.startsWith(FILE_PREFIX)
+                && (name.endsWith("." + FORMAT_JSON) || name.endsWith("." + FORMAT_JSONL)
+                    || name.endsWith("." + HistorySegment.EXTENSION)));
+    }
+
+    /**
+     * Extrait la date d'un nom de fichier d'historique
+     */
+    private static String dateOfFile(File file) {
+        String filename = file.getName();
+        return filename.substring(FILE_PREFIX.length(), filename.lastIndexOf('.'));
+    }
+
+    private static String dateOf(ActivityDetection detection) {
+        return detection.getTimestamp().toLocalDate().format(DATE_FORMATTER);
+    }
+}
@@ -0,0 +1,693 @@
+package com.angel.server.capture.service;
+
+import com.angel.server.capture.model.ActivityDetection;
+import com.angel.server.capture.model.DetectionSource;
+import com.angel.server.capture.model.FusionWeights;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Stockage de l'historique dans une base H2 embarquée (mode fichier)
+ *
+ * Une ligne par détection, indexée par horodatage, par source et par activité : les lectures
+ * de période ne parcourent que la plage demandée et ne lisent que les colonnes demandées.
+ * Les détections sont insérées par lots dans une seule transaction, avec les agrégats par
+ * minute et par activité qu'elles modifient : les résumés de période sont agrégés par la base
+ * (GROUP BY par tranche) sans relire les détections
+ *
+ * Les horodatages sont stockés en millisecondes (voir {@link HistorySegment#toMillis}) :
+ * les tranches de minute, d'heure et de jour s'obtiennent par simple arrondi
+ */
+public class H2HistoryStore implements HistoryStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(H2HistoryStore.class);
+
+    private static final long MINUTE_MILLIS = 60_000L;
+    private static final long HOUR_MILLIS = 3_600_000L;
+    private static final long DAY_MILLIS = 86_400_000L;
+
+    // Largeurs des tranches tenues à jour : minute, et heure pour les résumés horaires et journaliers
+    private static final long[] ROLLUP_WIDTHS = {MINUTE_MILLIS, HOUR_MILLIS};
+
+    private static final String[] SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS detections ("
+            + "id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, "
+            + "ts BIGINT NOT NULL, "
+            + "activity VARCHAR(128), "
+            + "confidence DOUBLE PRECISION, "
+            + "source VARCHAR(32), "
+            + "source_id VARCHAR(255), "
+            + "person_detected BOOLEAN, "
+            + "person_confidence DOUBLE PRECISION, "
+            + "scores VARBINARY(1024), "
+            + "image_weight DOUBLE PRECISION, "
+            + "sound_weight DOUBLE PRECISION)",
+        // (ts, id) : parcours chronologique dans l'ordre d'insertion sans tri
+        "CREATE INDEX IF NOT EXISTS idx_detections_ts ON detections (ts, id)",
+        "CREATE INDEX IF NOT EXISTS idx_detections_source ON detections (source, source_id, ts)",
+        "CREATE INDEX IF NOT EXISTS idx_detections_activity ON detections (activity, ts)",
+        // Agrégats par minute et par heure (bucket_width en millisecondes)
+        "CREATE TABLE IF NOT EXISTS activity_rollups ("
+            + "bucket_width BIGINT NOT NULL, "
+            + "bucket_start BIGINT NOT NULL, "
+            + "activity VARCHAR(128) NOT NULL, "
+            + "detections BIGINT NOT NULL, "
+            + "duration_ms BIGINT NOT NULL, "
+            + "confidence_sum DOUBLE PRECISION NOT NULL, "
+            + "PRIMARY KEY (bucket_width, bucket_start, activity))",
+        // Jours repris de l'historique en fichiers (jamais réimportés, même supprimés depuis)
+        "CREATE TABLE IF NOT EXISTS imported_days (iso_date VARCHAR(10) PRIMARY KEY)"
+    };
+
+    private static final String INSERT = "INSERT INTO detections (ts, activity, confidence, source, source_id, "
+            + "person_detected, person_confidence, scores, image_weight, sound_weight) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String MERGE_ROLLUP = "MERGE INTO activity_rollups r "
+            + "USING (VALUES (CAST(? AS BIGINT), CAST(? AS BIGINT), CAST(? AS VARCHAR(128)), CAST(? AS BIGINT), "
+            + "CAST(? AS BIGINT), CAST(? AS DOUBLE PRECISION))) "
+            + "v (bucket_width, bucket_start, activity, detections, duration_ms, confidence_sum) "
+            + "ON r.bucket_width = v.bucket_width AND r.bucket_start = v.bucket_start AND r.activity = v.activity "
+            + "WHEN MATCHED THEN UPDATE SET detections = r.detections + v.detections, "
+            + "duration_ms = r.duration_ms + v.duration_ms, confidence_sum = r.confidence_sum + v.confidence_sum "
+            + "WHEN NOT MATCHED THEN INSERT VALUES (v.bucket_width, v.bucket_start, v.activity, v.detections, v.duration_ms, "
+            + "v.confidence_sum)";
+
+    private final String url;
+    private final int batchSize;
+    private final long maxGapMillis;
+    private final boolean sync;
+
+    // Connexion des écritures ; elle garde la base ouverte pendant toute la durée du service
+    private Connection connection;
+
+    // Connexion partagée des lectures (validation automatique, voit les lots validés)
+    private volatile Connection reader;
+
+    // Dernière détection enregistrée de chaque source (temps passé attribué à son activité)
+    private final Map<String, ActivityDetection> lastDetectionBySource = new HashMap<>();
+
+    /**
+     * @param url URL JDBC de la base H2 (jdbc:h2:file:...)
+     * @param batchSize nombre de détections par lot d'insertion
+     * @param sync force l'écriture sur disque de la base après chaque enregistrement
+     */
+    public H2HistoryStore(String url, int batchSize, int rollupMaxGapSeconds, boolean sync) {
+        this.url = url;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxGapMillis = rollupMaxGapSeconds * 1000L;
+        this.sync = sync;
+    }
+
+    /**
+     * Ouvre la base et crée les tables et leurs index s'ils n'existent pas
+     */
+    public void open() throws SQLException {
+        connection = DriverManager.getConnection(url);
+        try (Statement statement = connection.createStatement()) {
+            for (String ddl : SCHEMA) {
+                statement.execute(ddl);
+            }
+        }
+        connection.setAutoCommit(false);
+        reader = DriverManager.getConnection(url);
+        reader.setReadOnly(true);
+        logger.info("Base d'historique ouverte: {}", url);
+    }
+
+    // ========== ENREGISTREMENT ==========
+
+    @Override
+    public synchronized boolean append(List<ActivityDetection> detections) {
+        return insert(detections, null);
+    }
+
+    /**
+     * Enregistre les détections d'un jour de l'historique en fichiers et marque le jour comme importé,
+     * dans la même transaction
+     */
+    public synchronized boolean importDay(String date, List<ActivityDetection> detections) {
+        return insert(detections, date);
+    }
+
+    /**
+     * Jours déjà repris de l'historique en fichiers
+     */
+    public SortedSet<String> listImportedDays() {
+        SortedSet<String> days = new TreeSet<>();
+        try (Statement statement = reader.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT iso_date FROM imported_days")) {
+            while (rows.next()) {
+                days.add(rows.getString(1));
+            }
+        } catch (SQLException e) {
+            logger.error("Erreur lors de la liste des jours importés: {}", e.getMessage());
+        }
+        return days;
+    }
+
+    /**
+     * Insère un lot et ses agrégats en une transaction
+     * @param importedDay jour marqué comme importé dans la même transaction (null : aucun)
+     */
+    private boolean insert(List<ActivityDetection> detections, String importedDay) {
+        List<ActivityDetection> sorted = new ArrayList<>(detections);
+        sorted.sort(Comparator.comparing(ActivityDetection::getTimestamp));
+        Map<String, ActivityDetection> previousBySource = new HashMap<>(lastDetectionBySource);
+
+        try (PreparedStatement insert = connection.prepareStatement(INSERT);
+             PreparedStatement merge = connection.prepareStatement(MERGE_ROLLUP)) {
+            int batched = 0;
+            for (ActivityDetection detection : sorted) {
+                bind(insert, detection);
+                insert.addBatch();
+                if (++batched % batchSize == 0) {
+                    insert.executeBatch();
+                }
+            }
+            if (batched % batchSize != 0) {
+                insert.executeBatch();
+            }
+
+            // Agrégats modifiés par le lot, fusionnés dans la même transaction
+            for (Map.Entry<RollupKey, ActivityRollup.Aggregate> entry
+                    : aggregate(sorted, previousBySource).entrySet()) {
+                ActivityRollup.Aggregate aggregate = entry.getValue();
+                merge.setLong(1, entry.getKey().bucketWidth);
+                merge.setLong(2, entry.getKey().bucketStart);
+                merge.setString(3, entry.getKey().activity);
+                merge.setLong(4, aggregate.getCount());
+                merge.setLong(5, aggregate.getDurationMs());
+                merge.setDouble(6, aggregate.getMeanConfidence() * aggregate.getCount());
+                merge.addBatch();
+            }
+            merge.executeBatch();
+            if (importedDay != null) {
+                try (PreparedStatement mark = connection.prepareStatement(
+                        "MERGE INTO imported_days KEY (iso_date) VALUES (?)")) {
+                    mark.setString(1, importedDay);
+                    mark.executeUpdate();
+                }
+            }
+            connection.commit();
+            lastDetectionBySource.putAll(previousBySource);
+
+            if (sync) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("CHECKPOINT SYNC");
+                }
+            }
+            logger.debug("Détections insérées: {} éléments", detections.size());
+            return true;
+
+        } catch (SQLException e) {
+            logger.error("Erreur lors de l'insertion des détections: {}", e.getMessage());
+            rollback();
+            return false;
+        }
+    }
+
+    private static void bind(PreparedStatement insert, ActivityDetection detection) throws SQLException {
+        insert.setLong(1, HistorySegment.toMillis(detection.getTimestamp()));
+        insert.setString(2, detection.getPredictedActivity());
+        insert.setDouble(3, detection.getConfidence());
+        insert.setString(4, detection.getSource() != null ? detection.getSource().name() : null);
+        insert.setString(5, detection.getSourceId());
+        insert.setBoolean(6, detection.isPersonDetected());
+        insert.setDouble(7, detection.getPersonConfidence());
+        insert.setBytes(8, encodeScores(detection.getScores()));
+
+        FusionWeights weights = detection.getFusionWeights();
+        if (weights != null) {
+            insert.setDouble(9, weights.getImageWeight());
+            insert.setDouble(10, weights.getSoundWeight());
+        } else {
+            insert.setNull(9, Types.DOUBLE);
+            insert.setNull(10, Types.DOUBLE);
+        }
+    }
+
+    /**
+     * Scores indexés par ordinal d'ActivityClass, en flottants de 4 octets
+     */
+    private static byte[] encodeScores(float[] scores) {
+        if (scores == null) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(scores.length * Float.BYTES);
+        for (float score : scores) {
+            buffer.putFloat(score);
+        }
+        return buffer.array();
+    }
+
+    private static float[] decodeScores(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        float[] scores = new float[bytes.length / Float.BYTES];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = buffer.getFloat();
+        }
+        return scores;
+    }
+
+    private void rollback() {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            logger.error("Erreur lors de l'annulation de la transaction: {}", e.getMessage());
+        }
+    }
+
+    // ========== LECTURE ==========
+
+    @Override
+    public List<ActivityDetection> readDay(String date) {
+        LocalDate day = LocalDate.parse(date);
+        List<ActivityDetection> detections = new ArrayList<>();
+        forEachInRange(day.atStartOfDay(), day.atTime(LocalTime.MAX), HistorySegment.ALL_COLUMNS, detections::add);
+        return detections;
+    }
+
+    /**
+     * Seules les colonnes demandées sont sélectionnées ; à horodatage égal, l'ordre d'insertion est conservé
+     */
+    @Override
+    public void forEachInRange(LocalDateTime from, LocalDateTime to, Set<HistorySegment.Column> columns,
+                               Consumer<ActivityDetection> consumer) {
+        String sql = "SELECT " + selectList(columns) + " FROM detections WHERE ts BETWEEN ? AND ? ORDER BY ts, id";
+
+        try (PreparedStatement query = reader.prepareStatement(sql)) {
+            query.setFetchSize(1000);
+            query.setLong(1, HistorySegment.toMillis(from));
+            query.setLong(2, HistorySegment.toMillis(to));
+            try (ResultSet rows = query.executeQuery()) {
+                while (rows.next()) {
+                    consumer.accept(map(rows, columns));
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Erreur lors de la lecture de l'historique: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Colonnes sélectionnées, dans l'ordre lu par {@link #map}
+     */
+    private static String selectList(Set<HistorySegment.Column> columns) {
+        StringBuilder select = new StringBuilder("ts");
+        if (columns.contains(HistorySegment.Column.ACTIVITY)) {
+            select.append(", activity");
+        }
+        if (columns.contains(HistorySegment.Column.CONFIDENCE)) {
+            select.append(", confidence");
+        }
+        if (columns.contains(HistorySegment.Column.SOURCE)) {
+            select.append(", source");
+        }
+        if (columns.contains(HistorySegment.Column.SOURCE_ID)) {
+            select.append(", source_id");
+        }
+        if (columns.contains(HistorySegment.Column.PERSON)) {
+            select.append(", person_detected, person_confidence");
+        }
+        if (columns.contains(HistorySegment.Column.PREDICTIONS)) {
+            select.append(", scores");
+        }
+        if (columns.contains(HistorySegment.Column.FUSION)) {
+            select.append(", image_weight, sound_weight");
+        }
+        return select.toString();
+    }
+
+    private static ActivityDetection map(ResultSet rows, Set<HistorySegment.Column> columns) throws SQLException {
+        int column = 1;
+        ActivityDetection detection = new ActivityDetection();
+        detection.setTimestamp(HistorySegment.fromMillis(rows.getLong(column++)));
+        if (columns.contains(HistorySegment.Column.ACTIVITY)) {
+            detection.setPredictedActivity(rows.getString(column++));
+        }
+        if (columns.contains(HistorySegment.Column.CONFIDENCE)) {
+            detection.setConfidence(rows.getDouble(column++));
+        }
+        if (columns.contains(HistorySegment.Column.SOURCE)) {
+            String source = rows.getString(column++);
+            detection.setSource(source != null ? DetectionSource.valueOf(source) : null);
+        }
+        if (columns.contains(HistorySegment.Column.SOURCE_ID)) {
+            detection.setSourceId(rows.getString(column++));
+        }
+        if (columns.contains(HistorySegment.Column.PERSON)) {
+            detection.setPersonDetected(rows.getBoolean(column++));
+            detection.setPersonConfidence(rows.getDouble(column++));
+        }
+        if (columns.contains(HistorySegment.Column.PREDICTIONS)) {
+            byte[] scores = rows.getBytes(column++);
+            if (scores != null) {
+                detection.setScores(decodeScores(scores));
+            }
+        }
+        if (columns.contains(HistorySegment.Column.FUSION)) {
+            double imageWeight = rows.getDouble(column++);
+            if (!rows.wasNull()) {
+                detection.setFusionWeights(new FusionWeights(imageWeight, rows.getDouble(column)));
+            }
+        }
+        return detection;
+    }
+
+    /**
+     * Ordre d'enregistrement = ordre des identifiants (croissants, jamais réattribués)
+     */
+    @Override
+    public List<ActivityDetection> readAppended(String date, long position, int limit) {
+        long dayStart = dayStart(date);
+        String sql = "SELECT " + selectList(HistorySegment.ALL_COLUMNS)
+                + " FROM detections WHERE ts BETWEEN ? AND ? ORDER BY id OFFSET ? ROWS"
+                + (limit > 0 ? " FETCH FIRST ? ROWS ONLY" : "");
+        List<ActivityDetection> detections = new ArrayList<>();
+
+        try (PreparedStatement query = reader.prepareStatement(sql)) {
+            int parameter = 1;
+            query.setLong(parameter++, dayStart);
+            query.setLong(parameter++, dayStart + DAY_MILLIS - 1);
+            query.setLong(parameter++, position);
+            if (limit > 0) {
+                query.setInt(parameter, limit);
+            }
+            try (ResultSet rows = query.executeQuery()) {
+                while (rows.next()) {
+                    detections.add(map(rows, HistorySegment.ALL_COLUMNS));
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Erreur lors de la lecture de l'historique du {}: {}", date, e.getMessage());
+        }
+        return detections;
+    }
+
+    /**
+     * Les détections d'un jour ne sont jamais réordonnées : seule une suppression du jour
+     * change la génération (identifiant de la première détection du jour)
+     */
+    @Override
+    public String getDayGeneration(String date) {
+        long dayStart = dayStart(date);
+        try (PreparedStatement query = reader.prepareStatement(
+                     "SELECT COALESCE(MIN(id), 0) FROM detections WHERE ts BETWEEN ? AND ?")) {
+            query.setLong(1, dayStart);
+            query.setLong(2, dayStart + DAY_MILLIS - 1);
+            try (ResultSet rows = query.executeQuery()) {
+                rows.next();
+                return Long.toHexString(rows.getLong(1));
+            }
+        } catch (SQLException e) {
+            logger.error("Erreur lors de la lecture de la version du {}: {}", date, e.getMessage());
+            return "0";
+        }
+    }
+
+    @Override
+    public boolean isIndexed(String date) {
+        return true;
+    }
+
+    /**
+     * Nombre de détections du jour et identifiant de la dernière insérée
+     */
+    @Override
+    public String getDayVersion(String date) {
+        long dayStart = dayStart(date);
+        try (PreparedStatement query = reader.prepareStatement(
+                     "SELECT COUNT(*), COALESCE(MAX(id), 0) FROM detections WHERE ts BETWEEN ? AND ?")) {
+            query.setLong(1, dayStart);
+            query.setLong(2, dayStart + DAY_MILLIS - 1);
+            try (ResultSet rows = query.executeQuery()) {
+                rows.next();
+                return String.format("%x-%x", rows.getLong(1), rows.getLong(2));
+            }
+        } catch (SQLException e) {
+            logger.error("Erreur lors de la lecture de la version du {}: {}", date, e.getMessage());
+            return "0-0";
+        }
+    }
+
+    // ========== SUPPRESSION ==========
+
+    /**
+     * Jours présents, en une requête sur l'index d'horodatage
+     */
+    @Override
+    public SortedSet<String> listDays() {
+        SortedSet<String> days = new TreeSet<>();
+        try (Statement statement = reader.createStatement();
+             ResultSet rows = statement.executeQuery(
+                     "SELECT DISTINCT ts - MOD(ts, " + DAY_MILLIS + ") FROM detections")) {
+            while (rows.next()) {
+                days.add(HistorySegment.fromMillis(rows.getLong(1)).toLocalDate().toString());
+            }
+        } catch (SQLException e) {
+            logger.error("Erreur lors de la liste des jours d'historique: {}", e.getMessage());
+        }
+        return days;
+    }
+
+    @Override
+    public synchronized boolean deleteDay(String date) {
+        long dayStart = dayStart(date);
+        try (PreparedStatement delete = connection.prepareStatement(
+                     "DELETE FROM detections WHERE ts BETWEEN ? AND ?");
+             PreparedStatement deleteRollups = connection.prepareStatement(
+                     "DELETE FROM activity_rollups WHERE bucket_start BETWEEN ? AND ?")) {
+            delete.setLong(1, dayStart);
+            delete.setLong(2, dayStart + DAY_MILLIS - 1);
+            int deleted = delete.executeUpdate();
+            deleteRollups.setLong(1, dayStart);
+            deleteRollups.setLong(2, dayStart + DAY_MILLIS - 1);
+            deleteRollups.executeUpdate();
+            connection.commit();
+            logger.debug("Détections supprimées pour {}: {} éléments", date, deleted);
+            return true;
+        } catch (SQLException e) {
+            logger.error("Erreur lors de la suppression des détections du {}: {}", date, e.getMessage());
+            rollback();
+            return false;
+        }
+    }
+
+    // ========== AGRÉGATS ==========
+
+    /**
+     * Tranche d'une minute ou d'une heure pour une activité
+     */
+    private static final class RollupKey {
+        final long bucketWidth;
+        final long bucketStart;
+        final String activity;
+
+        RollupKey(long bucketWidth, long millis, String activity) {
+            this.bucketWidth = bucketWidth;
+            this.bucketStart = Math.floorDiv(millis, bucketWidth) * bucketWidth;
+            this.activity = activity;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof RollupKey)) {
+                return false;
+            }
+            RollupKey key = (RollupKey) other;
+            return bucketWidth == key.bucketWidth && bucketStart == key.bucketStart && activity.equals(key.activity);
+        }
+
+        @Override
+        public int hashCode() {
+            return (Long.hashCode(bucketWidth) * 31 + Long.hashCode(bucketStart)) * 31 + activity.hashCode();
+        }
+    }
+
+    /**
+     * Agrégats par minute et par heure d'un lot trié : chaque détection est comptée dans ses tranches, et l'écart
+     * (plafonné) avec la détection précédente de la même source est compté comme temps passé
+     * sur l'activité précédente, dans les tranches où il commence
+     * @param previousBySource dernière détection de chaque source, mise à jour par le lot
+     */
+    private Map<RollupKey, ActivityRollup.Aggregate> aggregate(List<ActivityDetection> sorted,
+                                                               Map<String, ActivityDetection> previousBySource) {
+        Map<RollupKey, long[]> counts = new HashMap<>();
+        Map<RollupKey, double[]> confidences = new HashMap<>();
+        for (ActivityDetection detection : sorted) {
+            long millis = HistorySegment.toMillis(detection.getTimestamp());
+            if (detection.getPredictedActivity() != null) {
+                for (long width : ROLLUP_WIDTHS) {
+                    RollupKey key = new RollupKey(width, millis, detection.getPredictedActivity());
+                    counts.computeIfAbsent(key, k -> new long[2])[0]++;
+                    confidences.computeIfAbsent(key, k -> new double[1])[0] += detection.getConfidence();
+                }
+            }
+
+            String sourceKey = detection.getSourceId() != null
+                    ? detection.getSourceId() : String.valueOf(detection.getSource());
+            ActivityDetection previous = previousBySource.put(sourceKey, detection);
+            if (previous != null && previous.getPredictedActivity() != null) {
+                long previousMillis = HistorySegment.toMillis(previous.getTimestamp());
+                long gap = millis - previousMillis;
+                if (gap > 0 && gap <= maxGapMillis) {
+                    for (long width : ROLLUP_WIDTHS) {
+                        RollupKey key = new RollupKey(width, previousMillis, previous.getPredictedActivity());
+                        counts.computeIfAbsent(key, k -> new long[2])[1] += gap;
+                        confidences.computeIfAbsent(key, k -> new double[1]);
+                    }
+                }
+            }
+        }
+
+        Map<RollupKey, ActivityRollup.Aggregate> aggregates = new HashMap<>();
+        counts.forEach((key, values) -> aggregates.put(key,
+                new ActivityRollup.Aggregate(values[0], values[1], confidences.get(key)[0])));
+        return aggregates;
+    }
+
+    /**
+     * Recalcule par la base les agrégats d'un jour à partir de ses détections (détections importées
+     * ou reprises hors ordre) : temps passé obtenu avec LEAD par source, la plage lue étant prolongée
+     * de l'écart maximal pour que la dernière détection du jour trouve sa suivante
+     */
+    @Override
+    public synchronized void invalidateSummary(String date) {
+        long dayStart = dayStart(date);
+        long dayEnd = dayStart + DAY_MILLIS - 1;
+        String rebuild = "INSERT INTO activity_rollups "
+                + "SELECT " + MINUTE_MILLIS + ", bucket_start, activity, COUNT(*), "
+                + "SUM(CASE WHEN gap > 0 AND gap <= " + maxGapMillis + " THEN gap ELSE 0 END), SUM(confidence) "
+                + "FROM (SELECT ts, activity, confidence, ts - MOD(ts, " + MINUTE_MILLIS + ") AS bucket_start, "
+                + "LEAD(ts) OVER (PARTITION BY COALESCE(source_id, source) ORDER BY ts, id) - ts AS gap "
+                + "FROM detections WHERE ts BETWEEN ? AND ?) ranked "
+                + "WHERE ts BETWEEN ? AND ? AND activity IS NOT NULL "
+                + "GROUP BY bucket_start, activity";
+        String rebuildHours = "INSERT INTO activity_rollups "
+                + "SELECT " + HOUR_MILLIS + ", hour_start, activity, SUM(detections), SUM(duration_ms), "
+                + "SUM(confidence_sum) FROM (SELECT bucket_start - MOD(bucket_start, " + HOUR_MILLIS + ") AS hour_start, "
+                + "activity, detections, duration_ms, confidence_sum FROM activity_rollups "
+                + "WHERE bucket_width = " + MINUTE_MILLIS + " AND bucket_start BETWEEN ? AND ?) minutes "
+                + "GROUP BY hour_start, activity";
+
+        try (PreparedStatement delete = connection.prepareStatement(
+                     "DELETE FROM activity_rollups WHERE bucket_start BETWEEN ? AND ?");
+             PreparedStatement insert = connection.prepareStatement(rebuild);
+             PreparedStatement insertHours = connection.prepareStatement(rebuildHours)) {
+            delete.setLong(1, dayStart);
+            delete.setLong(2, dayEnd);
+            delete.executeUpdate();
+            insert.setLong(1, dayStart);
+            insert.setLong(2, dayEnd + maxGapMillis);
+            insert.setLong(3, dayStart);
+            insert.setLong(4, dayEnd);
+            insert.executeUpdate();
+            insertHours.setLong(1, dayStart);
+            insertHours.setLong(2, dayEnd);
+            insertHours.executeUpdate();
+            connection.commit();
+            logger.info("Agrégats recalculés pour {}", date);
+        } catch (SQLException e) {
+            logger.error("Erreur lors du recalcul des agrégats du {}: {}", date, e.getMessage());
+            rollback();
+        }
+    }
+
+    /**
+     * Résumé agrégé par la base à partir des agrégats par minute (ou par heure au-delà)
+     */
+    @Override
+    public Map<String, Object> getActivitySummary(LocalDate startDate, LocalDate endDate, String granularity) {
+        long bucketMillis = ActivityRollup.MINUTE.equals(granularity) ? MINUTE_MILLIS
+                : ActivityRollup.HOUR.equals(granularity) ? HOUR_MILLIS : DAY_MILLIS;
+        long sourceWidth = bucketMillis == MINUTE_MILLIS ? MINUTE_MILLIS : HOUR_MILLIS;
+        String sql = "SELECT bucket, activity, SUM(detections), SUM(duration_ms), SUM(confidence_sum) "
+                + "FROM (SELECT bucket_start - MOD(bucket_start, " + bucketMillis + ") AS bucket, activity, "
+                + "detections, duration_ms, confidence_sum FROM activity_rollups "
+                + "WHERE bucket_width = " + sourceWidth + " AND bucket_start BETWEEN ? AND ?) buckets "
+                + "GROUP BY bucket, activity";
+
+        Map<String, ActivityRollup.Aggregate> totals = new TreeMap<>();
+        Map<LocalDateTime, Map<String, ActivityRollup.Aggregate>> buckets = new TreeMap<>();
+        try (PreparedStatement query = reader.prepareStatement(sql)) {
+            query.setLong(1, HistorySegment.toMillis(startDate.atStartOfDay()));
+            query.setLong(2, HistorySegment.toMillis(endDate.plusDays(1).atStartOfDay()) - 1);
+            try (ResultSet rows = query.executeQuery()) {
+                while (rows.next()) {
+                    String activity = rows.getString(2);
+                    ActivityRollup.Aggregate aggregate =
+                            new ActivityRollup.Aggregate(rows.getLong(3), rows.getLong(4), rows.getDouble(5));
+                    buckets.computeIfAbsent(HistorySegment.fromMillis(rows.getLong(1)), key -> new HashMap<>())
+                           .put(activity, aggregate);
+                    totals.computeIfAbsent(activity, key -> new ActivityRollup.Aggregate()).merge(aggregate);
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Erreur lors du calcul du résumé d'activité: {}", e.getMessage());
+        }
+        return ActivityRollup.toSummary(granularity, totals, buckets);
+    }
+
+    // ========== BASE ==========
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("jdbc_url", url);
+        stats.put("insert_batch_size", batchSize);
+
+        try (Statement statement = reader.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT COUNT(*) FROM detections")) {
+            rows.next();
+            stats.put("stored_detections", rows.getLong(1));
+        } catch (SQLException e) {
+            logger.error("Erreur lors de la lecture des statistiques de la base: {}", e.getMessage());
+        }
+
+        // Taille du fichier de base (mode fichier uniquement)
+        if (url.startsWith("jdbc:h2:file:")) {
+            String path = url.substring("jdbc:h2:file:".length());
+            int options = path.indexOf(';');
+            File file = new File((options >= 0 ? path.substring(0, options) : path) + ".mv.db");
+            stats.put("total_size_bytes", file.length());
+            stats.put("total_size_mb", file.length() / (1024.0 * 1024.0));
+        }
+        return stats;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (connection == null) {
+            return;
+        }
+        try {
+            reader.close();
+            connection.close();
+            logger.info("Base d'historique fermée");
+        } catch (SQLException e) {
+            logger.error("Erreur lors de la fermeture de la base d'historique: {}", e.getMessage());
+        } finally {
+            connection = null;
+        }
+    }
+
+    private static long dayStart(String date) {
+        return HistorySegment.toMillis(LocalDate.parse(date).atStartOfDay());
+    }
+}
@@ -0,0 +1,196 @@
+package com.angel.server.capture.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Compaction en tâche de fond des jours clos de l'historique
+ *
+ * Un thread de basse priorité réécrit chaque jour antérieur à aujourd'hui sous la forme compacte
+ * du stockage (voir {@link HistoryStore#prepareCompaction}), au rythme d'un {@link IoThrottle} :
+ * la détection en direct garde le disque et les processeurs. La forme compacte est préparée sans
+ * verrou, puis installée sous verrou exclusif seulement si le jour n'a pas changé entre-temps
+ * (sinon elle est abandonnée et le jour reste candidat au passage suivant)
+ */
+public class HistoryCompactor implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(HistoryCompactor.class);
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    private final HistoryStore store;
+    private final ReadWriteLock lock;
+    private final Consumer<String> onCompacted;
+    private final IoThrottle throttle;
+
+    private volatile boolean running;
+    private boolean requested;
+    private Thread worker;
+
+    // Statistiques
+    private volatile boolean compacting;
+    private long passes;
+    private long compactedDays;
+    private long abandonedDays;
+    private long failedDays;
+    private String lastCompactedDay;
+
+    /**
+     * @param lock verrou des lectures/écritures de l'historique
+     * @param onCompacted appelé sous verrou exclusif pour chaque jour réécrit (invalidation du cache)
+     */
+    public HistoryCompactor(HistoryStore store, ReadWriteLock lock, Consumer<String> onCompacted,
+                            IoThrottle throttle) {
+        this.store = store;
+        this.lock = lock;
+        this.onCompacted = onCompacted;
+        this.throttle = throttle;
+    }
+
+    /**
+     * Démarre le thread de compaction (en attente d'un passage demandé)
+     */
+    public void start() {
+        running = true;
+        worker = new Thread(this, "history-compactor");
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
+    /**
+     * Demande un passage sur tous les jours clos ; sans effet si un passage est déjà demandé
+     */
+    public synchronized void requestPass() {
+        requested = true;
+        notifyAll();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                synchronized (this) {
+                    while (running && !requested) {
+                        wait();
+                    }
+                    requested = false;
+                }
+                if (running) {
+                    compactClosedDays();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Compacte un à un les jours antérieurs à aujourd'hui
+     */
+    private void compactClosedDays() {
+        String today = LocalDate.now().format(DATE_FORMATTER);
+        List<String> days = store.listCompactableDays(today);
+        if (days.isEmpty()) {
+            return;
+        }
+
+        logger.info("Compaction de l'historique: {} jour(s) à réécrire", days.size());
+        compacting = true;
+        try {
+            for (String date : days) {
+                if (!running || Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                compactDay(date);
+            }
+        } finally {
+            compacting = false;
+            synchronized (this) {
+                passes++;
+            }
+        }
+    }
+
+    private void compactDay(String date) {
+        String version;
+        lock.readLock().lock();
+        try {
+            version = store.getDayVersion(date);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // Lecture et réécriture au rythme du limiteur, sans bloquer les sauvegardes
+        HistoryStore.Compaction compaction = store.prepareCompaction(date, throttle);
+        if (compaction == null) {
+            synchronized (this) {
+                failedDays++;
+            }
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (!version.equals(store.getDayVersion(date))) {
+                logger.info("Historique du {} modifié pendant sa compaction, reporté", date);
+                compaction.discard();
+                synchronized (this) {
+                    abandonedDays++;
+                }
+                return;
+            }
+            if (compaction.install()) {
+                onCompacted.accept(date);
+                synchronized (this) {
+                    compactedDays++;
+                    lastCompactedDay = date;
+                }
+            } else {
+                synchronized (this) {
+                    failedDays++;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Arrête le thread de compaction ; une réécriture en cours est interrompue et abandonnée
+     */
+    public void close() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+            try {
+                worker.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Statistiques de la compaction
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("compaction_running", compacting);
+        stats.put("compaction_passes", passes);
+        stats.put("compaction_compacted_days", compactedDays);
+        stats.put("compaction_abandoned_days", abandonedDays);
+        stats.put("compaction_failed_days", failedDays);
+        stats.put("compaction_last_day", lastCompactedDay);
+        stats.put("compaction_throttled_ms", throttle.getThrottledMillis());
+        return stats;
+    }
+}
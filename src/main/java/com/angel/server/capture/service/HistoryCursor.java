@@ -0,0 +1,99 @@
+package com.angel.server.capture.service;
+
+import com.angel.server.capture.model.ActivityDetection;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Position opaque dans l'historique d'un jour : nombre de détections du jour déjà transmises,
+ * dans l'ordre d'enregistrement, et génération de cet ordre (voir {@link HistoryStore#getDayGeneration}).
+ * Une détection enregistrée après le curseur est toujours transmise, même si son horodatage
+ * est antérieur (bus asynchrone, reprise du journal, import)
+ */
+public final class HistoryCursor {
+
+    private final String generation;
+    private final long position;
+
+    public HistoryCursor(String generation, long position) {
+        this.generation = generation;
+        this.position = position;
+    }
+
+    /**
+     * Page de détections postérieures à un curseur
+     */
+    public static final class Page {
+        private final List<ActivityDetection> detections;
+        private final HistoryCursor next;
+        private final boolean hasMore;
+        private final boolean reset;
+
+        Page(List<ActivityDetection> detections, HistoryCursor next, boolean hasMore, boolean reset) {
+            this.detections = detections;
+            this.next = next;
+            this.hasMore = hasMore;
+            this.reset = reset;
+        }
+
+        public List<ActivityDetection> getDetections() {
+            return detections;
+        }
+
+        /**
+         * Curseur à transmettre pour la page suivante (position inchangée si la page est vide)
+         */
+        public HistoryCursor getNext() {
+            return next;
+        }
+
+        public boolean hasMore() {
+            return hasMore;
+        }
+
+        /**
+         * Indique que le jour a été réécrit depuis le curseur reçu : la page repart du début du jour
+         * (le client peut recevoir de nouveau des détections déjà transmises)
+         */
+        public boolean isReset() {
+            return reset;
+        }
+    }
+
+    /**
+     * Représentation opaque transmise aux clients
+     */
+    public String encode() {
+        String raw = generation + ":" + position;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Décode un curseur transmis par un client
+     * @throws IllegalArgumentException si le curseur est invalide
+     */
+    public static HistoryCursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+            int separator = raw.lastIndexOf(':');
+            String generation = raw.substring(0, separator);
+            long position = Long.parseLong(raw.substring(separator + 1));
+            if (position < 0) {
+                throw new IllegalArgumentException("Curseur invalide: " + cursor);
+            }
+            return new HistoryCursor(generation, position);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Curseur invalide: " + cursor, e);
+        }
+    }
+
+    public String getGeneration() {
+        return generation;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+}
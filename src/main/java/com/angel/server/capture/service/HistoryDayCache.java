@@ -0,0 +1,144 @@
+package com.angel.server.capture.service;
+
+import com.angel.server.capture.model.ActivityDetection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache LRU des journées d'historique chargées, borné en nombre total de détections
+ *
+ * Chaque jour est conservé sous forme d'instantané immuable trié, partagé par tous les
+ * lecteurs sans copie défensive ; un ajout remplace l'instantané par une nouvelle version
+ * (copie à l'écriture). Les jours les moins récemment utilisés sont évincés au-delà de la limite
+ */
+public class HistoryDayCache {
+
+    private final int maxRecords;
+    private final LinkedHashMap<String, List<ActivityDetection>> days = new LinkedHashMap<>(16, 0.75f, true);
+    private long records;
+
+    // Statistiques
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long rejected;
+
+    /**
+     * @param maxRecords nombre maximal de détections conservées, tous jours confondus
+     */
+    public HistoryDayCache(int maxRecords) {
+        this.maxRecords = maxRecords;
+    }
+
+    /**
+     * Retourne l'instantané d'un jour (null si absent du cache)
+     */
+    public synchronized List<ActivityDetection> get(String date) {
+        List<ActivityDetection> day = days.get(date);
+        if (day != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return day;
+    }
+
+    /**
+     * Met en cache un jour trié et retourne son instantané immuable
+     * Un jour plus grand que la limite du cache n'est pas conservé
+     */
+    public synchronized List<ActivityDetection> put(String date, List<ActivityDetection> sorted) {
+        List<ActivityDetection> snapshot = Collections.unmodifiableList(new ArrayList<>(sorted));
+        store(date, snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Ajoute des détections triées à un jour en cache (sans effet si le jour n'y est pas)
+     * Les nouvelles détections sont fusionnées dans un nouvel instantané ; les lecteurs
+     * de l'instantané précédent ne sont pas affectés
+     */
+    public synchronized void append(String date, List<ActivityDetection> sorted) {
+        List<ActivityDetection> current = days.get(date);
+        if (current == null || sorted.isEmpty()) {
+            return;
+        }
+
+        List<ActivityDetection> merged = new ArrayList<>(current.size() + sorted.size());
+        int i = 0;
+        int j = 0;
+        while (i < current.size() && j < sorted.size()) {
+            // À horodatage égal, les détections existantes restent en premier
+            if (sorted.get(j).getTimestamp().isBefore(current.get(i).getTimestamp())) {
+                merged.add(sorted.get(j++));
+            } else {
+                merged.add(current.get(i++));
+            }
+        }
+        merged.addAll(current.subList(i, current.size()));
+        merged.addAll(sorted.subList(j, sorted.size()));
+        store(date, Collections.unmodifiableList(merged));
+    }
+
+    public synchronized void remove(String date) {
+        List<ActivityDetection> removed = days.remove(date);
+        if (removed != null) {
+            records -= removed.size();
+        }
+    }
+
+    public synchronized void clear() {
+        days.clear();
+        records = 0;
+    }
+
+    public synchronized int size() {
+        return days.size();
+    }
+
+    /**
+     * Statistiques du cache (occupation, taux de succès, évictions)
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long lookups = hits + misses;
+        stats.put("cached_dates", days.size());
+        stats.put("cache_records", records);
+        stats.put("cache_max_records", maxRecords);
+        stats.put("cache_hits", hits);
+        stats.put("cache_misses", misses);
+        stats.put("cache_hit_rate", lookups > 0 ? (double) hits / lookups : 0.0);
+        stats.put("cache_evictions", evictions);
+        stats.put("cache_rejected_days", rejected);
+        return stats;
+    }
+
+    private void store(String date, List<ActivityDetection> snapshot) {
+        remove(date);
+        if (snapshot.size() > maxRecords) {
+            rejected++;
+            return;
+        }
+
+        days.put(date, snapshot);
+        records += snapshot.size();
+
+        // Évincer les jours les moins récemment utilisés
+        Iterator<Map.Entry<String, List<ActivityDetection>>> eldest = days.entrySet().iterator();
+        while (records > maxRecords && eldest.hasNext()) {
+            Map.Entry<String, List<ActivityDetection>> entry = eldest.next();
+            if (entry.getKey().equals(date)) {
+                continue;
+            }
+            records -= entry.getValue().size();
+            eldest.remove();
+            evictions++;
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package com.angel.server.capture.service;
+
+import com.angel.server.capture.model.ActivityDetection;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Journal d'écriture anticipée des détections (write-ahead log) avec validation groupée
+ *
+ * Chaque détection est ajoutée au journal actif avant d'entrer dans le buffer de l'historique ;
+ * un thread dédié écrit les enregistrements en attente en une seule écriture suivie d'un seul
+ * fsync, toutes les N ms ou dès N enregistrements. La perte en cas d'arrêt brutal est bornée
+ * par l'intervalle de validation, sans fsync par détection.
+ *
+ * Format d'un enregistrement : longueur (int), CRC32 du contenu (int), détection en JSON.
+ * À la sauvegarde de l'historique, le journal actif est scellé (renommé) puis supprimé une fois
+ * les détections écrites dans les fichiers du jour. Au démarrage, les journaux restants sont
+ * relus ; un enregistrement incomplet ou corrompu en fin de fichier est tronqué
+ */
+public class HistoryJournal implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(HistoryJournal.class);
+
+    private static final String ACTIVE_FILE = "journal.wal";
+    private static final String SEALED_PREFIX = "journal_";
+    private static final String EXTENSION = ".wal";
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+    private final File directory;
+    private final ObjectMapper objectMapper;
+    private final long commitIntervalMillis;
+    private final int commitMaxRecords;
+
+    // Enregistrements sérialisés en attente de validation (protégés par le moniteur de la liste)
+    private List<byte[]> pending = new ArrayList<>();
+
+    // Canal du journal actif (protégé par ioLock)
+    private final Object ioLock = new Object();
+    private FileChannel channel;
+    private long sealSequence;
+
+    private volatile boolean running;
+    private Thread writer;
+
+    // Statistiques
+    private long commits;
+    private long committedRecords;
+    private long committedBytes;
+    private long maxBatch;
+    private volatile long lastFsyncMicros;
+    private long recoveredRecords;
+    private long repairedBytes;
+    private long failures;
+
+    /**
+     * @param commitIntervalMillis délai maximal avant validation d'un enregistrement
+     * @param commitMaxRecords nombre d'enregistrements en attente déclenchant une validation immédiate
+     */
+    public HistoryJournal(File directory, ObjectMapper objectMapper, long commitIntervalMillis, int commitMaxRecords) {
+        this.directory = directory;
+        this.objectMapper = objectMapper;
+        this.commitIntervalMillis = Math.max(1, commitIntervalMillis);
+        this.commitMaxRecords = Math.max(1, commitMaxRecords);
+    }
+
+    // ========== RÉCUPÉRATION ==========
+
+    /**
+     * Résultat de la relecture des journaux laissés par une exécution précédente
+     */
+    public static final class Recovery {
+        private final List<ActivityDetection> detections;
+        private final List<File> files;
+
+        Recovery(List<ActivityDetection> detections, List<File> files) {
+            this.detections = detections;
+            this.files = files;
+        }
+
+        /**
+         * Détections relues, dans l'ordre d'écriture
+         */
+        public List<ActivityDetection> getDetections() {
+            return detections;
+        }
+
+        /**
+         * Journaux relus, à supprimer une fois les détections sauvegardées
+         */
+        public List<File> getFiles() {
+            return files;
+        }
+    }
+
+    /**
+     * Relit les journaux existants (à appeler avant {@link #open()}) : le journal actif est
+     * d'abord scellé, puis chaque journal est relu dans l'ordre et sa fin invalide tronquée
+     */
+    public Recovery recover() throws IOException {
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+
+        File active = new File(directory, ACTIVE_FILE);
+        if (active.exists()) {
+            if (active.length() == 0) {
+                Files.delete(active.toPath());
+            } else {
+                sealFile(active);
+            }
+        }
+
+        List<File> files = listSealedFiles();
+        List<ActivityDetection> detections = new ArrayList<>();
+        for (File file : files) {
+            readFile(file, detections);
+        }
+        recoveredRecords += detections.size();
+        return new Recovery(detections, files);
+    }
+
+    /**
+     * Relit les enregistrements valides d'un journal et tronque ce qui suit le dernier d'entre eux
+     */
+    private void readFile(File file, List<ActivityDetection> detections) throws IOException {
+        byte[] content = Files.readAllBytes(file.toPath());
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        CRC32 crc = new CRC32();
+        int valid = 0;
+
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > MAX_RECORD_SIZE || length > buffer.remaining()) {
+                break;
+            }
+            crc.reset();
+            crc.update(content, buffer.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            byte[] payload = Arrays.copyOfRange(content, buffer.position(), buffer.position() + length);
+            buffer.position(buffer.position() + length);
+            valid = buffer.position();
+            try {
+                detections.add(objectMapper.readValue(payload, ActivityDetection.class));
+            } catch (IOException e) {
+                logger.error("Enregistrement illisible ignoré dans {}: {}", file.getName(), e.getMessage());
+            }
+        }
+
+        if (valid < content.length) {
+            logger.warn("Fin de journal invalide tronquée dans {} ({} octets)", file.getName(), content.length - valid);
+            repairedBytes += content.length - valid;
+            try (FileChannel repair = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                repair.truncate(valid);
+                repair.force(true);
+            }
+        }
+    }
+
+    // ========== ÉCRITURE ==========
+
+    /**
+     * Ouvre le journal actif et démarre le thread de validation groupée
+     */
+    public void open() throws IOException {
+        synchronized (ioLock) {
+            channel = openActive();
+        }
+        running = true;
+        writer = new Thread(this, "history-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Ajoute une détection au journal ; elle est durable après la prochaine validation
+     */
+    public void append(ActivityDetection detection) throws IOException {
+        byte[] record = encode(detection);
+        synchronized (this) {
+            pending.add(record);
+            if (pending.size() >= commitMaxRecords) {
+                notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                synchronized (this) {
+                    if (pending.size() < commitMaxRecords) {
+                        wait(commitIntervalMillis);
+                    }
+                }
+                synchronized (ioLock) {
+                    commit();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException e) {
+                failures++;
+                logger.error("Erreur lors de la validation du journal d'historique: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Écrit les enregistrements en attente en une seule écriture puis un seul fsync
+     * (appelé avec ioLock)
+     */
+    private void commit() throws IOException {
+        List<byte[]> batch;
+        synchronized (this) {
+            if (pending.isEmpty() || channel == null) {
+                return;
+            }
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+
+        int size = 0;
+        for (byte[] record : batch) {
+            size += record.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (byte[] record : batch) {
+            buffer.put(record);
+        }
+        buffer.flip();
+
+        long start = System.nanoTime();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        lastFsyncMicros = (System.nanoTime() - start) / 1000;
+
+        commits++;
+        committedRecords += batch.size();
+        committedBytes += size;
+        maxBatch = Math.max(maxBatch, batch.size());
+    }
+
+    /**
+     * Valide les enregistrements en attente, scelle le journal actif et en ouvre un nouveau
+     * Les détections du journal scellé sont celles du buffer vidé au même moment
+     * @return le journal scellé (null s'il était vide)
+     */
+    public File seal() throws IOException {
+        synchronized (ioLock) {
+            if (channel == null) {
+                return null;
+            }
+            commit();
+            boolean empty = channel.size() == 0;
+            channel.close();
+            channel = null;
+
+            File active = new File(directory, ACTIVE_FILE);
+            try {
+                return empty ? null : sealFile(active);
+            } finally {
+                channel = openActive();
+            }
+        }
+    }
+
+    /**
+     * Supprime des journaux dont les détections sont sauvegardées dans l'historique
+     */
+    public void discard(List<File> files) {
+        for (File file : files) {
+            if (file != null && file.exists() && !file.delete()) {
+                logger.warn("Impossible de supprimer le journal {}", file.getName());
+            }
+        }
+    }
+
+    /**
+     * Valide les enregistrements en attente et arrête le thread de validation
+     */
+    public void close() {
+        running = false;
+        if (writer != null) {
+            writer.interrupt();
+            try {
+                writer.join(commitIntervalMillis + 1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (ioLock) {
+            if (channel == null) {
+                return;
+            }
+            try {
+                commit();
+                boolean empty = channel.size() == 0;
+                channel.close();
+                if (empty) {
+                    Files.deleteIfExists(new File(directory, ACTIVE_FILE).toPath());
+                }
+            } catch (IOException e) {
+                logger.error("Erreur lors de la fermeture du journal d'historique: {}", e.getMessage());
+            } finally {
+                channel = null;
+            }
+        }
+    }
+
+    /**
+     * Statistiques du journal (validations groupées, taille des lots, récupération)
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (this) {
+            stats.put("journal_pending_records", pending.size());
+        }
+        synchronized (ioLock) {
+            stats.put("journal_commits", commits);
+            stats.put("journal_committed_records", committedRecords);
+            stats.put("journal_committed_bytes", committedBytes);
+            stats.put("journal_avg_batch", commits > 0 ? (double) committedRecords / commits : 0.0);
+            stats.put("journal_max_batch", maxBatch);
+            stats.put("journal_failures", failures);
+        }
+        stats.put("journal_last_fsync_micros", lastFsyncMicros);
+        stats.put("journal_recovered_records", recoveredRecords);
+        stats.put("journal_repaired_bytes", repairedBytes);
+        stats.put("journal_commit_interval_ms", commitIntervalMillis);
+        stats.put("journal_commit_max_records", commitMaxRecords);
+        return stats;
+    }
+
+    /**
+     * Force l'écriture sur disque d'un fichier (avant suppression du journal qui le couvre)
+     */
+    static void sync(File file) throws IOException {
+        try (FileChannel sync = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            sync.force(true);
+        }
+    }
+
+    private byte[] encode(ActivityDetection detection) throws IOException {
+        byte[] payload = objectMapper.writeValueAsBytes(detection);
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return ByteBuffer.allocate(HEADER_SIZE + payload.length)
+                         .putInt(payload.length)
+                         .putInt((int) crc.getValue())
+                         .put(payload)
+                         .array();
+    }
+
+    private FileChannel openActive() throws IOException {
+        return FileChannel.open(new File(directory, ACTIVE_FILE).toPath(),
+                                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Renomme un journal en journal scellé ; le numéro croissant conserve l'ordre d'écriture
+     */
+    private File sealFile(File file) throws IOException {
+        if (sealSequence == 0) {
+            sealSequence = System.currentTimeMillis();
+            for (File sealed : listSealedFiles()) {
+                sealSequence = Math.max(sealSequence, sequenceOf(sealed) + 1);
+            }
+        }
+        File sealed = new File(directory, String.format("%s%019d%s", SEALED_PREFIX, sealSequence++, EXTENSION));
+        Files.move(file.toPath(), sealed.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return sealed;
+    }
+
+    private List<File> listSealedFiles() {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEALED_PREFIX) && name.endsWith(EXTENSION));
+        List<File> sealed = new ArrayList<>(files != null ? Arrays.asList(files) : new ArrayList<>());
+        sealed.sort(Comparator.comparingLong(HistoryJournal::sequenceOf));
+        return sealed;
+    }
+
+    private static long sequenceOf(File file) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(SEALED_PREFIX.length(), name.length() - EXTENSION.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,1000 @@
+package com.angel.server.capture.service;
+
+import com.angel.server.capture.model.ActivityClass;
+import com.angel.server.capture.model.ActivityDetection;
+import com.angel.server.capture.model.DetectionSource;
+import com.angel.server.capture.model.FusionWeights;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Format binaire colonnaire des segments d'historique (un fichier par jour, blocs ajoutés à la suite)
+ *
+ * Chaque bloc regroupe les détections d'une sauvegarde, colonne par colonne : horodatages
+ * en deltas (varint), activité et source en octet ordinal, confiances quantifiées sur 16 bits,
+ * identifiants de source par dictionnaire. Chaque colonne est compressée (Deflate) et
+ * protégée par un CRC séparément : un lecteur ne décompresse que les colonnes demandées.
+ * Un bloc tronqué (écriture interrompue) marque la fin lisible du segment
+ *
+ * Les blocs sont découpés sur des tranches de temps alignées (une minute par défaut) :
+ * l'index temporel ({@link TimeIndex}) ne contient que leurs bornes et positions, et une
+ * requête de plage ne lit que les blocs couverts, fusionnés dans l'ordre chronologique
+ */
+public final class HistorySegment {
+
+    /** Extension des fichiers de segment */
+    public static final String EXTENSION = "seg";
+
+    private static final int BLOCK_MAGIC = 0x48534231; // "HSB1"
+    // Activité absente (null), et activité hors énumération dont le nom suit la colonne
+    private static final int NO_ACTIVITY = 0xFF;
+    private static final int OTHER_ACTIVITY = 0xFE;
+    private static final int NO_SOURCE = 0xFF;
+    private static final float QUANTIZATION = 65535.0f;
+
+    // Taille de l'en-tête d'un bloc hors répertoire des colonnes
+    private static final int BLOCK_HEADER_SIZE = 4 + 4 + 8 + 8 + 1;
+    // Taille d'une entrée du répertoire des colonnes
+    private static final int COLUMN_ENTRY_SIZE = 1 + 4 + 4 + 4;
+
+    /**
+     * Colonnes d'un bloc (l'horodatage est toujours décodé)
+     */
+    public enum Column {
+        TIMESTAMP(0),
+        ACTIVITY(1),
+        CONFIDENCE(2),
+        SOURCE(3),
+        SOURCE_ID(4),
+        PERSON(5),
+        PREDICTIONS(6),
+        FUSION(7);
+
+        private final int id;
+
+        Column(int id) {
+            this.id = id;
+        }
+
+        static Column fromId(int id) {
+            for (Column column : values()) {
+                if (column.id == id) {
+                    return column;
+                }
+            }
+            return null;
+        }
+    }
+
+    /** Toutes les colonnes */
+    public static final Set<Column> ALL_COLUMNS = Collections.unmodifiableSet(EnumSet.allOf(Column.class));
+
+    /** Colonnes d'un résumé de période (sans scores détaillés ni poids de fusion) */
+    public static final Set<Column> SUMMARY_COLUMNS =
+            Collections.unmodifiableSet(EnumSet.complementOf(EnumSet.of(Column.PREDICTIONS, Column.FUSION)));
+
+    /**
+     * Résumé d'un bloc : position, nombre de détections et bornes temporelles
+     */
+    public static final class BlockInfo {
+        private final long offset;
+        private final long length;
+        private final int recordCount;
+        private final long minTimestamp;
+        private final long maxTimestamp;
+
+        BlockInfo(long offset, long length, int recordCount, long minTimestamp, long maxTimestamp) {
+            this.offset = offset;
+            this.length = length;
+            this.recordCount = recordCount;
+            this.minTimestamp = minTimestamp;
+            this.maxTimestamp = maxTimestamp;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public int getRecordCount() {
+            return recordCount;
+        }
+
+        public long getMinTimestamp() {
+            return minTimestamp;
+        }
+
+        public long getMaxTimestamp() {
+            return maxTimestamp;
+        }
+    }
+
+    /**
+     * Index temporel creux d'un segment : bornes et positions des blocs, triées par
+     * horodatage minimal, avec le maximum cumulé des bornes supérieures pour la recherche dichotomique
+     */
+    public static final class TimeIndex {
+        private final List<BlockInfo> blocks = new ArrayList<>();
+        private long readableLength;
+        private long[] minTimestamps = new long[0];
+        private long[] runningMax = new long[0];
+        private boolean dirty;
+
+        TimeIndex(List<BlockInfo> blocks) {
+            add(blocks);
+        }
+
+        /**
+         * Ajoute les blocs écrits à la fin du segment
+         */
+        public synchronized void add(List<BlockInfo> written) {
+            for (BlockInfo block : written) {
+                blocks.add(block);
+                readableLength = Math.max(readableLength, block.getOffset() + block.getLength());
+            }
+            dirty = true;
+        }
+
+        /**
+         * Retourne les blocs pouvant contenir des détections de [fromMillis, toMillis],
+         * triés par horodatage minimal
+         */
+        public synchronized List<BlockInfo> blocksFor(long fromMillis, long toMillis) {
+            if (dirty) {
+                rebuild();
+            }
+
+            // Premier bloc dont le maximum cumulé atteint le début de la plage
+            int low = 0;
+            int high = runningMax.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (runningMax[mid] < fromMillis) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            int first = low;
+
+            // Premier bloc commençant après la fin de la plage
+            high = minTimestamps.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (minTimestamps[mid] <= toMillis) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            List<BlockInfo> covered = new ArrayList<>(low - first);
+            for (int i = first; i < low; i++) {
+                if (blocks.get(i).getMaxTimestamp() >= fromMillis) {
+                    covered.add(blocks.get(i));
+                }
+            }
+            return covered;
+        }
+
+        /**
+         * Fin du dernier bloc complet : au-delà, le fichier contient une écriture interrompue
+         */
+        public synchronized long getReadableLength() {
+            return readableLength;
+        }
+
+        public synchronized int getBlockCount() {
+            return blocks.size();
+        }
+
+        /**
+         * Retourne les blocs dans l'ordre du fichier (ordre d'enregistrement)
+         */
+        public synchronized List<BlockInfo> blocksInFileOrder() {
+            List<BlockInfo> ordered = new ArrayList<>(blocks);
+            ordered.sort((a, b) -> Long.compare(a.getOffset(), b.getOffset()));
+            return ordered;
+        }
+
+        private void rebuild() {
+            blocks.sort((a, b) -> Long.compare(a.getMinTimestamp(), b.getMinTimestamp()));
+            minTimestamps = new long[blocks.size()];
+            runningMax = new long[blocks.size()];
+            long max = Long.MIN_VALUE;
+            for (int i = 0; i < blocks.size(); i++) {
+                minTimestamps[i] = blocks.get(i).getMinTimestamp();
+                max = Math.max(max, blocks.get(i).getMaxTimestamp());
+                runningMax[i] = max;
+            }
+            dirty = false;
+        }
+    }
+
+    /**
+     * Curseur sur les détections décodées d'un bloc, pour la fusion k-voies
+     */
+    private static final class BlockCursor {
+        private final List<ActivityDetection> detections;
+        private int position;
+        private long current;
+
+        BlockCursor(List<ActivityDetection> detections) {
+            this.detections = detections;
+            this.current = toMillis(detections.get(0).getTimestamp());
+        }
+
+        ActivityDetection next() {
+            return detections.get(position++);
+        }
+
+        boolean hasNext() {
+            if (position >= detections.size()) {
+                return false;
+            }
+            current = toMillis(detections.get(position).getTimestamp());
+            return true;
+        }
+    }
+
+    private HistorySegment() {
+    }
+
+    // ========== ÉCRITURE ==========
+
+    /**
+     * Ajoute les détections triées à la fin du segment (créé si nécessaire), en un bloc
+     * par tranche de temps alignée, avec une seule écriture
+     * @param blockSpanMillis durée d'une tranche (0 : un seul bloc)
+     * @return les résumés des blocs écrits
+     */
+    public static List<BlockInfo> appendBlocks(File file, List<ActivityDetection> sorted, long blockSpanMillis)
+            throws IOException {
+        List<BlockInfo> written = new ArrayList<>();
+        long offset = file.length();
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+
+        for (List<ActivityDetection> slice : splitBySpan(sorted, blockSpanMillis)) {
+            byte[] block = encodeBlock(slice);
+            written.add(readBlockInfo(block, offset + blocks.size()));
+            blocks.write(block);
+        }
+
+        try (OutputStream out = new FileOutputStream(file, true)) {
+            blocks.writeTo(out);
+        }
+        return written;
+    }
+
+    /**
+     * Découpe des détections triées en tranches de temps alignées (vues sur la liste)
+     * @param blockSpanMillis durée d'une tranche (0 : une seule tranche)
+     */
+    public static List<List<ActivityDetection>> splitBySpan(List<ActivityDetection> sorted, long blockSpanMillis) {
+        List<List<ActivityDetection>> slices = new ArrayList<>();
+        int start = 0;
+        while (start < sorted.size()) {
+            int end = sorted.size();
+            if (blockSpanMillis > 0) {
+                long first = toMillis(sorted.get(start).getTimestamp());
+                long limit = Math.floorDiv(first, blockSpanMillis) * blockSpanMillis + blockSpanMillis;
+                end = start + 1;
+                while (end < sorted.size() && toMillis(sorted.get(end).getTimestamp()) < limit) {
+                    end++;
+                }
+            }
+            slices.add(sorted.subList(start, end));
+            start = end;
+        }
+        return slices;
+    }
+
+    /**
+     * Encode les détections en un bloc complet (en-tête, répertoire et colonnes compressées)
+     */
+    public static byte[] encodeBlock(List<ActivityDetection> detections) throws IOException {
+        return encodeBlock(detections, Deflater.BEST_SPEED);
+    }
+
+    /**
+     * Encode les détections en un bloc avec le niveau de compression donné (rapide pour les
+     * ajouts en continu, maximal pour la compaction des jours clos) ; la lecture ne dépend pas du niveau
+     */
+    public static byte[] encodeBlock(List<ActivityDetection> detections, int compressionLevel) throws IOException {
+        int count = detections.size();
+        long[] timestamps = new long[count];
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            timestamps[i] = toMillis(detections.get(i).getTimestamp());
+            min = Math.min(min, timestamps[i]);
+            max = Math.max(max, timestamps[i]);
+        }
+        if (count == 0) {
+            min = 0;
+            max = 0;
+        }
+
+        Map<Column, byte[]> columns = new HashMap<>();
+        columns.put(Column.TIMESTAMP, encodeTimestamps(timestamps, min));
+        columns.put(Column.ACTIVITY, encodeActivities(detections));
+        columns.put(Column.CONFIDENCE, encodeConfidences(detections));
+        columns.put(Column.SOURCE, encodeSources(detections));
+        columns.put(Column.SOURCE_ID, encodeSourceIds(detections));
+        columns.put(Column.PERSON, encodePerson(detections));
+        columns.put(Column.PREDICTIONS, encodePredictions(detections));
+        columns.put(Column.FUSION, encodeFusion(detections));
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        ByteArrayOutputStream directory = new ByteArrayOutputStream();
+        DataOutputStream directoryOut = new DataOutputStream(directory);
+        Deflater deflater = new Deflater(compressionLevel);
+        try {
+            for (Column column : Column.values()) {
+                byte[] raw = columns.get(column);
+                byte[] compressed = deflate(deflater, raw);
+                CRC32 crc = new CRC32();
+                crc.update(compressed);
+
+                directoryOut.writeByte(column.id);
+                directoryOut.writeInt(raw.length);
+                directoryOut.writeInt(compressed.length);
+                directoryOut.writeInt((int) crc.getValue());
+                payload.write(compressed);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_HEADER_SIZE + directory.size() + payload.size());
+        DataOutputStream out = new DataOutputStream(block);
+        out.writeInt(BLOCK_MAGIC);
+        out.writeInt(count);
+        out.writeLong(min);
+        out.writeLong(max);
+        out.writeByte(Column.values().length);
+        directory.writeTo(out);
+        payload.writeTo(out);
+        out.flush();
+        return block.toByteArray();
+    }
+
+    // ========== LECTURE ==========
+
+    /**
+     * Lit toutes les détections d'un segment en ne décodant que les colonnes demandées
+     * @return le nombre d'octets lisibles (fin du dernier bloc complet)
+     */
+    public static long read(File file, Set<Column> columns, Consumer<ActivityDetection> consumer) throws IOException {
+        return read(file, columns, Long.MIN_VALUE, Long.MAX_VALUE, consumer);
+    }
+
+    /**
+     * Lit les détections d'un segment comprises dans [fromMillis, toMillis] ;
+     * les blocs hors de l'intervalle sont sautés sans décompression
+     * @return le nombre d'octets lisibles (fin du dernier bloc complet)
+     */
+    public static long read(File file, Set<Column> columns, long fromMillis, long toMillis,
+                            Consumer<ActivityDetection> consumer) throws IOException {
+        long fileLength = file.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536))) {
+            long position = 0;
+            while (position < fileLength) {
+                BlockHeader header = readHeader(in, fileLength - position);
+                if (header == null) {
+                    break;
+                }
+
+                if (header.maxTimestamp < fromMillis || header.minTimestamp > toMillis) {
+                    skipFully(in, header.payloadLength());
+                } else if (!decodeBlock(in, header, columns, fromMillis, toMillis, consumer)) {
+                    break;
+                }
+                position += header.totalLength();
+            }
+            return position;
+        }
+    }
+
+    /**
+     * Lit le résumé de chaque bloc complet d'un segment, sans décompresser les colonnes
+     */
+    public static List<BlockInfo> readBlockIndex(File file) throws IOException {
+        List<BlockInfo> blocks = new ArrayList<>();
+        long fileLength = file.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536))) {
+            long position = 0;
+            while (position < fileLength) {
+                BlockHeader header = readHeader(in, fileLength - position);
+                if (header == null) {
+                    break;
+                }
+                skipFully(in, header.payloadLength());
+                blocks.add(new BlockInfo(position, header.totalLength(), header.recordCount,
+                                         header.minTimestamp, header.maxTimestamp));
+                position += header.totalLength();
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Construit l'index temporel d'un segment à partir des en-têtes de ses blocs
+     */
+    public static TimeIndex buildIndex(File file) throws IOException {
+        return new TimeIndex(readBlockIndex(file));
+    }
+
+    /**
+     * Lit les détections de [fromMillis, toMillis] dans les blocs donnés (triés par horodatage
+     * minimal) et les émet dans l'ordre chronologique par fusion k-voies : un bloc n'est
+     * décodé que lorsque la fusion atteint son horodatage minimal
+     * @return le nombre de blocs décodés
+     */
+    public static int readRange(File file, List<BlockInfo> blocks, Set<Column> columns, long fromMillis,
+                                long toMillis, Consumer<ActivityDetection> consumer) throws IOException {
+        PriorityQueue<BlockCursor> heads = new PriorityQueue<>(Math.max(1, blocks.size()),
+                (a, b) -> Long.compare(a.current, b.current));
+        int decoded = 0;
+        int next = 0;
+
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            while (next < blocks.size() || !heads.isEmpty()) {
+                // Ouvrir les blocs susceptibles de précéder la tête de la fusion
+                while (next < blocks.size()
+                        && (heads.isEmpty() || blocks.get(next).getMinTimestamp() <= heads.peek().current)) {
+                    List<ActivityDetection> detections = readBlock(in, blocks.get(next++), columns, fromMillis, toMillis);
+                    decoded++;
+                    if (!detections.isEmpty()) {
+                        heads.add(new BlockCursor(detections));
+                    }
+                }
+                if (heads.isEmpty()) {
+                    continue;
+                }
+
+                BlockCursor head = heads.poll();
+                consumer.accept(head.next());
+                if (head.hasNext()) {
+                    heads.add(head);
+                }
+            }
+        }
+        return decoded;
+    }
+
+    /**
+     * Lit entièrement les blocs donnés, dans l'ordre de la liste (chaque bloc trié par horodatage)
+     */
+    public static void readBlocks(File file, List<BlockInfo> blocks, Set<Column> columns,
+                                  Consumer<ActivityDetection> consumer) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            for (BlockInfo block : blocks) {
+                readBlock(in, block, columns, Long.MIN_VALUE, Long.MAX_VALUE).forEach(consumer);
+            }
+        }
+    }
+
+    /**
+     * Lit les détections d'un bloc à partir de sa position dans le segment, triées par horodatage
+     */
+    private static List<ActivityDetection> readBlock(RandomAccessFile file, BlockInfo block, Set<Column> columns,
+                                                     long fromMillis, long toMillis) throws IOException {
+        byte[] bytes = new byte[(int) block.getLength()];
+        file.seek(block.getOffset());
+        file.readFully(bytes);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        BlockHeader header = readHeader(in, bytes.length);
+        List<ActivityDetection> detections = new ArrayList<>(header != null ? header.recordCount : 0);
+        if (header == null || !decodeBlock(in, header, columns, fromMillis, toMillis, detections::add)) {
+            return Collections.emptyList();
+        }
+
+        // Les blocs sont écrits triés ; un bloc importé désordonné est retrié
+        for (int i = 1; i < detections.size(); i++) {
+            if (detections.get(i).getTimestamp().isBefore(detections.get(i - 1).getTimestamp())) {
+                detections.sort((a, b) -> a.getTimestamp().compareTo(b.getTimestamp()));
+                break;
+            }
+        }
+        return detections;
+    }
+
+    /**
+     * Copie d'une détection limitée aux colonnes demandées (horodatage toujours inclus)
+     */
+    public static ActivityDetection project(ActivityDetection detection, Set<Column> columns) {
+        ActivityDetection projected = new ActivityDetection();
+        projected.setTimestamp(detection.getTimestamp());
+        if (columns.contains(Column.ACTIVITY)) {
+            projected.setPredictedActivity(detection.getPredictedActivity());
+        }
+        if (columns.contains(Column.CONFIDENCE)) {
+            projected.setConfidence(detection.getConfidence());
+        }
+        if (columns.contains(Column.SOURCE)) {
+            projected.setSource(detection.getSource());
+        }
+        if (columns.contains(Column.SOURCE_ID)) {
+            projected.setSourceId(detection.getSourceId());
+        }
+        if (columns.contains(Column.PERSON)) {
+            projected.setPersonDetected(detection.isPersonDetected());
+            projected.setPersonConfidence(detection.getPersonConfidence());
+        }
+        if (columns.contains(Column.PREDICTIONS)) {
+            projected.setScores(detection.getScores());
+        }
+        if (columns.contains(Column.FUSION)) {
+            projected.setFusionWeights(detection.getFusionWeights());
+        }
+        return projected;
+    }
+
+    /**
+     * Conversion d'horodatage en millisecondes (heure locale, sans fuseau)
+     */
+    public static long toMillis(LocalDateTime timestamp) {
+        return timestamp.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    /**
+     * Conversion inverse de {@link #toMillis(LocalDateTime)}
+     */
+    public static LocalDateTime fromMillis(long millis) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000L),
+                                           (int) Math.floorMod(millis, 1000L) * 1_000_000, ZoneOffset.UTC);
+    }
+
+    // ========== BLOCS ==========
+
+    private static final class BlockHeader {
+        int recordCount;
+        long minTimestamp;
+        long maxTimestamp;
+        int[] columnIds;
+        int[] rawLengths;
+        int[] compressedLengths;
+        int[] crcs;
+
+        long payloadLength() {
+            long length = 0;
+            for (int compressed : compressedLengths) {
+                length += compressed;
+            }
+            return length;
+        }
+
+        long totalLength() {
+            return BLOCK_HEADER_SIZE + (long) columnIds.length * COLUMN_ENTRY_SIZE + payloadLength();
+        }
+    }
+
+    /**
+     * Lit l'en-tête d'un bloc ; null si le bloc est invalide ou tronqué
+     */
+    private static BlockHeader readHeader(DataInputStream in, long remaining) throws IOException {
+        if (remaining < BLOCK_HEADER_SIZE) {
+            return null;
+        }
+        try {
+            if (in.readInt() != BLOCK_MAGIC) {
+                return null;
+            }
+            BlockHeader header = new BlockHeader();
+            header.recordCount = in.readInt();
+            header.minTimestamp = in.readLong();
+            header.maxTimestamp = in.readLong();
+            int columnCount = in.readUnsignedByte();
+            if (header.recordCount < 0 || remaining < BLOCK_HEADER_SIZE + (long) columnCount * COLUMN_ENTRY_SIZE) {
+                return null;
+            }
+
+            header.columnIds = new int[columnCount];
+            header.rawLengths = new int[columnCount];
+            header.compressedLengths = new int[columnCount];
+            header.crcs = new int[columnCount];
+            for (int c = 0; c < columnCount; c++) {
+                header.columnIds[c] = in.readUnsignedByte();
+                header.rawLengths[c] = in.readInt();
+                header.compressedLengths[c] = in.readInt();
+                header.crcs[c] = in.readInt();
+                if (header.rawLengths[c] < 0 || header.compressedLengths[c] < 0) {
+                    return null;
+                }
+            }
+            return header.totalLength() <= remaining ? header : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Décode les colonnes demandées d'un bloc (les autres sont sautées)
+     * @return false si une colonne est corrompue
+     */
+    private static boolean decodeBlock(DataInputStream in, BlockHeader header, Set<Column> columns,
+                                       long fromMillis, long toMillis, Consumer<ActivityDetection> consumer)
+            throws IOException {
+        int count = header.recordCount;
+        ActivityDetection[] detections = new ActivityDetection[count];
+        for (int i = 0; i < count; i++) {
+            detections[i] = new ActivityDetection();
+        }
+
+        Inflater inflater = new Inflater();
+        try {
+            for (int c = 0; c < header.columnIds.length; c++) {
+                Column column = Column.fromId(header.columnIds[c]);
+                if (column == null || (column != Column.TIMESTAMP && !columns.contains(column))) {
+                    skipFully(in, header.compressedLengths[c]);
+                    continue;
+                }
+
+                byte[] compressed = new byte[header.compressedLengths[c]];
+                in.readFully(compressed);
+                CRC32 crc = new CRC32();
+                crc.update(compressed);
+                if ((int) crc.getValue() != header.crcs[c]) {
+                    return false;
+                }
+
+                byte[] raw = inflate(inflater, compressed, header.rawLengths[c]);
+                decodeColumn(column, new DataInputStream(new ByteArrayInputStream(raw)),
+                             detections, header.minTimestamp);
+            }
+        } catch (DataFormatException e) {
+            return false;
+        } finally {
+            inflater.end();
+        }
+
+        for (ActivityDetection detection : detections) {
+            long millis = toMillis(detection.getTimestamp());
+            if (millis >= fromMillis && millis <= toMillis) {
+                consumer.accept(detection);
+            }
+        }
+        return true;
+    }
+
+    // ========== COLONNES ==========
+
+    private static byte[] encodeTimestamps(long[] timestamps, long base) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(timestamps.length * 2);
+        long previous = base;
+        for (long timestamp : timestamps) {
+            writeVarLong(bytes, zigZag(timestamp - previous));
+            previous = timestamp;
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeActivities(List<ActivityDetection> detections) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        List<String> others = new ArrayList<>();
+        for (ActivityDetection detection : detections) {
+            int ordinal = activityOrdinal(detection.getPredictedActivity());
+            bytes.write(ordinal);
+            if (ordinal == OTHER_ACTIVITY) {
+                others.add(detection.getPredictedActivity());
+            }
+        }
+        // Activités hors énumération, dans l'ordre d'apparition
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (String other : others) {
+            out.writeUTF(other);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeConfidences(List<ActivityDetection> detections) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(detections.size() * 2);
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (ActivityDetection detection : detections) {
+            out.writeShort(quantize(detection.getConfidence()));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeSources(List<ActivityDetection> detections) {
+        byte[] bytes = new byte[detections.size()];
+        for (int i = 0; i < bytes.length; i++) {
+            DetectionSource source = detections.get(i).getSource();
+            bytes[i] = (byte) (source != null ? source.ordinal() : NO_SOURCE);
+        }
+        return bytes;
+    }
+
+    private static byte[] encodeSourceIds(List<ActivityDetection> detections) throws IOException {
+        // Dictionnaire des identifiants du bloc, puis un index varint par détection (0 : aucun)
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<String> entries = new ArrayList<>();
+        ByteArrayOutputStream indexes = new ByteArrayOutputStream(detections.size());
+        for (ActivityDetection detection : detections) {
+            String sourceId = detection.getSourceId();
+            if (sourceId == null) {
+                writeVarLong(indexes, 0);
+                continue;
+            }
+            Integer index = dictionary.get(sourceId);
+            if (index == null) {
+                entries.add(sourceId);
+                index = entries.size();
+                dictionary.put(sourceId, index);
+            }
+            writeVarLong(indexes, index);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeVarLong(bytes, entries.size());
+        for (String entry : entries) {
+            out.writeUTF(entry);
+        }
+        indexes.writeTo(bytes);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodePerson(List<ActivityDetection> detections) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(detections.size() * 3);
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (ActivityDetection detection : detections) {
+            out.writeByte(detection.isPersonDetected() ? 1 : 0);
+            out.writeShort(quantize(detection.getPersonConfidence()));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodePredictions(List<ActivityDetection> detections) throws IOException {
+        // Scores indexés par ordinal d'ActivityClass, précédés d'un indicateur de présence
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (ActivityDetection detection : detections) {
+            float[] scores = detection.getScores();
+            if (scores == null) {
+                out.writeByte(0);
+                continue;
+            }
+            out.writeByte(scores.length);
+            for (float score : scores) {
+                out.writeShort(quantize(score));
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeFusion(List<ActivityDetection> detections) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (ActivityDetection detection : detections) {
+            FusionWeights weights = detection.getFusionWeights();
+            if (weights == null) {
+                out.writeByte(0);
+                continue;
+            }
+            out.writeByte(1);
+            out.writeShort(quantize(weights.getImageWeight()));
+            out.writeShort(quantize(weights.getSoundWeight()));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void decodeColumn(Column column, DataInputStream in, ActivityDetection[] detections, long base)
+            throws IOException {
+        switch (column) {
+            case TIMESTAMP: {
+                long previous = base;
+                for (ActivityDetection detection : detections) {
+                    previous += unZigZag(readVarLong(in));
+                    detection.setTimestamp(fromMillis(previous));
+                }
+                break;
+            }
+            case ACTIVITY: {
+                int[] ordinals = new int[detections.length];
+                for (int i = 0; i < detections.length; i++) {
+                    ordinals[i] = in.readUnsignedByte();
+                }
+                ActivityClass[] classes = ActivityClass.values();
+                for (int i = 0; i < detections.length; i++) {
+                    if (ordinals[i] < classes.length) {
+                        detections[i].setPredictedActivity(classes[ordinals[i]].name());
+                    } else if (ordinals[i] == OTHER_ACTIVITY && in.available() > 0) {
+                        detections[i].setPredictedActivity(in.readUTF());
+                    }
+                }
+                break;
+            }
+            case CONFIDENCE:
+                for (ActivityDetection detection : detections) {
+                    detection.setConfidence(dequantize(in.readUnsignedShort()));
+                }
+                break;
+            case SOURCE: {
+                DetectionSource[] sources = DetectionSource.values();
+                for (ActivityDetection detection : detections) {
+                    int ordinal = in.readUnsignedByte();
+                    detection.setSource(ordinal < sources.length ? sources[ordinal] : null);
+                }
+                break;
+            }
+            case SOURCE_ID: {
+                int entryCount = (int) readVarLong(in);
+                String[] entries = new String[entryCount + 1];
+                for (int i = 1; i <= entryCount; i++) {
+                    entries[i] = in.readUTF();
+                }
+                for (ActivityDetection detection : detections) {
+                    int index = (int) readVarLong(in);
+                    detection.setSourceId(index > 0 && index <= entryCount ? entries[index] : null);
+                }
+                break;
+            }
+            case PERSON:
+                for (ActivityDetection detection : detections) {
+                    detection.setPersonDetected(in.readUnsignedByte() != 0);
+                    detection.setPersonConfidence(dequantize(in.readUnsignedShort()));
+                }
+                break;
+            case PREDICTIONS:
+                for (ActivityDetection detection : detections) {
+                    int length = in.readUnsignedByte();
+                    if (length == 0) {
+                        continue;
+                    }
+                    float[] scores = new float[length];
+                    for (int k = 0; k < length; k++) {
+                        scores[k] = (float) dequantize(in.readUnsignedShort());
+                    }
+                    detection.setScores(scores);
+                }
+                break;
+            case FUSION:
+                for (ActivityDetection detection : detections) {
+                    if (in.readUnsignedByte() != 0) {
+                        detection.setFusionWeights(new FusionWeights(dequantize(in.readUnsignedShort()),
+                                                                     dequantize(in.readUnsignedShort())));
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    // ========== UTILITAIRES ==========
+
+    private static int activityOrdinal(String activity) {
+        if (activity == null) {
+            return NO_ACTIVITY;
+        }
+        try {
+            return ActivityClass.valueOf(activity).ordinal();
+        } catch (IllegalArgumentException e) {
+            return OTHER_ACTIVITY;
+        }
+    }
+
+    static int quantize(double value) {
+        return Math.round((float) Math.max(0.0, Math.min(1.0, value)) * QUANTIZATION);
+    }
+
+    private static double dequantize(int value) {
+        return value / (double) QUANTIZATION;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] raw) {
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 2));
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            int length = deflater.deflate(buffer);
+            out.write(buffer, 0, length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(Inflater inflater, byte[] compressed, int rawLength) throws DataFormatException {
+        inflater.reset();
+        inflater.setInput(compressed);
+        byte[] raw = new byte[rawLength];
+        int offset = 0;
+        while (offset < rawLength && !inflater.finished()) {
+            int length = inflater.inflate(raw, offset, rawLength - offset);
+            if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                throw new DataFormatException("Colonne tronquée");
+            }
+            offset += length;
+        }
+        return raw;
+    }
+
+    private static void skipFully(DataInputStream in, long length) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private static BlockInfo readBlockInfo(byte[] block, long offset) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(block));
+        BlockHeader header = readHeader(in, block.length);
+        if (header == null) {
+            throw new IOException("Bloc de segment invalide");
+        }
+        return new BlockInfo(offset, header.totalLength(), header.recordCount,
+                             header.minTimestamp, header.maxTimestamp);
+    }
+}
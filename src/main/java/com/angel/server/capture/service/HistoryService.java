@@ -15,15 +15,25 @@ import java.io.File;
 import java.io.IOException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
  * Service de gestion de l'historique des détections d'activité
- * Sauvegarde simple basée sur des fichiers JSON
+ * Le stockage est choisi par 'history.store' : fichiers par jour (jsonl, segment ou json,
+ * voir {@link FileHistoryStore}) par défaut, ou base H2 embarquée (voir {@link H2HistoryStore})
+ * pour interroger rapidement des mois d'historique. Le service garde devant le stockage
+ * le buffer des détections, le cache des jours chargés et le verrou des lectures/écritures
+ *
+ * Les détections en attente de sauvegarde sont protégées par un journal d'écriture anticipée
+ * à validation groupée (voir {@link HistoryJournal}), relu au démarrage après un arrêt brutal.
+ * Les jours clos sont compactés après minuit par un thread de basse priorité (voir {@link HistoryCompactor})
  */
 @Service
 public class HistoryService {
@@ -32,13 +42,51 @@ public class HistoryService {
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
     private static final DateTimeFormatter DATETIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
 
+    // Stockages d'historique
+    private static final String STORE_FILE = "file";
+    private static final String STORE_H2 = "h2";
+    private static final String JOURNAL_DIRECTORY = "journal";
+
     // Configuration depuis application.properties
     @Value("${history.directory}")
     private String historyDirectory;
 
-    @Value("${history.file.format}")
+    @Value("${history.store:file}")
+    private String storeType;
+
+    @Value("${history.file.format:jsonl}")
     private String fileFormat;
 
+    @Value("${history.jdbc.url:}")
+    private String jdbcUrl;
+
+    @Value("${history.jdbc.batch.size:500}")
+    private int jdbcBatchSize;
+
+    @Value("${history.jdbc.import.files:true}")
+    private boolean jdbcImportFiles;
+
+    @Value("${history.segment.block.minutes:1}")
+    private int segmentBlockMinutes;
+
+    @Value("${history.compaction.enabled:true}")
+    private boolean compactionEnabled;
+
+    @Value("${history.compaction.block.minutes:60}")
+    private int compactionBlockMinutes;
+
+    @Value("${history.compaction.max.bytes.per.second:4194304}")
+    private long compactionMaxBytesPerSecond;
+
+    @Value("${history.compaction.cpu.percent:25}")
+    private int compactionCpuPercent;
+
+    @Value("${history.rollup.max.gap.seconds:30}")
+    private int rollupMaxGapSeconds;
+
+    @Value("${history.cache.max.records:200000}")
+    private int cacheMaxRecords;
+
     @Value("${history.rotation.daily}")
     private boolean dailyRotation;
 
@@ -48,15 +96,38 @@ public class HistoryService {
     @Value("${history.auto.save.interval}")
     private int autoSaveInterval;
 
+    @Value("${history.buffer.flush.threshold:1000}")
+    private int bufferFlushThreshold;
+
+    @Value("${history.journal.enabled:true}")
+    private boolean journalEnabled;
+
+    @Value("${history.journal.commit.interval.ms:200}")
+    private long journalCommitIntervalMs;
+
+    @Value("${history.journal.commit.max.records:256}")
+    private int journalCommitMaxRecords;
+
     // Composants
     private final ObjectMapper objectMapper = new ObjectMapper();
     private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
     
-    // Buffer des détections en mémoire
-    private final Queue<ActivityDetection> detectionBuffer = new ConcurrentLinkedQueue<>();
+    // Buffer des détections en mémoire, rempli dans l'ordre du journal (protégés par bufferLock)
+    private final Object bufferLock = new Object();
+    private List<ActivityDetection> detectionBuffer = new ArrayList<>();
+    private final AtomicBoolean flushing = new AtomicBoolean(false);
+
+    // Journal d'écriture anticipée (null si désactivé ou indisponible)
+    private HistoryJournal journal;
     
-    // Cache des historiques chargés
-    private final Map<String, List<ActivityDetection>> historyCache = new HashMap<>();
+    // Cache LRU des historiques chargés (instantanés immuables par jour)
+    private HistoryDayCache historyCache;
+
+    // Stockage persistant (fichiers ou base embarquée)
+    private HistoryStore store;
+
+    // Compaction des jours clos (null si désactivée)
+    private HistoryCompactor compactor;
 
     @PostConstruct
     public void initialize() {
@@ -64,6 +135,8 @@ public class HistoryService {
         
         // Configurer ObjectMapper pour les dates
         objectMapper.registerModule(new JavaTimeModule());
+
+        historyCache = new HistoryDayCache(cacheMaxRecords);
         
         // Créer le répertoire d'historique s'il n'existe pas
         File historyDir = new File(historyDirectory);
@@ -71,9 +144,17 @@ public class HistoryService {
             historyDir.mkdirs();
             logger.info("Répertoire d'historique créé: {}", historyDirectory);
         }
+
+        store = createStore();
+
+        // Reprendre les détections du journal avant toute nouvelle écriture
+        openJournal();
         
         // Nettoyer les anciens fichiers
         cleanupOldFiles();
+
+        // Compacter les jours clos laissés en l'état (service arrêté à minuit)
+        startCompactor();
         
         logger.info("Service d'historique initialisé");
     }
@@ -86,12 +167,30 @@ public class HistoryService {
             return;
         }
 
-        // Ajouter au buffer
-        detectionBuffer.offer(detection);
-        
-        // Limiter la taille du buffer
-        while (detectionBuffer.size() > 1000) {
-            detectionBuffer.poll();
+        // Mettre à jour les agrégats
+        store.track(detection);
+
+        // Journaliser puis ajouter au buffer, dans le même ordre
+        int buffered;
+        synchronized (bufferLock) {
+            if (journal != null) {
+                try {
+                    journal.append(detection);
+                } catch (IOException e) {
+                    logger.error("Erreur lors de la journalisation de la détection: {}", e.getMessage());
+                }
+            }
+            detectionBuffer.add(detection);
+            buffered = detectionBuffer.size();
+        }
+
+        // Au-delà du seuil, sauvegarder par anticipation plutôt que d'abandonner des détections
+        if (buffered >= bufferFlushThreshold && flushing.compareAndSet(false, true)) {
+            try {
+                autoSave();
+            } finally {
+                flushing.set(false);
+            }
         }
 
         logger.debug("Détection ajoutée à l'historique: {}", detection.getPredictedActivity());
@@ -102,108 +201,263 @@ public class HistoryService {
      */
     @Scheduled(fixedRateString = "${history.auto.save.interval}000") // Convertir en millisecondes
     public void autoSave() {
-        if (detectionBuffer.isEmpty()) {
-            return;
+        // Vider le buffer et sceller le journal qui contient exactement ces détections
+        List<ActivityDetection> detectionsToSave;
+        File sealedJournal = null;
+        synchronized (bufferLock) {
+            if (detectionBuffer.isEmpty()) {
+                return;
+            }
+            detectionsToSave = detectionBuffer;
+            detectionBuffer = new ArrayList<>();
+            if (journal != null) {
+                try {
+                    sealedJournal = journal.seal();
+                } catch (IOException e) {
+                    logger.error("Erreur lors du scellement du journal d'historique: {}", e.getMessage());
+                }
+            }
         }
 
-        logger.debug("Sauvegarde automatique de {} détections", detectionBuffer.size());
-        
-        List<ActivityDetection> detectionsToSave = new ArrayList<>();
-        ActivityDetection detection;
-        while ((detection = detectionBuffer.poll()) != null) {
-            detectionsToSave.add(detection);
+        logger.debug("Sauvegarde automatique de {} détections", detectionsToSave.size());
+
+        // Le journal scellé n'est supprimé qu'une fois les détections et leurs agrégats écrits sur disque ;
+        // en cas d'échec il est conservé et relu au prochain démarrage
+        boolean saved = saveDetections(detectionsToSave);
+        store.flush();
+        if (saved && sealedJournal != null) {
+            journal.discard(Collections.singletonList(sealedJournal));
         }
+    }
+
+    // ========== STOCKAGE ==========
 
-        if (!detectionsToSave.isEmpty()) {
-            saveDetections(detectionsToSave);
+    /**
+     * Crée le stockage configuré ; en cas d'échec d'ouverture de la base, l'historique
+     * reste enregistré en fichiers
+     */
+    private HistoryStore createStore() {
+        // Écritures synchronisées sur disque avant suppression du journal qui les couvre
+        boolean sync = journalEnabled;
+
+        if (STORE_H2.equalsIgnoreCase(storeType)) {
+            String url = jdbcUrl != null && !jdbcUrl.isEmpty()
+                    ? jdbcUrl
+                    : "jdbc:h2:file:" + new File(historyDirectory, "history").getAbsolutePath();
+            H2HistoryStore h2Store = new H2HistoryStore(url, jdbcBatchSize, rollupMaxGapSeconds, sync);
+            try {
+                h2Store.open();
+                if (jdbcImportFiles) {
+                    importFileHistory(h2Store);
+                }
+                return h2Store;
+            } catch (Exception e) {
+                logger.error("Erreur lors de l'ouverture de la base d'historique, stockage en fichiers: {}",
+                            e.getMessage());
+            }
+        } else if (!STORE_FILE.equalsIgnoreCase(storeType)) {
+            logger.warn("Stockage d'historique inconnu '{}', stockage en fichiers", storeType);
         }
+
+        return new FileHistoryStore(new File(historyDirectory), fileFormat, segmentBlockMinutes,
+                                    compactionBlockMinutes, rollupMaxGapSeconds, sync, objectMapper);
     }
 
     /**
-     * Sauvegarde une liste de détections
+     * Reprend dans la base les jours de l'historique en fichiers (passage du stockage file au stockage h2)
+     * Chaque jour est inséré et marqué comme importé en une transaction : un import interrompu reprend
+     * au démarrage suivant, et un jour importé puis supprimé de la base (API, rétention) n'est jamais
+     * réimporté. Un jour déjà présent dans la base est marqué sans être importé. Les fichiers sont conservés
      */
-    private void saveDetections(List<ActivityDetection> detections) {
-        lock.writeLock().lock();
-        try {
-            // Grouper les détections par date
-            Map<String, List<ActivityDetection>> detectionsByDate = detections.stream()
-                .collect(Collectors.groupingBy(d -> d.getTimestamp().toLocalDate().format(DATE_FORMATTER)));
+    private void importFileHistory(H2HistoryStore h2Store) {
+        FileHistoryStore fileStore = new FileHistoryStore(new File(historyDirectory), fileFormat, segmentBlockMinutes,
+                                                          compactionBlockMinutes, rollupMaxGapSeconds, false,
+                                                          objectMapper);
+        SortedSet<String> days = fileStore.listDays();
+        days.removeAll(h2Store.listImportedDays());
+        if (days.isEmpty()) {
+            return;
+        }
 
-            for (Map.Entry<String, List<ActivityDetection>> entry : detectionsByDate.entrySet()) {
-                String date = entry.getKey();
-                List<ActivityDetection> dailyDetections = entry.getValue();
-                
-                // Charger les détections existantes
-                List<ActivityDetection> existingDetections = loadDetectionsForDate(date);
-                existingDetections.addAll(dailyDetections);
-                
-                // Trier par timestamp
-                existingDetections.sort(Comparator.comparing(ActivityDetection::getTimestamp));
-                
-                // Sauvegarder
-                saveDetectionsForDate(date, existingDetections);
-                
-                // Mettre à jour le cache
-                historyCache.put(date, existingDetections);
+        logger.info("Import de l'historique en fichiers dans la base: {} jour(s)", days.size());
+        Set<String> storedDays = h2Store.listDays();
+        int importedDays = 0;
+        long importedDetections = 0;
+        for (String date : days) {
+            List<ActivityDetection> detections = storedDays.contains(date)
+                    ? Collections.emptyList()
+                    : fileStore.readDay(date);
+            if (!h2Store.importDay(date, detections)) {
+                logger.warn("Import de l'historique interrompu au {}, repris au prochain démarrage", date);
+                break;
+            }
+            if (!detections.isEmpty()) {
+                importedDays++;
+                importedDetections += detections.size();
             }
-            
-        } catch (Exception e) {
-            logger.error("Erreur lors de la sauvegarde des détections: {}", e.getMessage());
-        } finally {
-            lock.writeLock().unlock();
         }
+        logger.info("Historique en fichiers importé: {} jour(s), {} détections", importedDays, importedDetections);
+    }
+
+    // ========== COMPACTION ==========
+
+    private void startCompactor() {
+        if (!compactionEnabled) {
+            return;
+        }
+        compactor = new HistoryCompactor(store, lock, historyCache::remove,
+                                         new IoThrottle(compactionMaxBytesPerSecond, compactionCpuPercent));
+        compactor.start();
+        compactor.requestPass();
     }
 
     /**
-     * Charge les détections pour une date donnée
+     * Compacte les jours clos en tâche de fond (le jour écoulé, et ceux restés non compactés)
      */
-    private List<ActivityDetection> loadDetectionsForDate(String date) {
-        // Vérifier le cache
-        if (historyCache.containsKey(date)) {
-            return new ArrayList<>(historyCache.get(date));
+    @Scheduled(cron = "${history.compaction.cron:0 15 0 * * ?}") // Après minuit
+    public void compactClosedDays() {
+        if (compactor != null) {
+            compactor.requestPass();
         }
+    }
+
+    // ========== JOURNAL ==========
 
-        File file = getFileForDate(date);
-        if (!file.exists()) {
-            return new ArrayList<>();
+    /**
+     * Ouvre le journal d'écriture anticipée après avoir sauvegardé les détections qu'il contient
+     * encore (arrêt brutal) ; les détections déjà présentes dans l'historique ne sont pas dupliquées
+     */
+    private void openJournal() {
+        if (!journalEnabled) {
+            return;
         }
 
+        HistoryJournal opened = new HistoryJournal(new File(historyDirectory, JOURNAL_DIRECTORY), objectMapper,
+                                                   journalCommitIntervalMs, journalCommitMaxRecords);
         try {
-            ActivityDetection[] detections = objectMapper.readValue(file, ActivityDetection[].class);
-            List<ActivityDetection> detectionList = Arrays.asList(detections);
-            
-            // Mettre en cache
-            historyCache.put(date, new ArrayList<>(detectionList));
-            
-            return new ArrayList<>(detectionList);
-            
+            HistoryJournal.Recovery recovery = opened.recover();
+            List<ActivityDetection> recovered = recovery.getDetections();
+            if (recovered.isEmpty()) {
+                opened.discard(recovery.getFiles());
+            } else {
+                List<ActivityDetection> missing = withoutSavedDetections(recovered);
+                logger.info("Reprise du journal d'historique: {} détections relues, {} à sauvegarder",
+                           recovered.size(), missing.size());
+                if (missing.isEmpty() || saveDetections(missing)) {
+                    // Les agrégats sauvegardés peuvent ne pas correspondre aux détections reprises
+                    recovered.stream().map(HistoryService::dateOf).distinct().forEach(store::invalidateSummary);
+                    opened.discard(recovery.getFiles());
+                }
+            }
+
+            opened.open();
+            journal = opened;
         } catch (IOException e) {
-            logger.error("Erreur lors du chargement des détections pour {}: {}", date, e.getMessage());
-            return new ArrayList<>();
+            logger.error("Erreur lors de l'ouverture du journal d'historique: {}", e.getMessage());
         }
     }
 
     /**
-     * Sauvegarde les détections pour une date donnée
+     * Retire des détections reprises du journal celles déjà sauvegardées dans l'historique
+     * (arrêt entre la sauvegarde et la suppression du journal). La comparaison se fait aux précisions
+     * communes des formats : horodatage à la seconde, confiance sur 16 bits
      */
-    private void saveDetectionsForDate(String date, List<ActivityDetection> detections) {
-        File file = getFileForDate(date);
-        
+    private List<ActivityDetection> withoutSavedDetections(List<ActivityDetection> recovered) {
+        LocalDateTime from = null;
+        LocalDateTime to = null;
+        for (ActivityDetection detection : recovered) {
+            LocalDateTime timestamp = detection.getTimestamp();
+            from = from == null || timestamp.isBefore(from) ? timestamp : from;
+            to = to == null || timestamp.isAfter(to) ? timestamp : to;
+        }
+
+        Map<String, Integer> saved = new HashMap<>();
+        forEachDetectionInRange(from.withNano(0), to.withNano(999_999_999), HistorySegment.SUMMARY_COLUMNS,
+                                detection -> saved.merge(journalKey(detection), 1, Integer::sum));
+
+        List<ActivityDetection> missing = new ArrayList<>();
+        for (ActivityDetection detection : recovered) {
+            String key = journalKey(detection);
+            Integer count = saved.get(key);
+            if (count != null && count > 0) {
+                saved.put(key, count - 1);
+            } else {
+                missing.add(detection);
+            }
+        }
+        return missing;
+    }
+
+    private static String journalKey(ActivityDetection detection) {
+        return detection.getTimestamp().withNano(0) + "|" + detection.getSource() + "|" + detection.getSourceId()
+                + "|" + detection.getPredictedActivity() + "|" + HistorySegment.quantize(detection.getConfidence());
+    }
+
+    private static String dateOf(ActivityDetection detection) {
+        return detection.getTimestamp().toLocalDate().format(DATE_FORMATTER);
+    }
+
+    /**
+     * Retourne le résumé d'activité d'une période (agrégats tenus à jour ou agrégation par la base)
+     * @param granularity minute, hour ou day
+     */
+    public Map<String, Object> getActivitySummary(LocalDate startDate, LocalDate endDate, String granularity) {
+        lock.readLock().lock();
         try {
-            objectMapper.writerWithDefaultPrettyPrinter().writeValue(file, detections);
-            logger.debug("Détections sauvegardées pour {}: {} éléments", date, detections.size());
-            
-        } catch (IOException e) {
-            logger.error("Erreur lors de la sauvegarde des détections pour {}: {}", date, e.getMessage());
+            return store.getActivitySummary(startDate, endDate, granularity);
+        } finally {
+            lock.readLock().unlock();
         }
     }
 
     /**
-     * Retourne le fichier pour une date donnée
+     * Sauvegarde une liste de détections et met à jour les jours en cache
+     * @return true si toutes les détections sont écrites (et synchronisées sur disque si le journal est actif)
      */
-    private File getFileForDate(String date) {
-        String filename = String.format("detections_%s.%s", date, fileFormat);
-        return new File(historyDirectory, filename);
+    private boolean saveDetections(List<ActivityDetection> detections) {
+        lock.writeLock().lock();
+        try {
+            if (!store.append(detections)) {
+                return false;
+            }
+
+            Map<String, List<ActivityDetection>> detectionsByDate = detections.stream()
+                .collect(Collectors.groupingBy(HistoryService::dateOf));
+            for (Map.Entry<String, List<ActivityDetection>> entry : detectionsByDate.entrySet()) {
+                List<ActivityDetection> sorted = new ArrayList<>(entry.getValue());
+                sorted.sort(Comparator.comparing(ActivityDetection::getTimestamp));
+
+                // Mettre à jour le cache s'il contient déjà ce jour
+                historyCache.append(entry.getKey(), sorted);
+            }
+            return true;
+
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Charge les détections pour une date donnée
+     * Retourne l'instantané immuable partagé du cache (à copier avant toute modification)
+     */
+    private List<ActivityDetection> loadDetectionsForDate(String date) {
+        // Vérifier le cache
+        List<ActivityDetection> cached = historyCache.get(date);
+        return cached != null ? cached : readDetectionsForDate(date);
+    }
+
+    /**
+     * Lit les détections d'un jour depuis le stockage, triées, et les met en cache
+     */
+    private List<ActivityDetection> readDetectionsForDate(String date) {
+        List<ActivityDetection> detectionList = store.readDay(date);
+        if (detectionList.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        // Mettre en cache
+        return historyCache.put(date, detectionList);
     }
 
     /**
@@ -227,46 +481,197 @@ public class HistoryService {
     }
 
     /**
-     * Retourne l'historique pour une période
+     * Retourne les détections d'un jour postérieures à un curseur (null : depuis le début du jour)
+     * Le jour complet (sans curseur ni limite) est trié par horodatage ; les pages suivent l'ordre
+     * d'enregistrement, pour qu'une détection enregistrée en retard ne passe pas derrière le curseur
+     * @param limit nombre maximal de détections (0 : sans limite)
      */
-    public List<ActivityDetection> getHistoryForPeriod(LocalDate startDate, LocalDate endDate) {
+    public HistoryCursor.Page getHistoryPage(String date, HistoryCursor since, int limit) {
         lock.readLock().lock();
         try {
-            List<ActivityDetection> allDetections = new ArrayList<>();
-            
-            LocalDate currentDate = startDate;
-            while (!currentDate.isAfter(endDate)) {
-                String dateStr = currentDate.format(DATE_FORMATTER);
-                allDetections.addAll(loadDetectionsForDate(dateStr));
-                currentDate = currentDate.plusDays(1);
+            String generation = store.getDayGeneration(date);
+            if (since == null && limit <= 0) {
+                List<ActivityDetection> day = loadDetectionsForDate(date);
+                return new HistoryCursor.Page(day, new HistoryCursor(generation, day.size()), false, false);
             }
-            
-            // Trier par timestamp
-            allDetections.sort(Comparator.comparing(ActivityDetection::getTimestamp));
-            
-            return allDetections;
-            
+
+            // Jour réécrit depuis le curseur (compaction) : reprise au début du jour
+            boolean reset = since != null && !since.getGeneration().equals(generation);
+            long position = since != null && !reset ? since.getPosition() : 0;
+
+            List<ActivityDetection> detections = store.readAppended(date, position, limit > 0 ? limit + 1 : 0);
+            boolean hasMore = limit > 0 && detections.size() > limit;
+            if (hasMore) {
+                detections = new ArrayList<>(detections.subList(0, limit));
+            }
+            return new HistoryCursor.Page(detections, new HistoryCursor(generation, position + detections.size()),
+                                          hasMore, reset);
         } finally {
             lock.readLock().unlock();
         }
     }
 
+    /**
+     * Retourne une étiquette (ETag) du contenu enregistré d'un jour : elle change à chaque
+     * sauvegarde touchant ce jour (version du jour dans le stockage)
+     */
+    public String getDayETag(String date) {
+        lock.readLock().lock();
+        try {
+            return String.format("\"%s-%s\"", date, store.getDayVersion(date));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Retourne l'historique pour une période
+     */
+    public List<ActivityDetection> getHistoryForPeriod(LocalDate startDate, LocalDate endDate) {
+        return getHistoryForPeriod(startDate, endDate, HistorySegment.ALL_COLUMNS);
+    }
+
+    /**
+     * Retourne l'historique pour une période en ne chargeant que les colonnes demandées
+     * (l'horodatage est toujours renseigné)
+     */
+    public List<ActivityDetection> getHistoryForPeriod(LocalDate startDate, LocalDate endDate,
+                                                       Set<HistorySegment.Column> columns) {
+        return getHistoryForRange(startDate.atStartOfDay(), endDate.atTime(LocalTime.MAX), columns);
+    }
+
+    /**
+     * Retourne l'historique compris entre deux instants (bornes incluses), dans l'ordre chronologique
+     */
+    public List<ActivityDetection> getHistoryForRange(LocalDateTime from, LocalDateTime to,
+                                                      Set<HistorySegment.Column> columns) {
+        List<ActivityDetection> detections = new ArrayList<>();
+        forEachDetectionInRange(from, to, columns, detections::add);
+        return detections;
+    }
+
+    /**
+     * Parcourt en flux, dans l'ordre chronologique, les détections comprises entre deux instants
+     * Les jours sont disjoints et parcourus dans l'ordre : chaque jour est émis trié, sans tri global.
+     * Une exception levée par le consommateur (client déconnecté) interrompt le parcours.
+     * Un stockage indexé (segment, base) n'est lu que sur la plage demandée, par tranches d'une heure ;
+     * les autres formats passent par le cache du jour, dont la plage est délimitée par recherche dichotomique.
+     * Le verrou n'est tenu que pendant la lecture (instantané du jour ou d'une tranche) : le consommateur,
+     * qui écrit au client, est appelé verrou relâché et un client lent ne bloque pas les sauvegardes
+     */
+    public void forEachDetectionInRange(LocalDateTime from, LocalDateTime to, Set<HistorySegment.Column> columns,
+                                        Consumer<ActivityDetection> consumer) {
+        boolean allColumns = columns.containsAll(HistorySegment.ALL_COLUMNS);
+
+        LocalDate currentDate = from.toLocalDate();
+        LocalDate endDate = to.toLocalDate();
+        while (!currentDate.isAfter(endDate)) {
+            String date = currentDate.format(DATE_FORMATTER);
+            LocalDateTime dayFrom = from.isAfter(currentDate.atStartOfDay()) ? from : currentDate.atStartOfDay();
+            LocalDateTime dayTo = to.isBefore(currentDate.atTime(LocalTime.MAX)) ? to : currentDate.atTime(LocalTime.MAX);
+            currentDate = currentDate.plusDays(1);
+
+            List<ActivityDetection> day;
+            lock.readLock().lock();
+            try {
+                day = historyCache.get(date);
+                if (day == null && !store.isIndexed(date)) {
+                    day = readDetectionsForDate(date);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            if (day == null) {
+                // Lecture indexée en flux, sans charger ni mettre en cache le jour complet
+                forEachIndexedInRange(dayFrom, dayTo, columns, consumer);
+                continue;
+            }
+
+            // Instantané immuable du cache : parcouru hors verrou
+            for (int i = lowerBound(day, dayFrom); i < day.size(); i++) {
+                ActivityDetection detection = day.get(i);
+                if (detection.getTimestamp().isAfter(dayTo)) {
+                    break;
+                }
+                consumer.accept(allColumns ? detection : HistorySegment.project(detection, columns));
+            }
+        }
+    }
+
+    /**
+     * Lit un jour indexé par tranches d'une heure : chaque tranche est décodée sous verrou
+     * puis émise verrou relâché (mémoire bornée à une tranche)
+     */
+    private void forEachIndexedInRange(LocalDateTime from, LocalDateTime to, Set<HistorySegment.Column> columns,
+                                       Consumer<ActivityDetection> consumer) {
+        List<ActivityDetection> chunk = new ArrayList<>();
+        LocalDateTime chunkFrom = from;
+        while (!chunkFrom.isAfter(to)) {
+            LocalDateTime next = chunkFrom.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+            LocalDateTime chunkTo = next.isAfter(to) ? to : next.minusNanos(1);
+
+            chunk.clear();
+            lock.readLock().lock();
+            try {
+                store.forEachInRange(chunkFrom, chunkTo, columns, chunk::add);
+            } finally {
+                lock.readLock().unlock();
+            }
+            for (ActivityDetection detection : chunk) {
+                consumer.accept(detection);
+            }
+            chunkFrom = next;
+        }
+    }
+
+    /**
+     * Index de la première détection d'une liste triée qui n'est pas antérieure à l'instant donné
+     */
+    private static int lowerBound(List<ActivityDetection> detections, LocalDateTime from) {
+        int low = 0;
+        int high = detections.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (detections.get(mid).getTimestamp().isBefore(from)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
     /**
      * Retourne l'historique de la semaine
      */
     public List<ActivityDetection> getWeekHistory() {
+        return getWeekHistory(HistorySegment.ALL_COLUMNS);
+    }
+
+    /**
+     * Retourne les colonnes demandées de l'historique de la semaine
+     */
+    public List<ActivityDetection> getWeekHistory(Set<HistorySegment.Column> columns) {
         LocalDate endDate = LocalDate.now();
         LocalDate startDate = endDate.minusDays(6);
-        return getHistoryForPeriod(startDate, endDate);
+        return getHistoryForPeriod(startDate, endDate, columns);
     }
 
     /**
      * Retourne l'historique du mois
      */
     public List<ActivityDetection> getMonthHistory() {
+        return getMonthHistory(HistorySegment.ALL_COLUMNS);
+    }
+
+    /**
+     * Retourne les colonnes demandées de l'historique du mois
+     */
+    public List<ActivityDetection> getMonthHistory(Set<HistorySegment.Column> columns) {
         LocalDate endDate = LocalDate.now();
         LocalDate startDate = endDate.minusDays(29);
-        return getHistoryForPeriod(startDate, endDate);
+        return getHistoryForPeriod(startDate, endDate, columns);
     }
 
     /**
@@ -276,29 +681,20 @@ public class HistoryService {
         lock.writeLock().lock();
         try {
             boolean success = true;
-            File historyDir = new File(historyDirectory);
-            File[] files = historyDir.listFiles((dir, name) -> name.startsWith("detections_") && name.endsWith("." + fileFormat));
-            
-            if (files != null) {
-                for (File file : files) {
-                    try {
-                        String filename = file.getName();
-                        String dateStr = filename.substring("detections_".length(), filename.lastIndexOf('.'));
-                        LocalDate fileDate = LocalDate.parse(dateStr, DATE_FORMATTER);
-                        
-                        if (!fileDate.isBefore(fromDate)) {
-                            if (file.delete()) {
-                                historyCache.remove(dateStr);
-                                logger.info("Fichier d'historique supprimé: {}", filename);
-                            } else {
-                                success = false;
-                                logger.warn("Impossible de supprimer le fichier: {}", filename);
-                            }
+
+            for (String date : store.listDays()) {
+                try {
+                    if (!LocalDate.parse(date, DATE_FORMATTER).isBefore(fromDate)) {
+                        historyCache.remove(date);
+                        if (store.deleteDay(date)) {
+                            logger.info("Historique supprimé: {}", date);
+                        } else {
+                            success = false;
                         }
-                    } catch (Exception e) {
-                        logger.error("Erreur lors de la suppression du fichier {}: {}", file.getName(), e.getMessage());
-                        success = false;
                     }
+                } catch (Exception e) {
+                    logger.error("Erreur lors de la suppression de l'historique du {}: {}", date, e.getMessage());
+                    success = false;
                 }
             }
             
@@ -310,7 +706,7 @@ public class HistoryService {
     }
 
     /**
-     * Nettoie les anciens fichiers selon la politique de rétention
+     * Nettoie les anciens jours selon la politique de rétention
      */
     @Scheduled(cron = "0 0 2 * * ?") // Tous les jours à 2h du matin
     public void cleanupOldFiles() {
@@ -319,36 +715,27 @@ public class HistoryService {
         }
 
         LocalDate cutoffDate = LocalDate.now().minusDays(retentionDays);
-        logger.info("Nettoyage des fichiers d'historique antérieurs au {}", cutoffDate.format(DATE_FORMATTER));
+        logger.info("Nettoyage de l'historique antérieur au {}", cutoffDate.format(DATE_FORMATTER));
         
         lock.writeLock().lock();
         try {
-            File historyDir = new File(historyDirectory);
-            File[] files = historyDir.listFiles((dir, name) -> name.startsWith("detections_") && name.endsWith("." + fileFormat));
-            
-            if (files != null) {
-                int deletedCount = 0;
-                for (File file : files) {
-                    try {
-                        String filename = file.getName();
-                        String dateStr = filename.substring("detections_".length(), filename.lastIndexOf('.'));
-                        LocalDate fileDate = LocalDate.parse(dateStr, DATE_FORMATTER);
-                        
-                        if (fileDate.isBefore(cutoffDate)) {
-                            if (file.delete()) {
-                                historyCache.remove(dateStr);
-                                deletedCount++;
-                                logger.debug("Ancien fichier d'historique supprimé: {}", filename);
-                            }
+            int deletedCount = 0;
+            for (String date : store.listDays()) {
+                try {
+                    if (LocalDate.parse(date, DATE_FORMATTER).isBefore(cutoffDate)) {
+                        historyCache.remove(date);
+                        if (store.deleteDay(date)) {
+                            deletedCount++;
+                            logger.debug("Ancien historique supprimé: {}", date);
                         }
-                    } catch (Exception e) {
-                        logger.error("Erreur lors du nettoyage du fichier {}: {}", file.getName(), e.getMessage());
                     }
+                } catch (Exception e) {
+                    logger.error("Erreur lors du nettoyage de l'historique du {}: {}", date, e.getMessage());
                 }
-                
-                if (deletedCount > 0) {
-                    logger.info("{} anciens fichiers d'historique supprimés", deletedCount);
-                }
+            }
+
+            if (deletedCount > 0) {
+                logger.info("{} anciens jours d'historique supprimés", deletedCount);
             }
             
         } finally {
@@ -365,25 +752,29 @@ public class HistoryService {
             Map<String, Object> stats = new HashMap<>();
             
             // Compter les détections en buffer
-            stats.put("buffered_detections", detectionBuffer.size());
-            
-            // Compter les fichiers d'historique
-            File historyDir = new File(historyDirectory);
-            File[] files = historyDir.listFiles((dir, name) -> name.startsWith("detections_") && name.endsWith("." + fileFormat));
-            stats.put("history_files_count", files != null ? files.length : 0);
+            synchronized (bufferLock) {
+                stats.put("buffered_detections", detectionBuffer.size());
+            }
+            stats.put("buffer_flush_threshold", bufferFlushThreshold);
+
+            // Statistiques du journal
+            stats.put("journal_enabled", journal != null);
+            if (journal != null) {
+                stats.putAll(journal.getStats());
+            }
             
-            // Statistiques du cache
-            stats.put("cached_dates", historyCache.size());
+            // Statistiques du stockage (fichiers ou base)
+            stats.put("history_store", store instanceof H2HistoryStore ? STORE_H2 : STORE_FILE);
+            stats.putAll(store.getStats());
             
-            // Taille totale des fichiers
-            long totalSize = 0;
-            if (files != null) {
-                for (File file : files) {
-                    totalSize += file.length();
-                }
+            // Statistiques de la compaction
+            stats.put("compaction_enabled", compactor != null);
+            if (compactor != null) {
+                stats.putAll(compactor.getStats());
             }
-            stats.put("total_size_bytes", totalSize);
-            stats.put("total_size_mb", totalSize / (1024.0 * 1024.0));
+
+            // Statistiques du cache
+            stats.putAll(historyCache.getStats());
             
             // Configuration
             stats.put("retention_days", retentionDays);
@@ -423,6 +814,9 @@ public class HistoryService {
             List<ActivityDetection> detectionList = Arrays.asList(detections);
             
             saveDetections(detectionList);
+
+            // Les agrégats des jours importés sont recalculés à partir des détections
+            detectionList.stream().map(HistoryService::dateOf).distinct().forEach(store::invalidateSummary);
             
             logger.info("Historique importé depuis {}: {} détections", inputFile.getAbsolutePath(), detectionList.size());
             return true;
@@ -447,6 +841,7 @@ public class HistoryService {
         lock.writeLock().lock();
         try {
             historyCache.clear();
+            store.clearCache();
             logger.info("Cache d'historique vidé");
         } finally {
             lock.writeLock().unlock();
@@ -458,7 +853,14 @@ public class HistoryService {
      */
     @PreDestroy
     public void cleanup() {
+        if (compactor != null) {
+            compactor.close();
+        }
         logger.info("Sauvegarde finale de l'historique...");
         forceSave();
+        if (journal != null) {
+            journal.close();
+        }
+        store.close();
     }
 }
\ No newline at end of file
@@ -0,0 +1,149 @@
+package com.angel.server.capture.service;
+
+import com.angel.server.capture.model.ActivityDetection;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.function.Consumer;
+
+/**
+ * Stockage persistant de l'historique des détections
+ *
+ * {@link HistoryService} garde le buffer, le journal, le cache des jours et le verrou :
+ * les écritures et suppressions sont appelées sous verrou exclusif, les lectures sous verrou partagé.
+ * Les dates sont au format yyyy-MM-dd
+ */
+public interface HistoryStore {
+
+    /**
+     * Enregistre des détections (plusieurs jours possibles)
+     * @return true si toutes les détections sont enregistrées
+     */
+    boolean append(List<ActivityDetection> detections);
+
+    /**
+     * Lit toutes les détections d'un jour, triées par horodatage (liste vide si le jour est absent)
+     */
+    List<ActivityDetection> readDay(String date);
+
+    /**
+     * Parcourt dans l'ordre chronologique les détections comprises entre deux instants (bornes incluses)
+     * Seules les colonnes demandées sont renseignées ; l'horodatage l'est toujours
+     */
+    void forEachInRange(LocalDateTime from, LocalDateTime to, Set<HistorySegment.Column> columns,
+                        Consumer<ActivityDetection> consumer);
+
+    /**
+     * Indique si une plage d'un jour se lit sans charger le jour entier (inutile de le mettre en cache)
+     */
+    boolean isIndexed(String date);
+
+    /**
+     * Version du contenu enregistré d'un jour, modifiée à chaque enregistrement touchant ce jour
+     */
+    String getDayVersion(String date);
+
+    /**
+     * Lit les détections d'un jour dans l'ordre d'enregistrement, à partir d'une position
+     * (nombre de détections du jour enregistrées avant elles) : une détection enregistrée en retard
+     * se place après les précédentes, quel que soit son horodatage
+     * @param limit nombre maximal de détections (0 : sans limite)
+     */
+    List<ActivityDetection> readAppended(String date, long position, int limit);
+
+    /**
+     * Génération de l'ordre d'enregistrement d'un jour : elle change quand le jour est réécrit
+     * dans un autre ordre (compaction, changement de format), ce qui invalide les positions antérieures
+     */
+    String getDayGeneration(String date);
+
+    /**
+     * Jours présents dans le stockage
+     */
+    SortedSet<String> listDays();
+
+    /**
+     * Supprime toutes les détections d'un jour
+     * @return true si le jour est supprimé (ou absent)
+     */
+    boolean deleteDay(String date);
+
+    /**
+     * Résumé d'activité d'une période (totaux et tranches par activité), voir {@link ActivityRollup#toSummary}
+     * @param granularity minute, hour ou day
+     */
+    Map<String, Object> getActivitySummary(LocalDate startDate, LocalDate endDate, String granularity);
+
+    /**
+     * Signale une détection reçue, avant son enregistrement (agrégats tenus à jour en continu)
+     */
+    default void track(ActivityDetection detection) {
+    }
+
+    /**
+     * Enregistre les données dérivées modifiées (agrégats), appelé après chaque sauvegarde
+     */
+    default void flush() {
+    }
+
+    /**
+     * Oublie les données dérivées d'un jour dont les détections ont été ajoutées sans {@link #track}
+     */
+    default void invalidateSummary(String date) {
+    }
+
+    /**
+     * Forme compacte d'un jour, préparée à côté du stockage
+     */
+    interface Compaction {
+
+        /**
+         * Remplace le jour stocké par sa forme compacte (appelé sous verrou exclusif)
+         * @return true si le jour est remplacé
+         */
+        boolean install();
+
+        /**
+         * Abandonne la forme préparée (jour modifié entre-temps)
+         */
+        void discard();
+    }
+
+    /**
+     * Jours clos, antérieurs à la date donnée, dont le stockage gagne à être compacté
+     */
+    default List<String> listCompactableDays(String before) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Prépare la forme compacte d'un jour (triée, dédoublonnée, compressée) sans modifier
+     * le stockage ; appelé sans verrou, au rythme imposé par le limiteur
+     * @return la forme préparée, ou null si le jour ne peut pas être compacté
+     */
+    default Compaction prepareCompaction(String date, IoThrottle throttle) {
+        return null;
+    }
+
+    /**
+     * Libère les index ou caches propres au stockage
+     */
+    default void clearCache() {
+    }
+
+    /**
+     * Statistiques du stockage
+     */
+    Map<String, Object> getStats();
+
+    /**
+     * Ferme le stockage
+     */
+    default void close() {
+    }
+}
@@ -0,0 +1,65 @@
+package com.angel.server.capture.service;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Limiteur de rythme des tâches de fond (débit disque et part de temps de calcul)
+ *
+ * La tâche signale les octets lus ou écrits après chaque étape ; le limiteur la met en pause
+ * pour que le débit moyen ne dépasse pas la limite et que le temps de travail ne dépasse pas
+ * la part de CPU allouée (25 % : 3 ms de pause par ms de travail)
+ */
+public class IoThrottle {
+
+    private final long maxBytesPerSecond;
+    private final int cpuPercent;
+
+    private long stepStartNanos = System.nanoTime();
+    private volatile long throttledMillis;
+
+    /**
+     * @param maxBytesPerSecond débit disque maximal (0 : sans limite)
+     * @param cpuPercent part du temps consacrée au travail, de 1 à 100 (100 : sans pause)
+     */
+    public IoThrottle(long maxBytesPerSecond, int cpuPercent) {
+        this.maxBytesPerSecond = Math.max(0, maxBytesPerSecond);
+        this.cpuPercent = Math.max(1, Math.min(100, cpuPercent));
+    }
+
+    /**
+     * Marque le début d'une étape de travail
+     */
+    public void start() {
+        stepStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Termine une étape ayant lu ou écrit le nombre d'octets donné et attend le temps nécessaire
+     * avant la suivante
+     * @throws InterruptedIOException si le thread est interrompu pendant la pause (arrêt du service)
+     */
+    public void pace(long bytes) throws InterruptedIOException {
+        long workMillis = (System.nanoTime() - stepStartNanos) / 1_000_000L;
+        long cpuPause = workMillis * (100 - cpuPercent) / cpuPercent;
+        long ioPause = maxBytesPerSecond > 0 ? bytes * 1000L / maxBytesPerSecond - workMillis : 0;
+        long pause = Math.max(cpuPause, ioPause);
+
+        if (pause > 0) {
+            try {
+                Thread.sleep(pause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Tâche de fond interrompue");
+            }
+            throttledMillis += pause;
+        }
+        stepStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Temps total passé en pause
+     */
+    public long getThrottledMillis() {
+        return throttledMillis;
+    }
+}
@@ -0,0 +1,77 @@
+package com.angel.server.capture.service;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Emplacement sans verrou contenant le dernier échantillon d'une source (frame ou clip audio)
+ * Le producteur remplace l'échantillon en O(1) par échange atomique ; chaque échantillon
+ * porte un numéro de séquence croissant qui permet au consommateur de savoir s'il l'a déjà traité
+ */
+public class LatestSampleSlot<T> {
+
+    private final AtomicReference<Sample<T>> latest = new AtomicReference<>();
+
+    /**
+     * Publie un nouvel échantillon (remplace le précédent)
+     * @return le numéro de séquence attribué
+     */
+    public long publish(T value) {
+        Sample<T> previous;
+        Sample<T> next;
+        do {
+            previous = latest.get();
+            long sequence = previous != null ? previous.sequence + 1 : 1;
+            next = new Sample<>(value, sequence, System.currentTimeMillis());
+        } while (!latest.compareAndSet(previous, next));
+        return next.sequence;
+    }
+
+    /**
+     * Retourne le dernier échantillon publié (ou null)
+     */
+    public Sample<T> latest() {
+        return latest.get();
+    }
+
+    /**
+     * Retourne le dernier échantillon s'il est plus récent que la séquence donnée, sinon null
+     */
+    public Sample<T> latestAfter(long sequence) {
+        Sample<T> sample = latest.get();
+        return sample != null && sample.sequence > sequence ? sample : null;
+    }
+
+    /**
+     * Vide l'emplacement
+     */
+    public void clear() {
+        latest.set(null);
+    }
+
+    /**
+     * Échantillon immuable avec son numéro de séquence et son horodatage de publication
+     */
+    public static final class Sample<T> {
+        private final T value;
+        private final long sequence;
+        private final long timestamp;
+
+        Sample(T value, long sequence, long timestamp) {
+            this.value = value;
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.angel.server.capture.service;
+
+/**
+ * Banc de filtres triangulaires sur l'échelle de Mel, précalculé une seule fois
+ * Les poids sont stockés de façon creuse (premier bin + poids non nuls de chaque bande)
+ */
+public class MelFilterBank {
+
+    private final int numBands;
+    private final int numBins;
+    private final int[] firstBin;
+    private final float[][] weights;
+
+    public MelFilterBank(int numBands, int fftSize, float sampleRate, float minFrequency, float maxFrequency) {
+        this.numBands = numBands;
+        this.numBins = fftSize / 2 + 1;
+        this.firstBin = new int[numBands];
+        this.weights = new float[numBands][];
+
+        // Points de la bande sur l'échelle de Mel, régulièrement espacés
+        double minMel = hzToMel(minFrequency);
+        double maxMel = hzToMel(Math.min(maxFrequency, sampleRate / 2));
+        double[] edges = new double[numBands + 2];
+        for (int i = 0; i < edges.length; i++) {
+            edges[i] = melToHz(minMel + (maxMel - minMel) * i / (numBands + 1));
+        }
+
+        double binWidth = sampleRate / fftSize;
+        for (int band = 0; band < numBands; band++) {
+            double lower = edges[band];
+            double center = edges[band + 1];
+            double upper = edges[band + 2];
+
+            int start = Math.max(0, (int) Math.ceil(lower / binWidth));
+            int end = Math.min(numBins - 1, (int) Math.floor(upper / binWidth));
+            if (end < start) {
+                // Bande plus étroite qu'un bin : on retient le bin le plus proche du centre
+                start = Math.min(numBins - 1, (int) Math.round(center / binWidth));
+                end = start;
+            }
+
+            float[] bandWeights = new float[end - start + 1];
+            for (int bin = start; bin <= end; bin++) {
+                double frequency = bin * binWidth;
+                double weight;
+                if (frequency <= center) {
+                    weight = center > lower ? (frequency - lower) / (center - lower) : 1.0;
+                } else {
+                    weight = upper > center ? (upper - frequency) / (upper - center) : 1.0;
+                }
+                bandWeights[bin - start] = (float) Math.max(0.0, weight);
+            }
+            if (bandWeights.length == 1) {
+                bandWeights[0] = 1.0f;
+            }
+
+            firstBin[band] = start;
+            weights[band] = bandWeights;
+        }
+    }
+
+    /**
+     * Applique le banc de filtres à un spectre de puissance (fftSize / 2 + 1 bins)
+     */
+    public void apply(float[] power, float[] out) {
+        for (int band = 0; band < numBands; band++) {
+            float[] bandWeights = weights[band];
+            int offset = firstBin[band];
+            float sum = 0.0f;
+            for (int i = 0; i < bandWeights.length; i++) {
+                sum += bandWeights[i] * power[offset + i];
+            }
+            out[band] = sum;
+        }
+    }
+
+    public int getNumBands() {
+        return numBands;
+    }
+
+    public int getNumBins() {
+        return numBins;
+    }
+
+    public static double hzToMel(double hz) {
+        return 2595.0 * Math.log10(1.0 + hz / 700.0);
+    }
+
+    public static double melToHz(double mel) {
+        return 700.0 * (Math.pow(10.0, mel / 2595.0) - 1.0);
+    }
+}
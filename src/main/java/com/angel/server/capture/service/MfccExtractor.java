@@ -0,0 +1,159 @@
+package com.angel.server.capture.service;
+
+import java.util.Arrays;
+
+/**
+ * Extraction des coefficients MFCC à partir de spectres de puissance (STFT partagée)
+ * Le banc de filtres de Mel et la matrice de DCT-II sont précalculés une seule fois ;
+ * les coefficients sont calculés par trame, avec leurs deltas en option
+ *
+ * Les buffers de sortie sont réutilisés : une instance ne doit être utilisée
+ * que par un seul thread à la fois
+ */
+public class MfccExtractor {
+
+    private static final float LOG_FLOOR = 1e-10f;
+
+    private final int numCoefficients;
+    private final boolean deltas;
+    private final int deltaWidth;
+    private final MelFilterBank melFilterBank;
+
+    // Matrice DCT-II orthonormée [coefficient][bande]
+    private final float[][] dctMatrix;
+
+    // Buffers réutilisés
+    private final float[] melEnergies;
+    private float[][] frames = new float[0][];
+
+    /**
+     * @param numCoefficients nombre de coefficients MFCC par trame
+     * @param numMelBands nombre de bandes du banc de filtres de Mel
+     * @param fftSize taille de FFT des spectres fournis
+     * @param sampleRate fréquence d'échantillonnage
+     * @param deltas ajouter les deltas (dérivées temporelles) aux coefficients
+     */
+    public MfccExtractor(int numCoefficients, int numMelBands, int fftSize, float sampleRate, boolean deltas) {
+        if (numCoefficients <= 0 || numCoefficients > numMelBands) {
+            throw new IllegalArgumentException("Nombre de coefficients MFCC invalide: " + numCoefficients
+                    + " (bandes de Mel: " + numMelBands + ")");
+        }
+
+        this.numCoefficients = numCoefficients;
+        this.deltas = deltas;
+        this.deltaWidth = 2;
+        this.melFilterBank = new MelFilterBank(numMelBands, fftSize, sampleRate, 0.0f, sampleRate / 2);
+        this.melEnergies = new float[numMelBands];
+
+        this.dctMatrix = new float[numCoefficients][numMelBands];
+        for (int k = 0; k < numCoefficients; k++) {
+            double scale = k == 0 ? Math.sqrt(1.0 / numMelBands) : Math.sqrt(2.0 / numMelBands);
+            for (int n = 0; n < numMelBands; n++) {
+                dctMatrix[k][n] = (float) (scale * Math.cos(Math.PI * k * (n + 0.5) / numMelBands));
+            }
+        }
+    }
+
+    /**
+     * Calcule les MFCC (et deltas) de chaque trame
+     * Le tableau retourné est réutilisé par l'appel suivant
+     * @param powerFrames spectres de puissance linéaire (fftSize / 2 + 1 bins par trame)
+     * @return [trame][coefficients (+ deltas)]
+     */
+    public float[][] computeFrames(float[][] powerFrames) {
+        int numFrames = powerFrames.length;
+        int featureSize = getFeatureSize();
+        if (frames.length != numFrames || (numFrames > 0 && frames[0].length != featureSize)) {
+            frames = new float[numFrames][featureSize];
+        }
+
+        int numBands = melFilterBank.getNumBands();
+        for (int t = 0; t < numFrames; t++) {
+            melFilterBank.apply(powerFrames[t], melEnergies);
+            for (int n = 0; n < numBands; n++) {
+                melEnergies[n] = (float) Math.log(Math.max(melEnergies[n], LOG_FLOOR));
+            }
+
+            float[] out = frames[t];
+            for (int k = 0; k < numCoefficients; k++) {
+                float[] basis = dctMatrix[k];
+                float sum = 0.0f;
+                for (int n = 0; n < numBands; n++) {
+                    sum += basis[n] * melEnergies[n];
+                }
+                out[k] = sum;
+            }
+        }
+
+        if (deltas) {
+            computeDeltas(numFrames);
+        }
+        return frames;
+    }
+
+    /**
+     * Calcule le vecteur MFCC d'un clip (moyenne des trames), entrée des modèles MFCC
+     */
+    public float[] extract(float[][] powerFrames) {
+        return extract(powerFrames, new float[getFeatureSize()]);
+    }
+
+    /**
+     * Calcule le vecteur MFCC d'un clip dans le buffer fourni (au moins {@link #getFeatureSize()} valeurs)
+     */
+    public float[] extract(float[][] powerFrames, float[] features) {
+        float[][] mfccFrames = computeFrames(powerFrames);
+        Arrays.fill(features, 0, getFeatureSize(), 0.0f);
+        if (mfccFrames.length == 0) {
+            return features;
+        }
+
+        int size = getFeatureSize();
+        for (float[] frame : mfccFrames) {
+            for (int i = 0; i < size; i++) {
+                features[i] += frame[i];
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            features[i] /= mfccFrames.length;
+        }
+        return features;
+    }
+
+    /**
+     * Deltas par régression sur ±deltaWidth trames (bords répliqués)
+     */
+    private void computeDeltas(int numFrames) {
+        float denominator = 0.0f;
+        for (int n = 1; n <= deltaWidth; n++) {
+            denominator += 2 * n * n;
+        }
+
+        for (int t = 0; t < numFrames; t++) {
+            for (int k = 0; k < numCoefficients; k++) {
+                float sum = 0.0f;
+                for (int n = 1; n <= deltaWidth; n++) {
+                    float next = frames[Math.min(numFrames - 1, t + n)][k];
+                    float previous = frames[Math.max(0, t - n)][k];
+                    sum += n * (next - previous);
+                }
+                frames[t][numCoefficients + k] = sum / denominator;
+            }
+        }
+    }
+
+    /**
+     * Nombre de valeurs par trame (coefficients, doublé avec les deltas)
+     */
+    public int getFeatureSize() {
+        return deltas ? numCoefficients * 2 : numCoefficients;
+    }
+
+    public int getNumCoefficients() {
+        return numCoefficients;
+    }
+
+    public boolean hasDeltas() {
+        return deltas;
+    }
+}
@@ -45,12 +45,29 @@ public class ModelService {
     @Value("${models.activity.sound.mfcc.path}")
     private String activitySoundMfccPath;
 
+    // Fréquence d'échantillonnage native de chaque modèle de son (0 : fréquence de capture)
+    @Value("${models.activity.sound.standard.sample.rate:0}")
+    private int soundStandardSampleRate;
+
+    @Value("${models.activity.sound.spectrogram.sample.rate:0}")
+    private int soundSpectrogramSampleRate;
+
+    @Value("${models.activity.sound.mfcc.sample.rate:0}")
+    private int soundMfccSampleRate;
+
     @Value("${models.activity.image.default}")
     private String defaultImageModel;
 
     @Value("${models.activity.sound.default}")
     private String defaultSoundModel;
 
+    // Cascade de modèles d'image (modèle léger puis modèle lourd si ambiguïté)
+    @Value("${models.activity.image.cascade.light:standard}")
+    private String cascadeLightImageModel;
+
+    @Value("${models.activity.image.cascade.heavy:vgg16}")
+    private String cascadeHeavyImageModel;
+
     // Modèles de présence
     @Value("${models.presence.standard.path}")
     private String presenceStandardPath;
@@ -258,6 +275,28 @@ public class ModelService {
         }
     }
 
+    /**
+     * Retourne la fréquence d'échantillonnage attendue par un modèle de son (0 : fréquence de capture)
+     */
+    public int getSoundModelSampleRate(String modelType) {
+        switch (modelType.toLowerCase()) {
+            case "mfcc":
+                return soundMfccSampleRate;
+            case "spectrogram":
+                return soundSpectrogramSampleRate;
+            case "standard":
+            default:
+                return soundStandardSampleRate;
+        }
+    }
+
+    /**
+     * Retourne la fréquence d'échantillonnage attendue par le modèle de son par défaut
+     */
+    public int getDefaultSoundModelSampleRate() {
+        return getSoundModelSampleRate(defaultSoundModel);
+    }
+
     /**
      * Retourne le chemin du modèle de présence
      */
@@ -278,6 +317,45 @@ public class ModelService {
         return getActivityImageModel(defaultImageModel);
     }
 
+    /**
+     * Retourne le modèle léger de la cascade d'images (évalué sur chaque frame)
+     */
+    public MultiLayerNetwork getCascadeLightImageModel() {
+        return getActivityImageModel(cascadeLightImageModel);
+    }
+
+    /**
+     * Retourne le modèle lourd de la cascade d'images (évalué seulement sur les frames ambiguës)
+     */
+    public MultiLayerNetwork getCascadeHeavyImageModel() {
+        return getActivityImageModel(cascadeHeavyImageModel);
+    }
+
+    /**
+     * Retourne le nom du modèle d'image par défaut
+     */
+    public String getDefaultImageModelName() {
+        return defaultImageModel;
+    }
+
+    /**
+     * Retourne le nom du modèle de son par défaut
+     */
+    public String getDefaultSoundModelName() {
+        return defaultSoundModel;
+    }
+
+    /**
+     * Retourne les noms des modèles léger et lourd de la cascade d'images
+     */
+    public String getCascadeLightImageModelName() {
+        return cascadeLightImageModel;
+    }
+
+    public String getCascadeHeavyImageModelName() {
+        return cascadeHeavyImageModel;
+    }
+
     /**
      * Retourne le modèle de son par défaut
      */
@@ -361,6 +439,18 @@ public class ModelService {
         availability.put("presence_yolo", isModelAvailable("yolo", "presence"));
         
         stats.put("model_availability", availability);
+
+        Map<String, String> cascade = new HashMap<>();
+        cascade.put("light", cascadeLightImageModel);
+        cascade.put("heavy", cascadeHeavyImageModel);
+        stats.put("image_cascade_models", cascade);
+        stats.put("sound_model_sample_rate", getDefaultSoundModelSampleRate());
+
+        Map<String, Integer> soundSampleRates = new HashMap<>();
+        soundSampleRates.put("standard", soundStandardSampleRate);
+        soundSampleRates.put("spectrogram", soundSpectrogramSampleRate);
+        soundSampleRates.put("mfcc", soundMfccSampleRate);
+        stats.put("sound_model_sample_rates", soundSampleRates);
         
         return stats;
     }
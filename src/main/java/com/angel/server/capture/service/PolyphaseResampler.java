@@ -0,0 +1,139 @@
+package com.angel.server.capture.service;
+
+import java.util.Arrays;
+
+/**
+ * Rééchantillonneur polyphase à rapport rationnel L/M (ex. 44100 -> 16000 Hz : 160/441)
+ * Le filtre passe-bas prototype (sinc fenêtré de Blackman) est découpé en L phases
+ * précalculées ; chaque échantillon de sortie ne coûte qu'un produit scalaire de
+ * quelques dizaines de coefficients. Fonctionne en flux : l'historique est conservé d'un bloc à l'autre
+ *
+ * Une instance ne doit être utilisée que par un seul thread à la fois
+ */
+public class PolyphaseResampler {
+
+    // Coefficients par phase à la fréquence d'entrée (allongés en sous-échantillonnage)
+    private static final int BASE_TAPS_PER_PHASE = 32;
+
+    private final int inputRate;
+    private final int outputRate;
+    private final int upFactor;
+    private final int downFactor;
+    private final int tapsPerPhase;
+
+    // Coefficients par phase : polyphase[phase * tapsPerPhase + k] = h[phase + k * L] * L
+    private final float[] polyphase;
+
+    // Historique des échantillons d'entrée (tapsPerPhase - 1 échantillons conservés)
+    private float[] buffer;
+    private int filled;
+    private int position;
+    private int phase;
+
+    public PolyphaseResampler(int inputRate, int outputRate) {
+        if (inputRate <= 0 || outputRate <= 0) {
+            throw new IllegalArgumentException("Fréquences d'échantillonnage invalides: " + inputRate + " -> " + outputRate);
+        }
+
+        int divisor = gcd(inputRate, outputRate);
+        this.inputRate = inputRate;
+        this.outputRate = outputRate;
+        this.upFactor = outputRate / divisor;
+        this.downFactor = inputRate / divisor;
+        // La coupure est relative à la fréquence de sortie : garder la même raideur en sous-échantillonnage
+        this.tapsPerPhase = BASE_TAPS_PER_PHASE * Math.max(1, (downFactor + upFactor - 1) / upFactor);
+
+        // Filtre prototype à la fréquence suréchantillonnée (L x entrée), coupure sous la plus basse des Nyquist
+        int length = upFactor * tapsPerPhase;
+        double cutoff = 0.5 / Math.max(upFactor, downFactor) * 0.95;
+        double center = (length - 1) / 2.0;
+        double[] prototype = new double[length];
+        for (int n = 0; n < length; n++) {
+            double x = n - center;
+            double sinc = x == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * x) / (Math.PI * x);
+            double window = 0.42 - 0.5 * Math.cos(2 * Math.PI * n / (length - 1))
+                          + 0.08 * Math.cos(4 * Math.PI * n / (length - 1));
+            prototype[n] = sinc * window;
+        }
+
+        this.polyphase = new float[length];
+        for (int p = 0; p < upFactor; p++) {
+            for (int k = 0; k < tapsPerPhase; k++) {
+                polyphase[p * tapsPerPhase + k] = (float) (prototype[p + k * upFactor] * upFactor);
+            }
+        }
+
+        this.buffer = new float[tapsPerPhase * 2];
+        reset();
+    }
+
+    /**
+     * Rééchantillonne un bloc d'échantillons
+     * @param output buffer de sortie d'au moins {@link #maxOutputLength(int)} échantillons
+     * @return le nombre d'échantillons produits
+     */
+    public int process(float[] input, int offset, int length, float[] output) {
+        if (filled + length > buffer.length) {
+            float[] grown = new float[Math.max(buffer.length * 2, filled + length)];
+            System.arraycopy(buffer, 0, grown, 0, filled);
+            buffer = grown;
+        }
+        System.arraycopy(input, offset, buffer, filled, length);
+        filled += length;
+
+        int produced = 0;
+        while (position < filled) {
+            int coefficients = phase * tapsPerPhase;
+            float sum = 0.0f;
+            for (int k = 0; k < tapsPerPhase; k++) {
+                sum += polyphase[coefficients + k] * buffer[position - k];
+            }
+            output[produced++] = sum;
+
+            phase += downFactor;
+            position += phase / upFactor;
+            phase %= upFactor;
+        }
+
+        // Conserver l'historique nécessaire au prochain bloc
+        int keepFrom = Math.min(filled, position - (tapsPerPhase - 1));
+        System.arraycopy(buffer, keepFrom, buffer, 0, filled - keepFrom);
+        filled -= keepFrom;
+        position -= keepFrom;
+        return produced;
+    }
+
+    /**
+     * Nombre maximal d'échantillons produits pour un bloc d'entrée
+     */
+    public int maxOutputLength(int inputLength) {
+        return (int) ((long) inputLength * upFactor / downFactor) + 2;
+    }
+
+    /**
+     * Vide l'historique
+     */
+    public void reset() {
+        Arrays.fill(buffer, 0.0f);
+        filled = tapsPerPhase - 1;
+        position = tapsPerPhase - 1;
+        phase = 0;
+    }
+
+    public int getInputRate() {
+        return inputRate;
+    }
+
+    public int getOutputRate() {
+        return outputRate;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
@@ -0,0 +1,129 @@
+package com.angel.server.capture.service;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache LRU des prédictions indexé par le contenu (empreinte perceptuelle + identifiant du modèle)
+ * Borné en nombre d'entrées, avec expiration (TTL) et métriques de taux de succès
+ */
+public class PredictionCache<V> {
+
+    private final int maxSize;
+    private final long ttlMs;
+    private final LinkedHashMap<String, CacheEntry<V>> entries;
+
+    // Métriques (protégées par le verrou de l'instance)
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    public PredictionCache(int maxSize, long ttlMs) {
+        this.maxSize = Math.max(1, maxSize);
+        this.ttlMs = ttlMs;
+        // accessOrder = true : l'ordre d'itération suit l'ordre d'accès (LRU)
+        this.entries = new LinkedHashMap<String, CacheEntry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry<V>> eldest) {
+                if (size() > PredictionCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Construit la clé de cache à partir de l'identifiant du modèle et de l'empreinte du contenu
+     */
+    public static String key(String modelId, long fingerprint) {
+        return modelId + ":" + Long.toHexString(fingerprint);
+    }
+
+    /**
+     * Retourne la valeur en cache ou null si absente ou expirée
+     */
+    public synchronized V get(String key) {
+        CacheEntry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (isExpired(entry, System.currentTimeMillis())) {
+            entries.remove(key);
+            expirations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Ajoute une valeur au cache (évince l'entrée la moins récemment utilisée si le cache est plein)
+     */
+    public synchronized void put(String key, V value) {
+        entries.put(key, new CacheEntry<>(value, System.currentTimeMillis()));
+    }
+
+    /**
+     * Supprime les entrées expirées
+     * @return le nombre d'entrées supprimées
+     */
+    public synchronized int purgeExpired() {
+        long now = System.currentTimeMillis();
+        int before = entries.size();
+        entries.values().removeIf(entry -> isExpired(entry, now));
+        int removed = before - entries.size();
+        expirations += removed;
+        return removed;
+    }
+
+    /**
+     * Vide le cache (les métriques sont conservées)
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Retourne les métriques du cache
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long lookups = hits + misses;
+        stats.put("size", entries.size());
+        stats.put("max_size", maxSize);
+        stats.put("ttl_ms", ttlMs);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        stats.put("expirations", expirations);
+        stats.put("hit_rate", lookups > 0 ? (double) hits / lookups : 0.0);
+        return stats;
+    }
+
+    private boolean isExpired(CacheEntry<V> entry, long now) {
+        return ttlMs > 0 && now - entry.timestamp > ttlMs;
+    }
+
+    /**
+     * Entrée du cache
+     */
+    private static class CacheEntry<V> {
+        final V value;
+        final long timestamp;
+
+        CacheEntry(V value, long timestamp) {
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+}
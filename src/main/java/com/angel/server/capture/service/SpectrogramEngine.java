@@ -0,0 +1,249 @@
+package com.angel.server.capture.service;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Moteur de STFT (transformée de Fourier à court terme) pour les modèles audio
+ * FFT radix-2 en place, fenêtre de Hamming, tables de twiddles et de permutation
+ * précalculées ; sortie en puissance linéaire ou logarithmique (dB), sur les bins
+ * de fréquence ou sur un banc de filtres de Mel
+ *
+ * Les buffers de travail et de sortie sont réutilisés d'un appel à l'autre :
+ * une instance ne doit être utilisée que par un seul thread à la fois
+ */
+public class SpectrogramEngine {
+
+    private static final float LOG_FLOOR = 1e-10f;
+
+    private final int fftSize;
+    private final int hopSize;
+    private final int numBins;
+    private final boolean logPower;
+    private final MelFilterBank melFilterBank;
+
+    // Tables précalculées
+    private final float[] window;
+    private final float[] cosTable;
+    private final float[] sinTable;
+    private final int[] bitReverse;
+
+    // Buffers de travail réutilisés
+    private final float[] real;
+    private final float[] imag;
+    private final float[] power;
+    private float[][] output = new float[0][];
+
+    /**
+     * @param fftSize taille de la fenêtre d'analyse (puissance de 2)
+     * @param hopSize décalage entre deux trames
+     * @param sampleRate fréquence d'échantillonnage (utilisée pour le banc de Mel)
+     * @param melBands nombre de bandes de Mel (0 : bins de fréquence bruts)
+     * @param logPower sortie en dB plutôt qu'en puissance linéaire
+     */
+    public SpectrogramEngine(int fftSize, int hopSize, float sampleRate, int melBands, boolean logPower) {
+        if (fftSize < 2 || Integer.bitCount(fftSize) != 1) {
+            throw new IllegalArgumentException("La taille de FFT doit être une puissance de 2: " + fftSize);
+        }
+        if (hopSize <= 0) {
+            throw new IllegalArgumentException("Le pas entre trames doit être positif: " + hopSize);
+        }
+
+        this.fftSize = fftSize;
+        this.hopSize = hopSize;
+        this.numBins = fftSize / 2 + 1;
+        this.logPower = logPower;
+        this.melFilterBank = melBands > 0
+                ? new MelFilterBank(melBands, fftSize, sampleRate, 0.0f, sampleRate / 2)
+                : null;
+
+        // Fenêtre de Hamming
+        this.window = new float[fftSize];
+        for (int i = 0; i < fftSize; i++) {
+            window[i] = (float) (0.54 - 0.46 * Math.cos(2 * Math.PI * i / (fftSize - 1)));
+        }
+
+        // Twiddles : e^(-2iπk/N) = cos(2πk/N) - i.sin(2πk/N)
+        this.cosTable = new float[fftSize / 2];
+        this.sinTable = new float[fftSize / 2];
+        for (int k = 0; k < fftSize / 2; k++) {
+            cosTable[k] = (float) Math.cos(2 * Math.PI * k / fftSize);
+            sinTable[k] = (float) Math.sin(2 * Math.PI * k / fftSize);
+        }
+
+        // Permutation par inversion des bits
+        int bits = Integer.numberOfTrailingZeros(fftSize);
+        this.bitReverse = new int[fftSize];
+        for (int i = 0; i < fftSize; i++) {
+            bitReverse[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+
+        this.real = new float[fftSize];
+        this.imag = new float[fftSize];
+        this.power = new float[numBins];
+    }
+
+    /**
+     * Nombre de trames produites pour un nombre d'échantillons (au moins une, complétée par des zéros)
+     */
+    public int frameCount(int sampleCount) {
+        if (sampleCount <= fftSize) {
+            return 1;
+        }
+        return (sampleCount - fftSize) / hopSize + 1;
+    }
+
+    /**
+     * Calcule le spectrogramme complet d'un signal
+     * Le tableau retourné est réutilisé par l'appel suivant : le copier pour le conserver
+     */
+    public float[][] compute(float[] samples, int length) {
+        int numFrames = frameCount(length);
+        int featureSize = getFeatureSize();
+        if (output.length != numFrames || (numFrames > 0 && output[0].length != featureSize)) {
+            output = new float[numFrames][featureSize];
+        }
+        for (int frame = 0; frame < numFrames; frame++) {
+            computeFrame(samples, frame * hopSize, length, output[frame]);
+        }
+        return output;
+    }
+
+    /**
+     * Calcule les caractéristiques d'une trame commençant à offset
+     */
+    public void computeFrame(float[] samples, int offset, int length, float[] out) {
+        powerSpectrum(samples, offset, length, power);
+        toFeatures(power, out);
+    }
+
+    /**
+     * Calcule le spectre de puissance linéaire (fftSize / 2 + 1 bins) d'une trame
+     * Les échantillons au-delà de length sont considérés nuls
+     */
+    public void powerSpectrum(float[] samples, int offset, int length, float[] out) {
+        int available = Math.max(0, Math.min(fftSize, length - offset));
+        for (int i = 0; i < available; i++) {
+            real[i] = samples[offset + i] * window[i];
+        }
+        for (int i = available; i < fftSize; i++) {
+            real[i] = 0.0f;
+        }
+        Arrays.fill(imag, 0.0f);
+
+        fft(real, imag);
+
+        for (int k = 0; k < numBins; k++) {
+            out[k] = real[k] * real[k] + imag[k] * imag[k];
+        }
+    }
+
+    /**
+     * Convertit un spectre de puissance en caractéristiques de sortie (Mel et/ou dB)
+     */
+    public void toFeatures(float[] powerSpectrum, float[] out) {
+        if (melFilterBank != null) {
+            melFilterBank.apply(powerSpectrum, out);
+        } else if (out != powerSpectrum) {
+            System.arraycopy(powerSpectrum, 0, out, 0, numBins);
+        }
+        if (logPower) {
+            int size = getFeatureSize();
+            for (int i = 0; i < size; i++) {
+                out[i] = (float) (10.0 * Math.log10(Math.max(out[i], LOG_FLOOR)));
+            }
+        }
+    }
+
+    /**
+     * FFT complexe radix-2 itérative, en place
+     */
+    private void fft(float[] re, float[] im) {
+        int n = fftSize;
+
+        for (int i = 0; i < n; i++) {
+            int j = bitReverse[i];
+            if (j > i) {
+                float tmp = re[i];
+                re[i] = re[j];
+                re[j] = tmp;
+                tmp = im[i];
+                im[i] = im[j];
+                im[j] = tmp;
+            }
+        }
+
+        for (int size = 2; size <= n; size <<= 1) {
+            int half = size >> 1;
+            int step = n / size;
+            for (int start = 0; start < n; start += size) {
+                for (int k = 0; k < half; k++) {
+                    float wr = cosTable[k * step];
+                    float wi = -sinTable[k * step];
+                    int a = start + k;
+                    int b = a + half;
+                    float tr = re[b] * wr - im[b] * wi;
+                    float ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+
+    /**
+     * Convertit du PCM 16 bits little-endian en échantillons normalisés [-1, 1]
+     * Réutilise le buffer fourni s'il est assez grand
+     */
+    public static float[] toSamples(byte[] pcm, float[] buffer) {
+        return toSamples(pcm16View(pcm, 0, pcm.length), buffer);
+    }
+
+    /**
+     * Convertit des échantillons 16 bits en échantillons normalisés [-1, 1]
+     * Réutilise le buffer fourni s'il est assez grand
+     */
+    public static float[] toSamples(ShortBuffer pcm, float[] buffer) {
+        int count = pcm.remaining();
+        float[] samples = buffer != null && buffer.length >= count ? buffer : new float[count];
+        int base = pcm.position();
+        for (int i = 0; i < count; i++) {
+            samples[i] = pcm.get(base + i) / 32768.0f;
+        }
+        return samples;
+    }
+
+    /**
+     * Vue 16 bits little-endian d'octets PCM, sans copie
+     */
+    public static ShortBuffer pcm16View(byte[] pcm, int offset, int length) {
+        return ByteBuffer.wrap(pcm, offset, length).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+    }
+
+    /**
+     * Nombre de valeurs par trame en sortie (bandes de Mel ou bins de fréquence)
+     */
+    public int getFeatureSize() {
+        return melFilterBank != null ? melFilterBank.getNumBands() : numBins;
+    }
+
+    public int getFftSize() {
+        return fftSize;
+    }
+
+    public int getHopSize() {
+        return hopSize;
+    }
+
+    public int getNumBins() {
+        return numBins;
+    }
+
+    public boolean isLogPower() {
+        return logPower;
+    }
+}
@@ -0,0 +1,185 @@
+package com.angel.server.capture.service;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * STFT incrémentale d'un flux audio
+ * Les échantillons PCM sont consommés au fil de la capture : une trame de spectre
+ * de puissance est calculée à chaque pas (hop) et rangée dans une fenêtre glissante
+ * couvrant la durée d'analyse. La détection n'a plus qu'à copier la fenêtre.
+ * Un détecteur d'activité optionnel marque les trames actives de la fenêtre
+ *
+ * Un seul thread producteur (le consommateur du buffer circulaire) ; les instantanés peuvent être
+ * pris depuis n'importe quel thread
+ */
+public class StreamingFeatureExtractor {
+
+    private final SpectrogramEngine engine;
+    private final int fftSize;
+    private final int hopSize;
+    private final int numBins;
+    private final int windowFrames;
+    private final AudioActivityDetector activityDetector;
+
+    // Échantillons en attente d'analyse (thread producteur uniquement)
+    private final float[] pending;
+    private int pendingCount;
+    private final float[] scratch;
+
+    // Fenêtre glissante des spectres de puissance (protégée par le verrou de l'instance)
+    private final float[][] window;
+    private final boolean[] activeWindow;
+    private int activeFramesInWindow;
+    private long frameSequence;
+    private long lastFrameTimestamp;
+
+    /**
+     * @param engine moteur STFT dédié à ce flux (non partagé)
+     * @param windowFrames nombre de trames de la fenêtre d'analyse
+     */
+    public StreamingFeatureExtractor(SpectrogramEngine engine, int windowFrames) {
+        this(engine, windowFrames, null);
+    }
+
+    /**
+     * @param engine moteur STFT dédié à ce flux (non partagé)
+     * @param windowFrames nombre de trames de la fenêtre d'analyse
+     * @param activityDetector détecteur d'activité audio (null : toutes les trames sont actives)
+     */
+    public StreamingFeatureExtractor(SpectrogramEngine engine, int windowFrames, AudioActivityDetector activityDetector) {
+        if (engine.getHopSize() > engine.getFftSize()) {
+            // Les échantillons entre deux trames seraient perdus (et le décalage du tampon négatif)
+            throw new IllegalArgumentException("Le pas entre trames ne doit pas dépasser la taille de FFT: "
+                    + engine.getHopSize() + " > " + engine.getFftSize());
+        }
+        this.engine = engine;
+        this.activityDetector = activityDetector;
+        this.fftSize = engine.getFftSize();
+        this.hopSize = engine.getHopSize();
+        this.numBins = engine.getNumBins();
+        this.windowFrames = Math.max(1, windowFrames);
+        this.pending = new float[fftSize + hopSize];
+        this.scratch = new float[numBins];
+        this.window = new float[this.windowFrames][numBins];
+        this.activeWindow = new boolean[this.windowFrames];
+    }
+
+    /**
+     * Consomme des échantillons PCM 16 bits little-endian
+     */
+    public void accept(byte[] pcm, int offset, int length) {
+        ShortBuffer shorts = SpectrogramEngine.pcm16View(pcm, offset, length);
+        int count = shorts.remaining();
+        for (int i = 0; i < count; i++) {
+            pending[pendingCount++] = shorts.get(i) / 32768.0f;
+            if (pendingCount == pending.length) {
+                drain();
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Consomme des échantillons déjà normalisés [-1, 1]
+     */
+    public void accept(float[] samples, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            pending[pendingCount++] = samples[i];
+            if (pendingCount == pending.length) {
+                drain();
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Calcule une trame pour chaque pas complet disponible
+     */
+    private void drain() {
+        while (pendingCount >= fftSize) {
+            engine.powerSpectrum(pending, 0, fftSize, scratch);
+            boolean active = activityDetector == null || activityDetector.update(pending, 0, fftSize, scratch);
+            synchronized (this) {
+                int slot = (int) (frameSequence % windowFrames);
+                System.arraycopy(scratch, 0, window[slot], 0, numBins);
+                if (activeWindow[slot] != active) {
+                    activeFramesInWindow += active ? 1 : -1;
+                    activeWindow[slot] = active;
+                }
+                frameSequence++;
+                lastFrameTimestamp = System.currentTimeMillis();
+            }
+            // Décaler les échantillons restants d'un pas
+            System.arraycopy(pending, hopSize, pending, 0, pendingCount - hopSize);
+            pendingCount -= hopSize;
+        }
+    }
+
+    /**
+     * Copie la fenêtre d'analyse dans l'ordre chronologique si une trame plus récente
+     * que la séquence donnée est disponible et si la fenêtre est complète, sinon null
+     * @param target tableau [trames][bins] réutilisé d'un appel à l'autre (alloué s'il est null
+     *               ou n'a pas la forme de la fenêtre)
+     */
+    public synchronized LatestSampleSlot.Sample<float[][]> snapshotAfter(long sequence, float[][] target) {
+        if (frameSequence <= sequence || frameSequence < windowFrames) {
+            return null;
+        }
+
+        float[][] frames = target;
+        if (frames == null || frames.length != windowFrames || frames[0].length != numBins) {
+            frames = new float[windowFrames][numBins];
+        }
+        int oldest = (int) (frameSequence % windowFrames);
+        for (int i = 0; i < windowFrames; i++) {
+            System.arraycopy(window[(oldest + i) % windowFrames], 0, frames[i], 0, numBins);
+        }
+        return new LatestSampleSlot.Sample<>(frames, frameSequence, lastFrameTimestamp);
+    }
+
+    /**
+     * Réinitialise le flux (échantillons en attente et fenêtre)
+     */
+    public synchronized void reset() {
+        pendingCount = 0;
+        frameSequence = 0;
+        lastFrameTimestamp = 0;
+        activeFramesInWindow = 0;
+        Arrays.fill(activeWindow, false);
+        if (activityDetector != null) {
+            activityDetector.reset();
+        }
+    }
+
+    /**
+     * Vérifie si la fenêtre d'analyse contient au moins une trame active
+     */
+    public synchronized boolean isWindowActive() {
+        return activityDetector == null || activeFramesInWindow > 0;
+    }
+
+    public synchronized int getActiveFramesInWindow() {
+        return activeFramesInWindow;
+    }
+
+    public AudioActivityDetector getActivityDetector() {
+        return activityDetector;
+    }
+
+    public synchronized long getFrameSequence() {
+        return frameSequence;
+    }
+
+    public synchronized long getLastFrameTimestamp() {
+        return lastFrameTimestamp;
+    }
+
+    public int getWindowFrames() {
+        return windowFrames;
+    }
+
+    public int getHopSize() {
+        return hopSize;
+    }
+}
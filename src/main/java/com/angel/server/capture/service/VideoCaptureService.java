@@ -4,6 +4,7 @@ import org.bytedeco.javacv.*;
 import org.bytedeco.opencv.opencv_core.Mat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
@@ -12,10 +13,12 @@ import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 /**
@@ -26,6 +29,12 @@ public class VideoCaptureService {
 
     private static final Logger logger = LoggerFactory.getLogger(VideoCaptureService.class);
 
+    // Nombre maximal de trames lues par capture pour atteindre une image (trames audio intercalées)
+    private static final int MAX_GRABS_PER_CAPTURE = 64;
+
+    @Autowired
+    private AudioCaptureService audioCaptureService;
+
     // Configuration depuis application.properties
     @Value("${capture.camera.enabled}")
     private boolean cameraEnabled;
@@ -54,13 +63,18 @@ public class VideoCaptureService {
     @Value("${capture.rtsp.reconnect.delay}")
     private int rtspReconnectDelay;
 
+    // Publier la piste audio des flux RTSP comme sources audio (clé de la source vidéo)
+    @Value("${capture.rtsp.audio.enabled:false}")
+    private boolean rtspAudioEnabled;
+
     @Value("${threads.capture.pool.size}")
     private int captureThreadPoolSize;
 
     // État de la capture
     private final AtomicBoolean isCapturing = new AtomicBoolean(false);
     private final ConcurrentHashMap<String, FrameGrabber> activeGrabbers = new ConcurrentHashMap<>();
-    private final List<Consumer<BufferedImage>> frameListeners = new ArrayList<>();
+    private final List<Consumer<BufferedImage>> frameListeners = new CopyOnWriteArrayList<>();
+    private final List<BiConsumer<String, BufferedImage>> sourceFrameListeners = new CopyOnWriteArrayList<>();
     
     // Thread pool pour la capture
     private ScheduledExecutorService captureExecutor;
@@ -119,6 +133,7 @@ public class VideoCaptureService {
         // Arrêter tous les grabbers
         activeGrabbers.forEach((key, grabber) -> {
             try {
+                audioCaptureService.unregisterAudioSource(key);
                 grabber.stop();
                 grabber.release();
                 logger.info("Grabber {} arrêté", key);
@@ -162,7 +177,7 @@ public class VideoCaptureService {
             // Planifier la capture des frames
             int captureInterval = 1000 / cameraFps; // milliseconds
             captureExecutor.scheduleWithFixedDelay(
-                () -> captureFrame("local_camera", grabber),
+                () -> captureFrame("local_camera", grabber, null),
                 0, captureInterval, TimeUnit.MILLISECONDS
             );
             
@@ -187,10 +202,17 @@ public class VideoCaptureService {
             grabber.start();
             String key = "rtsp_" + rtspUrl.hashCode();
             activeGrabbers.put(key, grabber);
+
+            // Piste audio publiée sous la clé du flux : la fusion l'associe à sa propre vidéo
+            AudioSourcePipeline audioPipeline = null;
+            if (rtspAudioEnabled && grabber.hasAudio() && grabber.getSampleRate() > 0) {
+                audioPipeline = audioCaptureService.registerAudioSource(key, grabber.getSampleRate());
+            }
+            AudioSourcePipeline audio = audioPipeline;
             
             // Planifier la capture des frames
             captureExecutor.scheduleWithFixedDelay(
-                () -> captureFrame(key, grabber),
+                () -> captureFrame(key, grabber, audio),
                 0, 100, TimeUnit.MILLISECONDS // 10 fps pour RTSP
             );
             
@@ -209,16 +231,27 @@ public class VideoCaptureService {
 
     /**
      * Capture une frame depuis un grabber
+     * Si la source publie son audio, les trames audio lues avant l'image sont écrites
+     * dans sa chaîne de traitement (copiées immédiatement : le grabber réutilise ses buffers)
      */
-    private void captureFrame(String sourceKey, FrameGrabber grabber) {
+    private void captureFrame(String sourceKey, FrameGrabber grabber, AudioSourcePipeline audioPipeline) {
         try {
             Frame frame = grabber.grab();
+            if (audioPipeline != null) {
+                for (int i = 0; frame != null && frame.image == null && i < MAX_GRABS_PER_CAPTURE; i++) {
+                    if (frame.samples != null) {
+                        audioPipeline.writeSamples(frame.samples, frame.audioChannels);
+                    }
+                    frame = grabber.grab();
+                }
+            }
+
             if (frame != null && frame.image != null) {
                 // Convertir en BufferedImage
                 BufferedImage bufferedImage = java2DConverter.convert(frame);
                 if (bufferedImage != null) {
                     // Notifier tous les listeners
-                    notifyFrameListeners(bufferedImage);
+                    notifyFrameListeners(sourceKey, bufferedImage);
                 }
             }
         } catch (Exception e) {
@@ -260,7 +293,7 @@ public class VideoCaptureService {
     /**
      * Notifie tous les listeners de frame
      */
-    private void notifyFrameListeners(BufferedImage frame) {
+    private void notifyFrameListeners(String sourceKey, BufferedImage frame) {
         for (Consumer<BufferedImage> listener : frameListeners) {
             try {
                 listener.accept(frame);
@@ -268,6 +301,13 @@ public class VideoCaptureService {
                 logger.error("Erreur lors de la notification d'un listener de frame: {}", e.getMessage());
             }
         }
+        for (BiConsumer<String, BufferedImage> listener : sourceFrameListeners) {
+            try {
+                listener.accept(sourceKey, frame);
+            } catch (Exception e) {
+                logger.error("Erreur lors de la notification d'un listener de frame: {}", e.getMessage());
+            }
+        }
     }
 
     /**
@@ -284,6 +324,21 @@ public class VideoCaptureService {
         frameListeners.remove(listener);
     }
 
+    /**
+     * Ajoute un listener recevant les frames avec la clé de leur source
+     * ("local_camera" ou "rtsp_<hash>")
+     */
+    public void addSourceFrameListener(BiConsumer<String, BufferedImage> listener) {
+        sourceFrameListeners.add(listener);
+    }
+
+    /**
+     * Supprime un listener de frames par source
+     */
+    public void removeSourceFrameListener(BiConsumer<String, BufferedImage> listener) {
+        sourceFrameListeners.remove(listener);
+    }
+
     /**
      * Vérifie si la capture est en cours
      */
@@ -3,6 +3,10 @@ class Dashboard {
     constructor() {
         this.recentActivities = [];
         this.maxRecentActivities = 10;
+        // Synchronisation incrémentale de l'historique (curseur et version du jour)
+        this.historyCursor = null;
+        this.historyETag = null;
+        this.historyDate = null;
         this.init();
     }
 
@@ -23,16 +27,39 @@ class Dashboard {
 
     async loadRecentActivities() {
         try {
-            const response = await fetch('/api/v1/history/today');
+            // Après le premier chargement, seules les détections ajoutées depuis le curseur
+            // sont demandées ; un jour inchangé répond 304 sans corps
+            const url = this.historyCursor
+                ? `/api/v1/history/today?since=${encodeURIComponent(this.historyCursor)}`
+                : '/api/v1/history/today';
+            const headers = this.historyETag ? { 'If-None-Match': this.historyETag } : {};
+            const response = await fetch(url, { headers, cache: 'no-store' });
+            if (response.status === 304) {
+                return;
+            }
             const result = await response.json();
             
             if (result.status === 'success') {
+                // Nouveau jour : repartir de l'historique complet
+                if (this.historyDate && this.historyDate !== result.date) {
+                    this.resetHistorySync();
+                    return this.loadRecentActivities();
+                }
+                
                 // Prendre les 10 dernières activités
-                this.recentActivities = result.detections
+                const latest = result.detections
                     .slice(-this.maxRecentActivities)
                     .reverse();
+                this.recentActivities = this.historyCursor
+                    ? this.mergeActivities(latest, this.recentActivities)
+                    : latest;
                 
+                this.historyCursor = result.cursor;
+                this.historyETag = response.headers.get('ETag');
+                this.historyDate = result.date;
                 this.updateRecentActivitiesDisplay();
+            } else {
+                this.resetHistorySync();
             }
             
         } catch (error) {
@@ -40,6 +67,23 @@ class Dashboard {
         }
     }
 
+    resetHistorySync() {
+        this.historyCursor = null;
+        this.historyETag = null;
+        this.historyDate = null;
+    }
+
+    mergeActivities(latest, current) {
+        // Les détections déjà reçues en temps réel ne sont pas dupliquées
+        const key = detection => `${detection.timestamp}|${detection.source_id}|${detection.predicted_activity}`;
+        const known = new Set(current.map(key));
+        return latest
+            .filter(detection => !known.has(key(detection)))
+            .concat(current)
+            .sort((a, b) => String(b.timestamp).localeCompare(String(a.timestamp)))
+            .slice(0, this.maxRecentActivities);
+    }
+
     addRecentActivity(detection) {
         // Ajouter au début de la liste
         this.recentActivities.unshift(detection);